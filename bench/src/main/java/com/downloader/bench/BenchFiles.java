@@ -0,0 +1,53 @@
+package com.downloader.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Scratch files for the JMH benchmarks.
+ */
+final class BenchFiles {
+    /** Size of the file the copy benchmarks move around */
+    static final int FILE_SIZE = 32 * 1024 * 1024;
+
+    private BenchFiles() {
+    }
+
+    static Path createDirectory() throws IOException {
+        return Files.createTempDirectory("downloader-bench");
+    }
+
+    /**
+     * Random, incompressible bytes, the same on every run.
+     */
+    static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    static Path randomFile(Path directory, String name, int size) throws IOException {
+        Path file = directory.resolve(name);
+        byte[] block = randomBytes(1024 * 1024);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int written = 0; written < size; written += block.length) {
+                out.write(block, 0, Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
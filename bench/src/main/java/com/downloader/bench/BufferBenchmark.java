@@ -0,0 +1,81 @@
+package com.downloader.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a local file into a preallocated output file with positional
+ * writes, the way download workers fill their ranges, through heap and
+ * direct buffers of different sizes. A heap buffer is what wrapping the
+ * workers' byte[] amounts to: the JDK copies it into a temporary direct
+ * buffer on every write.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+    @Param({"8192", "65536", "262144", "1048576"})
+    int bufferSize;
+
+    @Param({"heap", "direct"})
+    String buffer;
+
+    private Path directory;
+    private FileChannel source;
+    private FileChannel target;
+    private ByteBuffer bytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchFiles.createDirectory();
+        source = FileChannel.open(BenchFiles.randomFile(directory, "source.bin", BenchFiles.FILE_SIZE),
+            StandardOpenOption.READ);
+        target = FileChannel.open(directory.resolve("target.bin"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        target.write(ByteBuffer.wrap(new byte[1]), BenchFiles.FILE_SIZE - 1);
+        bytes = "direct".equals(buffer) ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        source.close();
+        target.close();
+        BenchFiles.delete(directory);
+    }
+
+    @Benchmark
+    public long copy() throws IOException {
+        long position = 0;
+        while (true) {
+            bytes.clear();
+            int read = source.read(bytes, position);
+            if (read < 0) {
+                return position;
+            }
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                position += target.write(bytes, position);
+            }
+        }
+    }
+}
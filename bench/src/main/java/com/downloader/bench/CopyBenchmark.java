@@ -0,0 +1,95 @@
+package com.downloader.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves a local file into the output with an 8 KB stream copy, with and
+ * without the BufferedInputStream the workers wrap around response
+ * bodies, and with FileChannel.transferFrom.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CopyBenchmark {
+    private Path directory;
+    private Path source;
+    private FileChannel target;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchFiles.createDirectory();
+        source = BenchFiles.randomFile(directory, "source.bin", BenchFiles.FILE_SIZE);
+        target = FileChannel.open(directory.resolve("target.bin"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        target.write(ByteBuffer.wrap(new byte[1]), BenchFiles.FILE_SIZE - 1);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        target.close();
+        BenchFiles.delete(directory);
+    }
+
+    @Benchmark
+    public long streamCopy() throws IOException {
+        try (InputStream in = Files.newInputStream(source)) {
+            return copy(in);
+        }
+    }
+
+    @Benchmark
+    public long bufferedStreamCopy() throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source))) {
+            return copy(in);
+        }
+    }
+
+    @Benchmark
+    public long transferFrom() throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                position += target.transferFrom(in, position, size - position);
+            }
+            return position;
+        }
+    }
+
+    // What a worker does with each read: wrap the array and write it in place
+    private long copy(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        long position = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+            while (bytes.hasRemaining()) {
+                position += target.write(bytes, position);
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,129 @@
+package com.downloader.bench;
+
+import com.downloader.Checksum;
+import com.downloader.Downloader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures what hashing a download while it is written costs: the same
+ * file is downloaded from a loopback server with no digest, MD5 and
+ * SHA-256, and the process CPU time of each run is compared.
+ *
+ * Usage: DigestBenchmark [size-mb] [runs]
+ */
+public class DigestBenchmark {
+    private static final String[] ALGORITHMS = {null, Checksum.MD5, Checksum.SHA_256};
+    private static final int[] CONNECTIONS = {1, 4};
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        byte[] payload = new byte[sizeMb * 1024 * 1024];
+        new Random(42).nextBytes(payload);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        server.createContext("/", exchange -> serve(exchange, payload));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/file.bin";
+
+        File dir = Files.createTempDirectory("digest-bench").toFile();
+        dir.deleteOnExit();
+        String destination = new File(dir, "file.bin").getPath();
+
+        // Warm up the download path and both digests before measuring
+        for (String algorithm : ALGORITHMS) {
+            run(url, destination, 4, algorithm);
+        }
+
+        System.out.printf("%d MB download, best of %d runs%n%n", sizeMb, runs);
+        System.out.printf("%-8s %6s %10s %10s %10s %14s%n",
+            "digest", "conns", "wall", "cpu", "MB/s", "extra cpu/byte");
+
+        for (int connections : CONNECTIONS) {
+            long baselineCpu = 0;
+            for (String algorithm : ALGORITHMS) {
+                long bestWall = Long.MAX_VALUE;
+                long bestCpu = Long.MAX_VALUE;
+                for (int i = 0; i < runs; i++) {
+                    long[] result = run(url, destination, connections, algorithm);
+                    bestWall = Math.min(bestWall, result[0]);
+                    bestCpu = Math.min(bestCpu, result[1]);
+                }
+                if (algorithm == null) {
+                    baselineCpu = bestCpu;
+                }
+                System.out.printf("%-8s %6d %8.1fms %8.1fms %10.1f %11.2f ns%n",
+                    algorithm == null ? "none" : algorithm, connections,
+                    bestWall / 1e6, bestCpu / 1e6, payload.length / 1048576.0 / (bestWall / 1e9),
+                    (double) (bestCpu - baselineCpu) / payload.length);
+            }
+        }
+
+        server.stop(0);
+        System.exit(0);
+    }
+
+    // Returns wall time and process CPU time in nanoseconds
+    private static long[] run(String url, String destination, int connections, String algorithm) throws Exception {
+        new File(destination).delete();
+        Downloader downloader = new Downloader(url, destination, connections);
+        downloader.setPrintProgress(false);
+        if (algorithm != null) {
+            downloader.setDigestAlgorithm(algorithm);
+        }
+
+        long cpu = processCpuTime();
+        long start = System.nanoTime();
+        downloader.startDownload();
+        downloader.getCompletion().get();
+        long wall = System.nanoTime() - start;
+        cpu = processCpuTime() - cpu;
+
+        new File(destination).delete();
+        return new long[] {wall, cpu};
+    }
+
+    private static long processCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+            .getProcessCpuTime();
+    }
+
+    private static void serve(HttpExchange exchange, byte[] payload) throws IOException {
+        int start = 0;
+        int end = payload.length - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring(6).split("-", -1);
+            start = Integer.parseInt(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            exchange.getResponseHeaders().add("Content-Range",
+                "bytes " + start + "-" + end + "/" + payload.length);
+        }
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(payload.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(payload, start, end - start + 1);
+        }
+    }
+}
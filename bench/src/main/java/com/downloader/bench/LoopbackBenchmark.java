@@ -0,0 +1,164 @@
+package com.downloader.bench;
+
+import com.downloader.BufferPool;
+import com.downloader.ConnectionPool;
+import com.downloader.PooledTransport;
+import com.downloader.Transport;
+import com.downloader.TransportRequest;
+import com.downloader.TransportResponse;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads a file from a loopback server through the pooled transport
+ * into a preallocated output file: the old heap read loop with different
+ * buffer sizes, with and without a BufferedInputStream around the body,
+ * the worker's channel loop through a pooled direct buffer, and
+ * FileChannel.transferFrom from the body as a channel. Run with
+ * {@code -prof gc} to compare allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackBenchmark {
+    private static final int SIZE = 16 * 1024 * 1024;
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private Transport transport;
+    private String url;
+    private Path directory;
+    private FileChannel target;
+    private BufferPool buffers;
+
+    /**
+     * Only the read loop takes these, so transferFrom runs once.
+     */
+    @State(Scope.Benchmark)
+    public static class ReadLoop {
+        @Param({"8192", "65536", "262144"})
+        int bufferSize;
+
+        @Param({"true", "false"})
+        boolean buffered;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] payload = BenchFiles.randomBytes(SIZE);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        server.createContext("/", exchange -> serve(exchange, payload));
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file.bin";
+        transport = new PooledTransport(new ConnectionPool(4, 30000));
+
+        directory = BenchFiles.createDirectory();
+        target = FileChannel.open(directory.resolve("target.bin"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        target.write(ByteBuffer.wrap(new byte[1]), SIZE - 1);
+        buffers = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, BufferPool.DEFAULT_MAX_IDLE_BYTES);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.stop(0);
+        serverThreads.shutdownNow();
+        target.close();
+        BenchFiles.delete(directory);
+    }
+
+    @Benchmark
+    public long readLoop(ReadLoop loop) throws IOException {
+        try (TransportResponse response = transport.send(TransportRequest.get(url))) {
+            InputStream body = response.getBody();
+            try (InputStream in = loop.buffered ? new BufferedInputStream(body) : body) {
+                byte[] buffer = new byte[loop.bufferSize];
+                long position = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                    while (bytes.hasRemaining()) {
+                        position += target.write(bytes, position);
+                    }
+                }
+                return position;
+            }
+        }
+    }
+
+    @Benchmark
+    public long channelLoop() throws IOException {
+        try (TransportResponse response = transport.send(TransportRequest.get(url))) {
+            ReadableByteChannel in = response.getBodyChannel();
+            ByteBuffer buffer = buffers.acquire();
+            try {
+                long position = 0;
+                while (in.read(buffer.clear()) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        position += target.write(buffer, position);
+                    }
+                }
+                return position;
+            } finally {
+                buffers.release(buffer);
+            }
+        }
+    }
+
+    @Benchmark
+    public long transferFrom() throws IOException {
+        try (TransportResponse response = transport.send(TransportRequest.get(url));
+             ReadableByteChannel in = response.getBodyChannel()) {
+            long position = 0;
+            long transferred;
+            while ((transferred = target.transferFrom(in, position, SIZE - position)) > 0) {
+                position += transferred;
+            }
+            return position;
+        }
+    }
+
+    private static void serve(HttpExchange exchange, byte[] payload) throws IOException {
+        try {
+            exchange.sendResponseHeaders(200, payload.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(payload);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
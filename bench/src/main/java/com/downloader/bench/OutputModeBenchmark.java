@@ -0,0 +1,121 @@
+package com.downloader.bench;
+
+import com.downloader.Downloader;
+import com.downloader.OutputMode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+/**
+ * Downloads the same file from a loopback server with channel writes and
+ * with memory-mapped windows, and compares wall and process CPU time.
+ * Point the temp directory at the disk you care about with
+ * -Djava.io.tmpdir; window size and count come from the usual
+ * downloader.mmap.* properties.
+ *
+ * Usage: OutputModeBenchmark [size-mb] [connections] [runs]
+ */
+public class OutputModeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        byte[] payload = new byte[sizeMb * 1024 * 1024];
+        new Random(42).nextBytes(payload);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        server.createContext("/", exchange -> serve(exchange, payload));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/file.bin";
+
+        File dir = Files.createTempDirectory("output-bench").toFile();
+        dir.deleteOnExit();
+        String destination = new File(dir, "file.bin").getPath();
+
+        // Warm up both write paths before measuring
+        for (OutputMode mode : OutputMode.values()) {
+            run(url, destination, connections, mode);
+        }
+
+        System.out.printf("%d MB download, %d connections, best of %d runs%n%n", sizeMb, connections, runs);
+        System.out.printf("%-8s %10s %10s %10s %12s%n", "output", "wall", "cpu", "MB/s", "cpu ms/GB");
+
+        for (OutputMode mode : OutputMode.values()) {
+            long bestWall = Long.MAX_VALUE;
+            long bestCpu = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) {
+                long[] result = run(url, destination, connections, mode);
+                bestWall = Math.min(bestWall, result[0]);
+                bestCpu = Math.min(bestCpu, result[1]);
+            }
+            System.out.printf("%-8s %8.1fms %8.1fms %10.1f %12.1f%n",
+                mode.name().toLowerCase(), bestWall / 1e6, bestCpu / 1e6,
+                payload.length / 1048576.0 / (bestWall / 1e9),
+                bestCpu / 1e6 / (payload.length / 1073741824.0));
+        }
+
+        server.stop(0);
+        System.exit(0);
+    }
+
+    // Returns wall time and process CPU time in nanoseconds
+    private static long[] run(String url, String destination, int connections, OutputMode mode) throws Exception {
+        new File(destination).delete();
+        Downloader downloader = new Downloader(url, destination, connections);
+        downloader.setPrintProgress(false);
+        downloader.setOutputMode(mode);
+
+        long cpu = processCpuTime();
+        long start = System.nanoTime();
+        downloader.startDownload();
+        downloader.getCompletion().get();
+        long wall = System.nanoTime() - start;
+        cpu = processCpuTime() - cpu;
+
+        new File(destination).delete();
+        return new long[] {wall, cpu};
+    }
+
+    private static long processCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+            .getProcessCpuTime();
+    }
+
+    private static void serve(HttpExchange exchange, byte[] payload) throws IOException {
+        int start = 0;
+        int end = payload.length - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring(6).split("-", -1);
+            start = Integer.parseInt(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            exchange.getResponseHeaders().add("Content-Range",
+                "bytes " + start + "-" + end + "/" + payload.length);
+        }
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(payload.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(payload, start, end - start + 1);
+        }
+    }
+}
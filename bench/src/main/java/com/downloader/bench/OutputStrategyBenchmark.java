@@ -0,0 +1,166 @@
+package com.downloader.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a download split into ranges, with the 8 KB chunks of the ranges
+ * arriving interleaved as they do from concurrent connections. Compares
+ * positional writes into one preallocated file (what the downloader does)
+ * with the earlier approach of one .partN file per range merged at the
+ * end, using the old 8 KB stream copy or transferTo for the merge.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputStrategyBenchmark {
+    private static final int CHUNK = 8192;
+
+    @Param({"1", "4", "8"})
+    int ranges;
+
+    private Path directory;
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = BenchFiles.createDirectory();
+        data = BenchFiles.randomBytes(BenchFiles.FILE_SIZE);
+    }
+
+    @Setup(Level.Invocation)
+    public void clean() throws IOException {
+        Files.deleteIfExists(target());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchFiles.delete(directory);
+    }
+
+    @Benchmark
+    public long positionalWrites() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(target().toFile(), "rw")) {
+            file.setLength(data.length);
+            FileChannel channel = file.getChannel();
+            long rangeSize = rangeSize();
+            for (long offset = 0; offset < rangeSize; offset += CHUNK) {
+                for (int range = 0; range < ranges; range++) {
+                    long position = range * rangeSize + offset;
+                    int length = chunkLength(range, position);
+                    if (length > 0) {
+                        channel.write(ByteBuffer.wrap(data, (int) position, length), position);
+                    }
+                }
+            }
+            return channel.size();
+        }
+    }
+
+    @Benchmark
+    public long partFilesStreamMerge() throws IOException {
+        writeParts();
+        try (FileOutputStream out = new FileOutputStream(target().toFile())) {
+            byte[] buffer = new byte[CHUNK];
+            for (int range = 0; range < ranges; range++) {
+                Path part = part(range);
+                try (FileInputStream in = new FileInputStream(part.toFile())) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                Files.delete(part);
+            }
+        }
+        return Files.size(target());
+    }
+
+    @Benchmark
+    public long partFilesTransferMerge() throws IOException {
+        writeParts();
+        try (FileChannel out = FileChannel.open(target(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = 0;
+            for (int range = 0; range < ranges; range++) {
+                Path part = part(range);
+                try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long done = 0;
+                    while (done < size) {
+                        done += in.transferTo(done, size - done, out);
+                    }
+                    position += size;
+                }
+                Files.delete(part);
+            }
+            return position;
+        }
+    }
+
+    private void writeParts() throws IOException {
+        FileOutputStream[] parts = new FileOutputStream[ranges];
+        try {
+            for (int range = 0; range < ranges; range++) {
+                parts[range] = new FileOutputStream(part(range).toFile());
+            }
+            long rangeSize = rangeSize();
+            for (long offset = 0; offset < rangeSize; offset += CHUNK) {
+                for (int range = 0; range < ranges; range++) {
+                    long position = range * rangeSize + offset;
+                    int length = chunkLength(range, position);
+                    if (length > 0) {
+                        parts[range].write(data, (int) position, length);
+                    }
+                }
+            }
+        } finally {
+            for (FileOutputStream part : parts) {
+                if (part != null) {
+                    part.close();
+                }
+            }
+        }
+    }
+
+    private long rangeSize() {
+        return (data.length + ranges - 1) / ranges;
+    }
+
+    private int chunkLength(int range, long position) {
+        long end = Math.min(data.length, (range + 1) * rangeSize());
+        return (int) Math.min(CHUNK, end - position);
+    }
+
+    private Path target() {
+        return directory.resolve("target.bin");
+    }
+
+    private Path part(int range) {
+        return directory.resolve("target.bin.part" + range);
+    }
+}
@@ -0,0 +1,78 @@
+package com.downloader.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost of counting downloaded bytes after every read, with four threads
+ * writing at once: one AtomicLong shared by all workers (the old total),
+ * a LongAdder, and a position per range that only its worker writes (what
+ * segments do now) as a volatile store or a release store.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ProgressCounterBenchmark {
+    private static final int READ_SIZE = 8192;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        final AtomicLong total = new AtomicLong();
+        final LongAdder adder = new LongAdder();
+    }
+
+    @State(Scope.Thread)
+    public static class Range {
+        private static final VarHandle POSITION;
+
+        static {
+            try {
+                POSITION = MethodHandles.lookup().findVarHandle(Range.class, "position", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        volatile long position;
+        long local;
+    }
+
+    @Benchmark
+    public long sharedAtomicLong(Shared shared) {
+        return shared.total.addAndGet(READ_SIZE);
+    }
+
+    @Benchmark
+    public void longAdder(Shared shared) {
+        shared.adder.add(READ_SIZE);
+    }
+
+    @Benchmark
+    public void perRangeVolatile(Range range) {
+        range.local += READ_SIZE;
+        range.position = range.local;
+    }
+
+    @Benchmark
+    public void perRangeRelease(Range range) {
+        range.local += READ_SIZE;
+        Range.POSITION.setRelease(range, range.local);
+    }
+}
@@ -0,0 +1,231 @@
+package com.downloader.bench;
+
+import com.downloader.ConnectionPool;
+import com.downloader.HttpClientTransport;
+import com.downloader.PooledTransport;
+import com.downloader.Transport;
+import com.downloader.TransportRequest;
+import com.downloader.TransportResponse;
+import com.downloader.UrlConnectionTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the legacy HttpURLConnection, HttpClient and pooled backends
+ * on a range-request workload against a loopback server, over plain HTTP
+ * and over TLS. Reports connections opened and time to first byte.
+ *
+ * The JDK test server only speaks HTTP/1.1, so locally this measures
+ * connection reuse. Pass the URL of an HTTP/2 (h2 or h2c) server serving a
+ * large file as the first argument to add an HTTP/2 run against it.
+ *
+ * Usage: TransportBenchmark [h2-url] [requests] [concurrency] [range-kb]
+ */
+public class TransportBenchmark {
+    private static final Set<String> connections = ConcurrentHashMap.newKeySet();
+
+    public static void main(String[] args) throws Exception {
+        String externalUrl = args.length > 0 && !args[0].equals("-") ? args[0] : null;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int rangeSize = (args.length > 3 ? Integer.parseInt(args[3]) : 256) * 1024;
+
+        byte[] payload = new byte[requests * rangeSize];
+        new Random(42).nextBytes(payload);
+
+        SSLContext ssl = createSslContext();
+        SSLContext.setDefault(ssl);
+        HttpsURLConnection.setDefaultSSLSocketFactory(ssl.getSocketFactory());
+        HttpsURLConnection.setDefaultHostnameVerifier((host, session) -> true);
+
+        HttpServer plain = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        HttpsServer tls = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        tls.setHttpsConfigurator(new HttpsConfigurator(ssl));
+        for (HttpServer server : Arrays.asList(plain, tls)) {
+            server.createContext("/", exchange -> serve(exchange, payload));
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.start();
+        }
+
+        String plainUrl = "http://localhost:" + plain.getAddress().getPort() + "/file.bin";
+        String tlsUrl = "https://localhost:" + tls.getAddress().getPort() + "/file.bin";
+
+        System.out.printf("%d range requests of %d KB, %d concurrent%n%n", requests, rangeSize / 1024, concurrency);
+        System.out.printf("%-12s %-8s %-9s %6s %10s %10s %10s %10s%n",
+            "transport", "scheme", "protocol", "conns", "ttfb p50", "ttfb p99", "ttfb max", "total");
+
+        for (String url : new String[] {plainUrl, tlsUrl}) {
+            // Warm up class loading and TLS code paths before measuring
+            run(new UrlConnectionTransport(), url, concurrency, concurrency, rangeSize);
+            run(newHttpClient(ssl), url, concurrency, concurrency, rangeSize);
+            run(newPooled(concurrency), url, concurrency, concurrency, rangeSize);
+
+            report(new UrlConnectionTransport(), url, requests, concurrency, rangeSize);
+            report(newHttpClient(ssl), url, requests, concurrency, rangeSize);
+            report(newPooled(concurrency), url, requests, concurrency, rangeSize);
+        }
+
+        if (externalUrl != null) {
+            report(new UrlConnectionTransport(), externalUrl, requests, concurrency, rangeSize);
+            report(newHttpClient(ssl), externalUrl, requests, concurrency, rangeSize);
+            report(newPooled(concurrency), externalUrl, requests, concurrency, rangeSize);
+        }
+
+        plain.stop(0);
+        tls.stop(0);
+        System.exit(0);
+    }
+
+    private static HttpClientTransport newHttpClient(SSLContext ssl) {
+        // A fresh client per run so no connection survives from the previous one
+        return new HttpClientTransport(HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .sslContext(ssl)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build());
+    }
+
+    private static PooledTransport newPooled(int maxPerHost) {
+        return new PooledTransport(new ConnectionPool(maxPerHost, ConnectionPool.DEFAULT_IDLE_TIMEOUT_MS));
+    }
+
+    private static void report(Transport transport, String url, int requests,
+                               int concurrency, int rangeSize) throws Exception {
+        connections.clear();
+        long start = System.nanoTime();
+        Result result = run(transport, url, requests, concurrency, rangeSize);
+        long total = System.nanoTime() - start;
+
+        long[] ttfb = result.ttfbNanos;
+        Arrays.sort(ttfb);
+        boolean local = url.contains("localhost");
+        System.out.printf("%-12s %-8s %-9s %6s %8.2fms %8.2fms %8.2fms %8.1fms%n",
+            transport.getName(), url.substring(0, url.indexOf(':')), result.protocol,
+            local ? String.valueOf(connections.size()) : "n/a",
+            ttfb[ttfb.length / 2] / 1e6, ttfb[(int) (ttfb.length * 0.99)] / 1e6,
+            ttfb[ttfb.length - 1] / 1e6, total / 1e6);
+    }
+
+    private static Result run(Transport transport, String url, int requests,
+                              int concurrency, int rangeSize) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        List<Future<Long>> results = new ArrayList<>();
+        String[] protocol = {""};
+
+        for (int i = 0; i < requests; i++) {
+            long start = (long) i * rangeSize;
+            results.add(pool.submit(() -> {
+                long sent = System.nanoTime();
+                TransportRequest request = TransportRequest.get(url).range(start, start + rangeSize - 1);
+                try (TransportResponse response = transport.send(request);
+                     InputStream body = response.getBody()) {
+                    byte[] buffer = new byte[8192];
+                    int read = body.read(buffer);
+                    long firstByte = System.nanoTime() - sent;
+                    while (read != -1) {
+                        read = body.read(buffer);
+                    }
+                    protocol[0] = response.getProtocol();
+                    return firstByte;
+                }
+            }));
+        }
+
+        long[] ttfb = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            ttfb[i] = results.get(i).get();
+        }
+        pool.shutdown();
+        return new Result(ttfb, protocol[0]);
+    }
+
+    private static void serve(HttpExchange exchange, byte[] payload) throws IOException {
+        connections.add(exchange.getRemoteAddress().toString());
+
+        int start = 0;
+        int end = payload.length - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring(6).split("-", -1);
+            start = Integer.parseInt(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            exchange.getResponseHeaders().add("Content-Range",
+                "bytes " + start + "-" + end + "/" + payload.length);
+        }
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(payload, start, end - start + 1);
+        }
+    }
+
+    // Self-signed localhost certificate generated with keytool
+    private static SSLContext createSslContext() throws Exception {
+        File keystore = File.createTempFile("bench", ".p12");
+        keystore.delete();
+        keystore.deleteOnExit();
+        char[] password = "benchmark".toCharArray();
+
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "bench",
+            "-keyalg", "EC", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+            "-validity", "1", "-storetype", "PKCS12", "-keystore", keystore.getPath(),
+            "-storepass", new String(password))
+            .redirectErrorStream(true).start();
+        process.getInputStream().readAllBytes();
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool failed");
+        }
+
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (FileInputStream in = new FileInputStream(keystore)) {
+            store.load(in, password);
+        }
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(store, password);
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(store);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+        return context;
+    }
+
+    private static class Result {
+        final long[] ttfbNanos;
+        final String protocol;
+
+        Result(long[] ttfbNanos, String protocol) {
+            this.ttfbNanos = ttfbNanos;
+            this.protocol = protocol;
+        }
+    }
+}
@@ -7,7 +7,7 @@ mkdir classes
 
 REM Compile Java files
 echo Compiling Java files...
-javac -d classes src\com\downloader\Utils.java src\com\downloader\Downloader.java src\com\downloader\Main.java src\com\downloader\gui\DownloaderSwingGUI.java
+javac -d classes src\com\downloader\*.java src\com\downloader\gui\*.java
 
 if %ERRORLEVEL% EQU 0 (
     echo ✅ Compilation successful!
@@ -11,12 +11,14 @@ REM Clean log files
 if exist "downloader.log" (
     echo Removing log files...
     del "downloader.log"
+    del "downloader.log.*" 2>nul
 )
 
 REM Clean temporary download files
 echo Cleaning temporary files...
 del "*.part*" 2>nul
 del "*.partial" 2>nul
+del "*.download" 2>nul
 
 REM Clean IDE files
 if exist ".qodo" (
@@ -0,0 +1,263 @@
+package com.downloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log file writer that keeps logging off the download threads. Callers
+ * only put an entry on a bounded queue; one background thread formats
+ * whatever has queued up, appends it in a single write and rotates the
+ * file when it grows past a size limit.
+ *
+ * When the queue is full, entries are dropped (and the number dropped is
+ * logged later) or, with the {@code block} policy, the caller waits for
+ * room. Configured with system properties:
+ * <ul>
+ *   <li>{@code downloader.log.file} - log file, default {@code downloader.log}</li>
+ *   <li>{@code downloader.log.level} - DEBUG, INFO, WARN or ERROR, default INFO</li>
+ *   <li>{@code downloader.log.maxSize} - rotate after this many KB, default 5120</li>
+ *   <li>{@code downloader.log.files} - rotated files to keep, default 3</li>
+ *   <li>{@code downloader.log.queue} - entries that may wait, default 4096</li>
+ *   <li>{@code downloader.log.overflow} - {@code drop} or {@code block}, default drop</li>
+ * </ul>
+ */
+public class AsyncLogger {
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR
+    }
+
+    private static final DateTimeFormatter TIMESTAMP =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static final long IDLE_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long FULL_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final AsyncLogger INSTANCE = new AsyncLogger(
+        new File(System.getProperty("downloader.log.file", "downloader.log")),
+        parseLevel(System.getProperty("downloader.log.level", "INFO")),
+        Math.max(1, Long.getLong("downloader.log.maxSize", 5120)) * 1024,
+        Math.max(0, Integer.getInteger("downloader.log.files", 3)),
+        Math.max(1, Integer.getInteger("downloader.log.queue", 4096)),
+        "block".equalsIgnoreCase(System.getProperty("downloader.log.overflow", "drop")));
+
+    private final File file;
+    private final long maxSize;
+    private final int keepFiles;
+    private final int capacity;
+    private final boolean blockWhenFull;
+    private volatile Level level;
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Only touched by the writer thread
+    private OutputStream out;
+    private long size;
+    private final StringBuilder batch = new StringBuilder();
+
+    AsyncLogger(File file, Level level, long maxSize, int keepFiles, int capacity, boolean blockWhenFull) {
+        this.file = file;
+        this.level = level;
+        this.maxSize = maxSize;
+        this.keepFiles = keepFiles;
+        this.capacity = capacity;
+        this.blockWhenFull = blockWhenFull;
+
+        writer = new Thread(this::run, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Write out what is still queued when the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "log-flush"));
+    }
+
+    public static AsyncLogger get() {
+        return INSTANCE;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0;
+    }
+
+    public void log(Level level, String message, Throwable error) {
+        if (!isEnabled(level) || closed) {
+            return;
+        }
+
+        // Take a slot first so the queue never holds more than its capacity
+        while (queued.getAndIncrement() >= capacity) {
+            queued.decrementAndGet();
+            if (!blockWhenFull || closed) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(FULL_WAIT_NANOS);
+        }
+
+        queue.add(new Entry(System.currentTimeMillis(), level, message, error));
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Stop accepting entries and wait briefly for the queue to be written.
+     */
+    void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            if (!writeBatch()) {
+                LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+            }
+        }
+        // Whatever was queued before closing, and the count of dropped entries
+        writeBatch();
+        closeFile();
+    }
+
+    // Append everything queued so far in one write
+    private boolean writeBatch() {
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            format(new Entry(System.currentTimeMillis(), Level.WARN,
+                lost + " log entries dropped, the log queue was full", null));
+        }
+
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            queued.decrementAndGet();
+            format(entry);
+        }
+        if (batch.length() == 0) {
+            return false;
+        }
+
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        batch.setLength(0);
+        try {
+            if (out == null) {
+                openFile();
+            }
+            out.write(bytes);
+            out.flush();
+            size += bytes.length;
+            if (size >= maxSize) {
+                rotate();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write to log file: " + e.getMessage());
+            closeFile();
+        }
+        return true;
+    }
+
+    private void format(Entry entry) {
+        batch.append('[').append(TIMESTAMP.format(Instant.ofEpochMilli(entry.time))).append("] ")
+            .append(entry.level).append(": ").append(entry.message).append(System.lineSeparator());
+        if (entry.error != null) {
+            StringWriter trace = new StringWriter();
+            entry.error.printStackTrace(new PrintWriter(trace));
+            batch.append("Exception: ").append(entry.error.getMessage()).append(System.lineSeparator())
+                .append(trace);
+        }
+        if (entry.level == Level.ERROR) {
+            batch.append("----------------------------------------").append(System.lineSeparator());
+        }
+    }
+
+    private void openFile() throws IOException {
+        out = new FileOutputStream(file, true);
+        size = file.length();
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Nothing left to report it to
+            }
+            out = null;
+        }
+    }
+
+    // downloader.log becomes downloader.log.1, .1 becomes .2 and so on
+    private void rotate() throws IOException {
+        closeFile();
+        if (keepFiles == 0) {
+            if (!file.delete()) {
+                throw new IOException("Could not delete " + file);
+            }
+        } else {
+            new File(file.getPath() + "." + keepFiles).delete();
+            for (int i = keepFiles - 1; i >= 1; i--) {
+                File older = new File(file.getPath() + "." + i);
+                if (older.exists()) {
+                    older.renameTo(new File(file.getPath() + "." + (i + 1)));
+                }
+            }
+            if (!file.renameTo(new File(file.getPath() + ".1"))) {
+                throw new IOException("Could not rotate " + file);
+            }
+        }
+        openFile();
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log level " + name + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+    private static class Entry {
+        final long time;
+        final Level level;
+        final String message;
+        final Throwable error;
+
+        Entry(long time, Level level, String message, Throwable error) {
+            this.time = time;
+            this.level = level;
+            this.message = message;
+            this.error = error;
+        }
+    }
+}
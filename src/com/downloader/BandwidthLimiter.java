@@ -0,0 +1,250 @@
+package com.downloader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Two-level bandwidth limit: a global cap shared by all downloads and an
+ * optional cap per job. While the global cap is set, running jobs split
+ * it by weight; a job held back by its own cap or by a slow server leaves
+ * its unused part to the others.
+ *
+ * Workers take bytes in grants of about a tenth of a second's worth, so
+ * the read loop only touches the buckets once per grant, never per read.
+ */
+public class BandwidthLimiter {
+    // Grants are sized so no worker sleeps much longer than this
+    private static final long GRANT_NANOS = 100_000_000L;
+    private static final long MIN_GRANT = 1024;
+    private static final long MAX_GRANT = 64 * 1024;
+    // Without any limit workers still check back this often, so a new limit applies quickly
+    private static final long UNLIMITED_GRANT = 1024 * 1024;
+    private static final long MIN_SHARE_RATE = 16 * 1024;
+    private static final long REBALANCE_MS = 1000;
+
+    private final LongSupplier clock;
+    private final TokenBucket global;
+    private final List<Share> active = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService rebalancer;
+    private ScheduledFuture<?> rebalanceTask;
+
+    public BandwidthLimiter() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * @param clock current time in nanoseconds, as System.nanoTime
+     */
+    BandwidthLimiter(LongSupplier clock) {
+        this.clock = clock;
+        this.global = new TokenBucket(0, clock);
+    }
+
+    /**
+     * @param bytesPerSecond total rate for all jobs, 0 for unlimited
+     */
+    public synchronized void setGlobalLimit(long bytesPerSecond) {
+        global.setRate(bytesPerSecond);
+        rebalance();
+
+        // Shares only need watching while there is a global cap to divide
+        if (bytesPerSecond > 0 && rebalanceTask == null) {
+            if (rebalancer == null) {
+                rebalancer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "bandwidth-rebalancer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            rebalanceTask = rebalancer.scheduleWithFixedDelay(this::rebalance,
+                REBALANCE_MS, REBALANCE_MS, TimeUnit.MILLISECONDS);
+        } else if (bytesPerSecond <= 0 && rebalanceTask != null) {
+            rebalanceTask.cancel(false);
+            rebalanceTask = null;
+        }
+    }
+
+    /**
+     * @return the global rate in bytes per second, 0 when unlimited
+     */
+    public long getGlobalLimit() {
+        return global.getRate();
+    }
+
+    /**
+     * Create a share for one job. It takes part in dividing the global
+     * cap only while active.
+     */
+    public Share newShare(int weight, long bytesPerSecond) {
+        return new Share(weight, bytesPerSecond);
+    }
+
+    /**
+     * Work out each active job's rate: jobs are offered the global cap in
+     * proportion to their weight; any job whose own cap or recent usage is
+     * below its offer keeps only that, and the rest is offered again to
+     * the remaining jobs.
+     */
+    synchronized void rebalance() {
+        long total = global.getRate();
+        List<Share> shares = new ArrayList<>(active);
+        long now = clock.getAsLong();
+
+        for (Share share : shares) {
+            share.updateDemand(now);
+        }
+
+        if (total <= 0) {
+            for (Share share : shares) {
+                share.bucket.setRate(share.limit);
+            }
+            return;
+        }
+
+        List<Share> open = new ArrayList<>(shares);
+        long remaining = total;
+        boolean settled = false;
+        while (!open.isEmpty() && !settled) {
+            long weights = 0;
+            for (Share share : open) {
+                weights += share.weight;
+            }
+
+            settled = true;
+            for (Share share : new ArrayList<>(open)) {
+                long offer = remaining * share.weight / weights;
+                long ceiling = share.getCeiling();
+                if (ceiling > 0 && ceiling < offer) {
+                    share.bucket.setRate(ceiling);
+                    remaining -= ceiling;
+                    open.remove(share);
+                    settled = false;
+                }
+            }
+            if (settled) {
+                for (Share share : open) {
+                    share.bucket.setRate(Math.max(1, remaining * share.weight / weights));
+                }
+            }
+        }
+    }
+
+    /**
+     * One job's view of the limiter. Workers call {@link #acquire()} after
+     * using up their previous grant.
+     */
+    public class Share {
+        private final TokenBucket bucket;
+        private final AtomicLong used = new AtomicLong();
+        private volatile int weight;
+        private volatile long limit;
+        private long demand;
+        private long lastUsed;
+        private long lastCheck = clock.getAsLong();
+
+        private Share(int weight, long bytesPerSecond) {
+            this.weight = Math.max(1, weight);
+            this.limit = Math.max(0, bytesPerSecond);
+            this.bucket = new TokenBucket(this.limit, clock);
+        }
+
+        /**
+         * Wait until the next grant of bytes may be used.
+         * @return the number of bytes granted
+         */
+        public long acquire() throws InterruptedException {
+            long rate = minRate(bucket.getRate(), global.getRate());
+            long grant = rate <= 0 ? UNLIMITED_GRANT
+                : Math.max(MIN_GRANT, Math.min(MAX_GRANT, rate * GRANT_NANOS / 1_000_000_000L));
+
+            used.addAndGet(grant);
+            long wait = Math.max(bucket.reserve(grant), global.reserve(grant));
+            if (wait > 0) {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+            return grant;
+        }
+
+        public void setActive(boolean running) {
+            synchronized (BandwidthLimiter.this) {
+                if (running && !active.contains(this)) {
+                    lastCheck = clock.getAsLong();
+                    lastUsed = used.get();
+                    demand = 0;
+                    active.add(this);
+                } else if (!running) {
+                    active.remove(this);
+                }
+                rebalance();
+            }
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = Math.max(1, weight);
+            rebalance();
+        }
+
+        /**
+         * @return the job's own cap in bytes per second, 0 when unlimited
+         */
+        public long getLimit() {
+            return limit;
+        }
+
+        public void setLimit(long bytesPerSecond) {
+            this.limit = Math.max(0, bytesPerSecond);
+            bucket.setRate(limit);
+            rebalance();
+        }
+
+        /**
+         * The rate this job currently gets, 0 when unlimited.
+         */
+        public long getEffectiveRate() {
+            return minRate(bucket.getRate(), global.getRate());
+        }
+
+        // Called with the limiter locked
+        private void updateDemand(long now) {
+            long elapsed = now - lastCheck;
+            if (elapsed < REBALANCE_MS * 500_000L) {
+                return;
+            }
+            long usedNow = used.get();
+            long usage = (usedNow - lastUsed) * 1_000_000_000L / elapsed;
+            lastUsed = usedNow;
+            lastCheck = now;
+
+            // A job that did not use most of its rate is limited elsewhere;
+            // leave it some headroom to grow and give the rest away
+            long rate = bucket.getRate();
+            demand = rate > 0 && usage < rate * 8 / 10
+                ? Math.max(MIN_SHARE_RATE, usage + usage / 2) : 0;
+        }
+
+        private long getCeiling() {
+            if (limit > 0 && demand > 0) {
+                return Math.min(limit, demand);
+            }
+            return limit > 0 ? limit : demand;
+        }
+    }
+
+    private static long minRate(long a, long b) {
+        if (a <= 0) {
+            return b;
+        }
+        return b <= 0 ? a : Math.min(a, b);
+    }
+}
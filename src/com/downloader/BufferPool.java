@@ -0,0 +1,156 @@
+package com.downloader;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Direct buffers shared by every download in the process. A worker takes
+ * one for each range request and gives it back afterwards, so data moves
+ * from the socket to the output file without passing through the Java
+ * heap and without allocating a buffer per request.
+ *
+ * Buffers come in power-of-two size classes from {@link #MIN_BUFFER_SIZE}
+ * to {@link #MAX_BUFFER_SIZE}, so a connection can switch to the size that
+ * suits its speed (see {@link #sizeFor}) and still reuse buffers others gave
+ * back. Idle buffers are kept up to a total number of bytes; beyond that
+ * they are left to the garbage collector.
+ *
+ * Configured with system properties:
+ * <ul>
+ *   <li>{@code downloader.bufferSize} - bytes per buffer before a connection's speed is known, default 65536</li>
+ *   <li>{@code downloader.bufferPool.maxMB} - idle buffer memory kept, default 16</li>
+ * </ul>
+ */
+public class BufferPool {
+    public static final int MIN_BUFFER_SIZE = 16 * 1024;
+    public static final int MAX_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_MAX_IDLE_BYTES = 16L * 1024 * 1024;
+    /** A buffer should hold about this much of a connection's data */
+    static final long FILL_NANOS = 20_000_000;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SHIFT + 1;
+
+    private static volatile BufferPool shared;
+
+    private final int defaultSize;
+    private final long maxIdleBytes;
+    // One queue per size class
+    private final List<ArrayBlockingQueue<ByteBuffer>> idle = new ArrayList<>(CLASSES);
+    private final AtomicLong idleBytes = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+
+    public BufferPool(int defaultSize, long maxIdleBytes) {
+        this.defaultSize = roundUp(defaultSize);
+        this.maxIdleBytes = Math.max(MAX_BUFFER_SIZE, maxIdleBytes);
+        for (int i = 0; i < CLASSES; i++) {
+            int size = MIN_BUFFER_SIZE << i;
+            idle.add(new ArrayBlockingQueue<>((int) Math.max(1, this.maxIdleBytes / size)));
+        }
+    }
+
+    /**
+     * The process-wide pool used by downloads.
+     */
+    public static BufferPool getShared() {
+        if (shared == null) {
+            synchronized (BufferPool.class) {
+                if (shared == null) {
+                    shared = new BufferPool(
+                        Integer.getInteger("downloader.bufferSize", DEFAULT_BUFFER_SIZE),
+                        Long.getLong("downloader.bufferPool.maxMB", DEFAULT_MAX_IDLE_BYTES >> 20) << 20);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * The buffer size for a connection receiving this many bytes per
+     * second: big enough to hold about 20 ms of its data, so fast
+     * connections make fewer reads and writes while slow ones, whose reads
+     * return little at a time anyway, tie up little memory.
+     * @param bytesPerSecond the connection's speed, or 0 if not known yet
+     */
+    public int sizeFor(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            return defaultSize;
+        }
+        return roundUp((int) Math.min(MAX_BUFFER_SIZE, bytesPerSecond * FILL_NANOS / 1_000_000_000L));
+    }
+
+    /**
+     * @return a cleared direct buffer of the default size
+     */
+    public ByteBuffer acquire() {
+        return acquire(defaultSize);
+    }
+
+    /**
+     * @return a cleared direct buffer of at least the given size, rounded
+     *         up to its size class
+     */
+    public ByteBuffer acquire(int size) {
+        int sizeClass = classOf(roundUp(size));
+        ByteBuffer buffer = idle.get(sizeClass).poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(MIN_BUFFER_SIZE << sizeClass);
+        }
+        idleBytes.addAndGet(-buffer.capacity());
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back. It must not be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int size = buffer.capacity();
+        if (size < MIN_BUFFER_SIZE || size > MAX_BUFFER_SIZE || Integer.bitCount(size) != 1) {
+            return;
+        }
+        if (idleBytes.addAndGet(size) > maxIdleBytes || !idle.get(classOf(size)).offer(buffer)) {
+            idleBytes.addAndGet(-size);
+        }
+    }
+
+    public int getDefaultSize() {
+        return defaultSize;
+    }
+
+    /**
+     * @return bytes held in idle buffers
+     */
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    /**
+     * @return buffers allocated because none of the size was idle
+     */
+    public long getAllocatedCount() {
+        return allocated.get();
+    }
+
+    private static int roundUp(int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return MIN_BUFFER_SIZE;
+        }
+        if (size >= MAX_BUFFER_SIZE) {
+            return MAX_BUFFER_SIZE;
+        }
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    private static int classOf(int size) {
+        return Integer.numberOfTrailingZeros(size) - MIN_SHIFT;
+    }
+}
@@ -0,0 +1,69 @@
+package com.downloader;
+
+import java.util.Locale;
+
+/**
+ * Expected digest of a download, given as {@code sha256:<hex>},
+ * {@code md5:<hex>} or just the hex string (the length tells which).
+ */
+public final class Checksum {
+    public static final String SHA_256 = "SHA-256";
+    public static final String MD5 = "MD5";
+
+    private final String algorithm;
+    private final String hex;
+
+    public Checksum(String algorithm, String hex) {
+        this.algorithm = algorithm;
+        this.hex = hex.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text is not a SHA-256 or MD5 digest
+     */
+    public static Checksum parse(String text) {
+        String value = text.trim();
+        String algorithm = null;
+
+        int colon = value.indexOf(':');
+        if (colon > 0) {
+            String prefix = value.substring(0, colon).replace("-", "").toLowerCase(Locale.ROOT);
+            value = value.substring(colon + 1).trim();
+            if (prefix.equals("sha256")) {
+                algorithm = SHA_256;
+            } else if (prefix.equals("md5")) {
+                algorithm = MD5;
+            } else {
+                throw new IllegalArgumentException("Unsupported checksum type: " + prefix);
+            }
+        }
+
+        if (!value.matches("[0-9a-fA-F]+")) {
+            throw new IllegalArgumentException("Checksum must be hexadecimal");
+        }
+        if (algorithm == null) {
+            algorithm = value.length() == 64 ? SHA_256 : value.length() == 32 ? MD5 : null;
+        }
+        if (algorithm == null || value.length() != (algorithm.equals(SHA_256) ? 64 : 32)) {
+            throw new IllegalArgumentException("Checksum must be 64 hex digits (SHA-256) or 32 (MD5)");
+        }
+        return new Checksum(algorithm, value);
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public String getHex() {
+        return hex;
+    }
+
+    public boolean matches(String actualHex) {
+        return hex.equalsIgnoreCase(actualHex);
+    }
+
+    @Override
+    public String toString() {
+        return (algorithm.equals(SHA_256) ? "sha256:" : "md5:") + hex;
+    }
+}
@@ -0,0 +1,86 @@
+package com.downloader;
+
+import java.util.Locale;
+
+/**
+ * Whether files are asked for with gzip or deflate compression.
+ *
+ * A compressed response cannot be split into ranges, so it comes over a
+ * single connection and is inflated into the output as it arrives. In
+ * AUTO mode text-like files of at least {@link #MIN_AUTO_SIZE} are asked
+ * for compressed on the connection that starts at byte 0, while the other
+ * connections fetch ranges as usual. Once the compressed stream has run
+ * for a moment its output speed is compared with what the ranges deliver,
+ * and the faster way downloads the rest. ALWAYS asks for every file
+ * compressed and keeps to the single stream whenever the server
+ * compresses. OFF never asks.
+ *
+ * The default is picked with the downloader.compression system property
+ * ("auto", "always" or "off") or {@link #setDefault}.
+ */
+public enum CompressionMode {
+    OFF,
+    AUTO,
+    ALWAYS;
+
+    /** Smaller files are not worth a second request in AUTO mode */
+    public static final long MIN_AUTO_SIZE = 1024 * 1024;
+
+    private static volatile CompressionMode defaultMode = fromSystemProperty();
+
+    public static CompressionMode getDefault() {
+        return defaultMode;
+    }
+
+    public static void setDefault(CompressionMode mode) {
+        defaultMode = mode;
+    }
+
+    /**
+     * @return the mode named "off", "auto" or "always", or null
+     */
+    public static CompressionMode parse(String name) {
+        for (CompressionMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether to ask for a file compressed.
+     * @param contentType the Content-Type it is served with, or null
+     * @param fileSize its size, or -1 if unknown
+     */
+    boolean appliesTo(String contentType, long fileSize) {
+        switch (this) {
+            case ALWAYS:
+                return true;
+            case AUTO:
+                return (fileSize < 0 || fileSize >= MIN_AUTO_SIZE) && isCompressible(contentType);
+            default:
+                return false;
+        }
+    }
+
+    // Text formats; archives, media and unknown binaries rarely shrink
+    private static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || type.contains("json") || type.contains("xml") ||
+            type.contains("csv") || type.contains("javascript") || type.contains("yaml");
+    }
+
+    private static CompressionMode fromSystemProperty() {
+        String name = System.getProperty("downloader.compression", "auto");
+        CompressionMode mode = parse(name);
+        if (mode == null) {
+            System.out.println("Unknown compression mode " + name + ". Using auto.");
+            return AUTO;
+        }
+        return mode;
+    }
+}
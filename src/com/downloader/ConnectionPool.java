@@ -0,0 +1,254 @@
+package com.downloader;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keep-alive connections grouped by host, shared by every download in the
+ * process. Range requests and probes borrow a connection and give it back
+ * when the response has been read, so the TCP and TLS handshakes are paid
+ * once per connection rather than once per request.
+ */
+public class ConnectionPool {
+    // One download may use up to this many connections to its host
+    public static final int DEFAULT_MAX_PER_HOST = Downloader.MAX_CONNECTIONS;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+
+    private static volatile ConnectionPool shared;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private final Map<String, HostConnections> hosts = new HashMap<>();
+    private final ScheduledExecutorService evictor;
+    private volatile int maxPerHost;
+    private final long idleTimeoutMs;
+
+    public ConnectionPool(int maxPerHost, long idleTimeoutMs) {
+        this.maxPerHost = maxPerHost;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMs / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The process-wide pool used by default.
+     */
+    public static ConnectionPool getShared() {
+        if (shared == null) {
+            synchronized (ConnectionPool.class) {
+                if (shared == null) {
+                    shared = new ConnectionPool(DEFAULT_MAX_PER_HOST, DEFAULT_IDLE_TIMEOUT_MS);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Borrow a healthy idle connection to the host, or open a new one.
+     * Blocks while the host already has the maximum number of connections
+     * in use, for at most the connect timeout.
+     */
+    public HttpConnection borrow(String scheme, String host, int port,
+                                 int connectTimeout, int readTimeout) throws IOException {
+        String key = scheme + "://" + host + ":" + port;
+        long deadline = System.currentTimeMillis() + connectTimeout;
+
+        while (true) {
+            HttpConnection idle = reserve(key, deadline);
+            if (idle == null) {
+                break;
+            }
+            // Health check outside the lock, it touches the socket
+            if (isHealthy(idle)) {
+                idle.setReadTimeout(readTimeout);
+                return idle;
+            }
+            idle.close();
+            release(key, null);
+        }
+
+        // Connect outside the lock; the slot is already reserved
+        try {
+            return HttpConnection.open(key, scheme, host, port, connectTimeout, readTimeout);
+        } catch (IOException | RuntimeException e) {
+            release(key, null);
+            throw e;
+        }
+    }
+
+    /**
+     * Take a slot for the host, waiting while it is full.
+     * @return an idle connection to try, or null to open a new one
+     */
+    private HttpConnection reserve(String key, long deadline) throws IOException {
+        lock.lock();
+        try {
+            HostConnections connections = hosts.computeIfAbsent(key, k -> new HostConnections());
+            while (true) {
+                HttpConnection idle = connections.idle.pollFirst();
+                if (idle != null || connections.leased < maxPerHost) {
+                    // A taken idle connection still counts towards the limit
+                    connections.leased++;
+                    return idle;
+                }
+
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new SocketTimeoutException("Timed out waiting for a connection to " + key);
+                }
+                try {
+                    slotFreed.await(wait, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for a connection to " + key);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return a connection after its response was fully read. Connections
+     * that cannot be reused are closed instead.
+     */
+    public void release(HttpConnection connection, boolean reusable) {
+        if (!reusable) {
+            connection.close();
+            release(connection.getKey(), null);
+        } else {
+            connection.markIdle();
+            release(connection.getKey(), connection);
+        }
+    }
+
+    private void release(String key, HttpConnection idle) {
+        lock.lock();
+        try {
+            HostConnections connections = hosts.get(key);
+            if (connections != null) {
+                connections.leased--;
+                if (idle != null) {
+                    connections.idle.addFirst(idle);
+                }
+            }
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Change the limit of connections in use per host.
+     */
+    public void setMaxPerHost(int maxPerHost) {
+        lock.lock();
+        try {
+            this.maxPerHost = Math.max(1, maxPerHost);
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    /**
+     * Number of connections currently lent out, across all hosts.
+     */
+    public int getLeasedCount() {
+        lock.lock();
+        try {
+            int leased = 0;
+            for (HostConnections connections : hosts.values()) {
+                leased += connections.leased;
+            }
+            return leased;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            int idle = 0;
+            for (HostConnections connections : hosts.values()) {
+                idle += connections.idle.size();
+            }
+            return idle;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close every idle connection.
+     */
+    public void closeIdle() {
+        lock.lock();
+        try {
+            for (HostConnections connections : hosts.values()) {
+                for (HttpConnection connection : connections.idle) {
+                    connection.close();
+                }
+                connections.idle.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            Iterator<Map.Entry<String, HostConnections>> entries = hosts.entrySet().iterator();
+            while (entries.hasNext()) {
+                HostConnections connections = entries.next().getValue();
+                Iterator<HttpConnection> idle = connections.idle.iterator();
+                while (idle.hasNext()) {
+                    HttpConnection connection = idle.next();
+                    if (now - connection.getIdleSince() > idleTimeoutMs) {
+                        connection.close();
+                        idle.remove();
+                    }
+                }
+                if (connections.idle.isEmpty() && connections.leased == 0) {
+                    entries.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isHealthy(HttpConnection connection) {
+        return System.currentTimeMillis() - connection.getIdleSince() <= idleTimeoutMs &&
+            connection.isHealthy();
+    }
+
+    private static class HostConnections {
+        // Most recently used first, so the oldest ones age out
+        final Deque<HttpConnection> idle = new ArrayDeque<>();
+        int leased;
+    }
+}
@@ -0,0 +1,124 @@
+package com.downloader;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Picks the number of connections for a download in auto mode.
+ * It starts with a few, measures throughput over a short window, and
+ * keeps adding connections while each step raises throughput noticeably.
+ * When a step stops helping it goes back to the previous level and stays
+ * there. If the server pushes back with 429 or 503 it drops a quarter of
+ * the connections and never grows past that level again.
+ */
+class ConnectionTuner {
+    static final int INITIAL_CONNECTIONS = 4;
+
+    private static final long WINDOW_MS = 2000;
+    // A step has to add at least this much throughput to be kept
+    private static final double MIN_GAIN = 1.10;
+
+    private final int maxConnections;
+    private final AtomicBoolean throttled = new AtomicBoolean();
+    private int level;
+    private int ceiling;
+    // Connections the host allows, see setLimit
+    private int limit = Integer.MAX_VALUE;
+    private int previousLevel;
+    private double previousThroughput;
+    private boolean settled;
+    private boolean warmingUp;
+    private long windowStart;
+
+    ConnectionTuner(int maxConnections) {
+        this.maxConnections = Math.max(1, maxConnections);
+        this.ceiling = this.maxConnections;
+        this.level = Math.min(INITIAL_CONNECTIONS, this.maxConnections);
+    }
+
+    /**
+     * Start a fresh measurement window, e.g. after a pause.
+     */
+    synchronized void restart(long now) {
+        windowStart = now;
+        warmingUp = true;
+    }
+
+    /**
+     * Never go above this many connections, e.g. the per-host limit of a
+     * download manager: connections past it would only wait for a slot,
+     * so a step up to them would look like no gain.
+     */
+    synchronized void setLimit(int limit) {
+        this.limit = Math.max(1, limit);
+        level = Math.min(level, this.limit);
+    }
+
+    /**
+     * Called from a worker when the server answered 429 or 503.
+     */
+    void onThrottled() {
+        throttled.set(true);
+    }
+
+    /**
+     * Called after each progress sample.
+     * @param throughput the download's estimator, for the speed over the last window
+     * @return the number of connections the download should have now
+     */
+    synchronized int update(long now, ThroughputEstimator throughput) {
+        if (throttled.getAndSet(false)) {
+            ceiling = Math.max(1, level * 3 / 4);
+            level = Math.min(level, ceiling);
+            settled = true;
+            restart(now);
+            Utils.logWarn("Server is throttling, backing off to " + level + " connections");
+            return level;
+        }
+
+        long elapsed = now - windowStart;
+        if (settled || elapsed < WINDOW_MS) {
+            return level;
+        }
+
+        double speed = throughput.getSpeedSince(windowStart);
+        if (speed < 0) {
+            return level;
+        }
+        windowStart = now;
+
+        // New connections need a window to get going before they are judged
+        if (warmingUp) {
+            warmingUp = false;
+            return level;
+        }
+
+        int top = Math.min(ceiling, limit);
+        if (previousLevel == 0 || speed >= previousThroughput * MIN_GAIN) {
+            if (level >= top) {
+                settled = true;
+            } else {
+                previousLevel = level;
+                previousThroughput = speed;
+                level = Math.min(top, level + Math.max(1, level / 2));
+                warmingUp = true;
+            }
+        } else {
+            // The last step did not pay off
+            level = previousLevel;
+            settled = true;
+        }
+
+        if (settled) {
+            Utils.logInfo("Connection count settled at " + level + (level >= limit ? " (the per-host limit)" : ""));
+        }
+        return level;
+    }
+
+    synchronized int getLevel() {
+        return level;
+    }
+
+    int getMaxConnections() {
+        return maxConnections;
+    }
+}
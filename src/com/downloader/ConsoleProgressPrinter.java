@@ -0,0 +1,87 @@
+package com.downloader;
+
+/**
+ * Prints a progress bar and a summary for a download to the console.
+ * Every {@link Downloader} has one until printing is turned off.
+ */
+class ConsoleProgressPrinter implements DownloadListener {
+    private static final int BAR_LENGTH = 30;
+
+    private long startTime;
+    private boolean started;
+
+    @Override
+    public void downloadStarted(Downloader downloader) {
+        if (!started) {
+            started = true;
+            startTime = System.currentTimeMillis();
+        } else {
+            System.out.println("Download resumed.");
+        }
+    }
+
+    @Override
+    public void progressChanged(Downloader downloader, ProgressSnapshot progress) {
+        long downloaded = progress.getTotalBytes();
+        long fileSize = progress.getFileSize();
+        ThroughputEstimator throughput = downloader.getThroughput();
+        long speed = throughput.getCurrentSpeed();
+
+        if (fileSize > 0) {
+            double percentage = progress.getPercentage();
+            long eta = throughput.getEta(fileSize - downloaded);
+
+            System.out.printf("\r[%s] %.1f%% | %s/%s | Speed: %s/s | ETA: %s",
+                createProgressBar(percentage), percentage,
+                Utils.formatBytes(downloaded), Utils.formatBytes(fileSize),
+                Utils.formatBytes(speed),
+                eta >= 0 ? Utils.formatTime(eta) : "Unknown");
+        } else {
+            System.out.printf("\rDownloaded: %s | Speed: %s/s | Time: %s",
+                Utils.formatBytes(downloaded),
+                Utils.formatBytes(speed),
+                Utils.formatTime((progress.getTimestamp() - startTime) / 1000));
+        }
+        // Part of the file comes compressed: show what actually crossed the network
+        if (downloader.isCompressed()) {
+            System.out.print(" | Wire: " + Utils.formatBytes(progress.getWireBytes()));
+        }
+    }
+
+    @Override
+    public void downloadPaused(Downloader downloader) {
+        System.out.println("\nDownload paused. Progress saved to partial file.");
+    }
+
+    @Override
+    public void downloadCompleted(Downloader downloader) {
+        long totalTime = (System.currentTimeMillis() - startTime) / 1000;
+
+        System.out.println("\n\n✅ Download completed successfully!");
+        System.out.println("File saved to: " + downloader.getDestinationPath());
+        // Nothing was transferred for a copy taken from the cache or another download
+        if (!downloader.isFromCache() && !downloader.isCoalesced()) {
+            System.out.println("Total time: " + Utils.formatTime(totalTime));
+            System.out.println("Average speed: " + Utils.formatBytes(downloader.getThroughput().getAverageSpeed()) + "/s");
+            System.out.println("Connections: " + downloader.getConnections() +
+                (downloader.isAutoTuned() ? " (auto-tuned)" : ""));
+            if (downloader.isCompressed()) {
+                System.out.println("Received: " + Utils.formatBytes(downloader.getWireBytes()) +
+                    " over the network for " + Utils.formatBytes(downloader.getFileSize()));
+            }
+        }
+        if (downloader.getChecksum() != null) {
+            System.out.println(downloader.getDigestAlgorithm() + ": " + downloader.getChecksum() +
+                (downloader.getExpectedChecksum() != null ? " (verified)" : ""));
+        }
+    }
+
+    private static String createProgressBar(double percentage) {
+        int filled = (int) (percentage / 100 * BAR_LENGTH);
+        StringBuilder bar = new StringBuilder();
+        for (int i = 0; i < BAR_LENGTH; i++) {
+            bar.append(i < filled ? "█" : "░");
+        }
+        return bar.toString();
+    }
+}
@@ -0,0 +1,150 @@
+package com.downloader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Finished downloads kept by the digest computed while downloading, so
+ * identical files fetched from different URLs or to different places take
+ * the space of one. The first download of some content is hard-linked into
+ * the store as {@code <algorithm>/<first two hex digits>/<hex>}; a later
+ * download with the same digest is replaced by a hard link to that stored
+ * file. The copies share their data until one is deleted or replaced, so
+ * editing one in place changes all of them, as with any hard link. The
+ * stored file is hashed again before a download is linked to it, and one
+ * that no longer matches its digest is replaced by the new download.
+ *
+ * Downloads on another file system than the store are left alone. A
+ * stored file no download links to any more is deleted by {@link #prune()}.
+ *
+ * Configured with the system property {@code downloader.store.dir}; the
+ * store is off unless it is set.
+ */
+public class ContentStore {
+    private static volatile ContentStore shared;
+    private static volatile boolean sharedLoaded;
+
+    private final Path directory;
+    // Serialises adds within the process, see ExecutionMode
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private ContentStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Open or create a store directory. Several downloads, and several
+     * processes, can use one at a time.
+     */
+    public static ContentStore open(String directory) throws IOException {
+        Path dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        return new ContentStore(dir);
+    }
+
+    /**
+     * The store every new download uses: the one set with
+     * {@link #setShared}, or else the one downloader.store.dir names, or null.
+     */
+    public static ContentStore getShared() {
+        if (!sharedLoaded) {
+            synchronized (ContentStore.class) {
+                if (!sharedLoaded) {
+                    String dir = System.getProperty("downloader.store.dir");
+                    if (dir != null && !dir.isEmpty()) {
+                        try {
+                            shared = open(dir);
+                        } catch (IOException e) {
+                            Utils.logError("Content store " + dir + " is not usable, storing nothing", e);
+                        }
+                    }
+                    sharedLoaded = true;
+                }
+            }
+        }
+        return shared;
+    }
+
+    public static synchronized void setShared(ContentStore store) {
+        shared = store;
+        sharedLoaded = true;
+    }
+
+    /**
+     * @return where content with this digest is kept
+     */
+    Path getPath(String algorithm, String hex) {
+        String lower = hex.toLowerCase(Locale.ROOT);
+        return directory
+            .resolve(algorithm.replace("-", "").toLowerCase(Locale.ROOT))
+            .resolve(lower.substring(0, Math.min(2, lower.length())))
+            .resolve(lower);
+    }
+
+    /**
+     * Add a finished download: if the store already holds the same content
+     * the file is replaced with a link to it, otherwise the file is linked
+     * into the store for later downloads to share. A stored file that was
+     * changed since is replaced the same way.
+     * @return bytes saved, 0 if the content was new or the file is on
+     *         another file system
+     */
+    long add(String algorithm, String hex, Path file) throws IOException {
+        lock.lock();
+        try {
+            Path stored = getPath(algorithm, hex);
+            long size = Files.size(file);
+            if (Files.exists(stored)) {
+                if (Files.isSameFile(stored, file)) {
+                    return 0;
+                }
+                // A copy linked to it may have been edited in place
+                if (Files.size(stored) == size && hex.equalsIgnoreCase(DownloadDigest.hashFile(stored, algorithm))) {
+                    return Utils.linkOrCopy(stored, file, false) ? size : 0;
+                }
+                Utils.logWarn("Stored file " + stored + " no longer matches its digest, replacing it");
+            }
+
+            Files.createDirectories(stored.getParent());
+            if (!Utils.linkOrCopy(file, stored, false)) {
+                Utils.logInfo(file + " is on another file system than the content store, not storing it");
+            }
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete stored files that no download links to any more. Only file
+     * systems that report link counts are pruned.
+     * @return the number of files deleted
+     */
+    public int prune() throws IOException {
+        int deleted = 0;
+        try (Stream<Path> files = Files.walk(directory)) {
+            Iterator<Path> iterator = files.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                try {
+                    if (((Number) Files.getAttribute(file, "unix:nlink")).intValue() <= 1) {
+                        Files.delete(file);
+                        deleted++;
+                    }
+                } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                    return deleted;
+                } catch (IOException e) {
+                    // Deleted or replaced since the walk found it
+                    Utils.logWarn("Could not prune " + file + ": " + e.getMessage());
+                }
+            }
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,494 @@
+package com.downloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Local copies of finished downloads, so downloading an unchanged file
+ * again costs one conditional request. Each entry records the URL, the
+ * ETag and Last-Modified it was served with, its size and the cached
+ * file. A repeat download sends them as If-None-Match and
+ * If-Modified-Since, and on a 304 the cached file is hard-linked (or
+ * copied, across file systems) to the destination.
+ *
+ * Cached files are hard links to the downloaded files where possible, so
+ * they take no extra space until the download itself is deleted. Entries
+ * are evicted least recently used first, beyond a total size or number.
+ *
+ * The index is an append-only log of PUT, TOUCH and REMOVE records that
+ * is replayed into an access-ordered map on start-up, so an update costs
+ * one small write however many entries there are. Once the log holds
+ * more than twice as many records as entries it is rewritten with just
+ * the live ones.
+ *
+ * Configured with system properties:
+ * <ul>
+ *   <li>{@code downloader.cache.dir} - cache directory; the cache is off unless set</li>
+ *   <li>{@code downloader.cache.maxMB} - total size of cached files, default 10240</li>
+ *   <li>{@code downloader.cache.maxEntries} - number of cached files, default 500000</li>
+ * </ul>
+ */
+public class DownloadCache {
+    public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024 * 1024;
+    public static final int DEFAULT_MAX_ENTRIES = 500_000;
+
+    private static final String INDEX = "index.log";
+    private static final String LOCK = "index.lock";
+    private static final int MAGIC = 0x4A534443; // "JSDC"
+    private static final short VERSION = 1;
+    private static final byte PUT = 1;
+    private static final byte TOUCH = 2;
+    private static final byte REMOVE = 3;
+    // Below this many records the log is never worth rewriting
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    private static volatile DownloadCache shared;
+    private static volatile boolean sharedLoaded;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final int maxEntries;
+    // Access order: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private final FileChannel lockChannel;
+    // Guards the map and the log, see ExecutionMode
+    private final ReentrantLock lock = new ReentrantLock();
+    private long totalBytes;
+    private long nextId;
+    private int records;
+    private DataOutputStream log;
+
+    private DownloadCache(Path directory, long maxBytes, int maxEntries, FileChannel lockChannel) {
+        this.directory = directory;
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxEntries = Math.max(1, maxEntries);
+        this.lockChannel = lockChannel;
+    }
+
+    /**
+     * Open or create a cache directory, with the limits from the
+     * downloader.cache.* properties.
+     */
+    public static DownloadCache open(String directory) throws IOException {
+        return open(directory,
+            Long.getLong("downloader.cache.maxMB", DEFAULT_MAX_BYTES >> 20) << 20,
+            Integer.getInteger("downloader.cache.maxEntries", DEFAULT_MAX_ENTRIES));
+    }
+
+    /**
+     * Open or create a cache directory. Only one process can use a cache
+     * directory at a time.
+     */
+    public static DownloadCache open(String directory, long maxBytes, int maxEntries) throws IOException {
+        Path dir = Paths.get(directory);
+        Files.createDirectories(dir);
+
+        FileChannel lockChannel = FileChannel.open(dir.resolve(LOCK),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Cache " + dir + " is in use by another process");
+        }
+
+        DownloadCache cache = new DownloadCache(dir, maxBytes, maxEntries, lockChannel);
+        try {
+            long start = System.nanoTime();
+            boolean intact = cache.load();
+            if (!intact || cache.needsCompaction()) {
+                cache.compact();
+            } else {
+                cache.openLog();
+            }
+            cache.evict();
+            Utils.logInfo(String.format("Loaded cache index %s: %d entries, %s (%.1f ms)", dir,
+                cache.entries.size(), Utils.formatBytes(cache.totalBytes), (System.nanoTime() - start) / 1e6));
+        } catch (IOException e) {
+            cache.close();
+            throw e;
+        }
+        return cache;
+    }
+
+    /**
+     * The cache used by downloads that are not given one, opened from the
+     * downloader.cache.* properties on first use.
+     * @return the cache, or null if none is configured or it cannot be opened
+     */
+    public static DownloadCache getShared() {
+        if (!sharedLoaded) {
+            synchronized (DownloadCache.class) {
+                if (!sharedLoaded) {
+                    String dir = System.getProperty("downloader.cache.dir");
+                    if (dir != null && !dir.isEmpty()) {
+                        try {
+                            shared = open(dir);
+                        } catch (IOException e) {
+                            System.err.println("Download cache disabled: " + e.getMessage());
+                            Utils.logError("Failed to open download cache " + dir, e);
+                        }
+                    }
+                    sharedLoaded = true;
+                }
+            }
+        }
+        return shared;
+    }
+
+    public static synchronized void setShared(DownloadCache cache) {
+        shared = cache;
+        sharedLoaded = true;
+    }
+
+    /**
+     * The entry for a URL, if its cached file is still there and unchanged.
+     * A missing or modified file drops the entry.
+     */
+    Entry lookup(String url) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(url);
+            if (entry == null) {
+                return null;
+            }
+            Path file = entry.resolveIn(directory);
+            try {
+                if (Files.size(file) == entry.size &&
+                    Files.getLastModifiedTime(file).toMillis() == entry.modified) {
+                    return entry;
+                }
+                Utils.logWarn("Cached copy of " + url + " was modified, dropping it");
+            } catch (IOException e) {
+                Utils.logWarn("Cached copy of " + url + " is gone: " + e.getMessage());
+            }
+            remove(url);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return where the entry's copy is kept
+     */
+    Path getFile(Entry entry) {
+        return entry.resolveIn(directory);
+    }
+
+    /**
+     * Put the cached file of an entry at the destination, replacing what is
+     * there: a hard link if possible, otherwise a copy.
+     */
+    void restore(Entry entry, Path destination) throws IOException {
+        Path file;
+        lock.lock();
+        try {
+            file = entry.resolveIn(directory);
+            if (entries.get(entry.url) == entry) {
+                append(TOUCH, entry.url, null);
+            }
+        } finally {
+            lock.unlock();
+        }
+        Utils.linkOrCopy(file, destination, true);
+    }
+
+    /**
+     * Record a finished download. Files served without an ETag or
+     * Last-Modified cannot be revalidated and are not cached.
+     */
+    void store(String url, String etag, String lastModified, Path file) throws IOException {
+        lock.lock();
+        try {
+            if (isEmpty(etag) && isEmpty(lastModified)) {
+                return;
+            }
+            long size = Files.size(file);
+            if (size > maxBytes) {
+                remove(url);
+                return;
+            }
+
+            long id = nextId++;
+            Path cached = directory.resolve(Long.toString(id));
+            Utils.linkOrCopy(file, cached, true);
+
+            Entry entry = new Entry(url, nullToEmpty(etag), nullToEmpty(lastModified), size,
+                Files.getLastModifiedTime(cached).toMillis(), id);
+            Entry old = entries.put(url, entry);
+            if (old != null) {
+                totalBytes -= old.size;
+                deleteFile(old);
+            }
+            totalBytes += size;
+            append(PUT, url, entry);
+            evict();
+            if (needsCompaction()) {
+                compact();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(String url) {
+        lock.lock();
+        try {
+            Entry entry = entries.remove(url);
+            if (entry == null) {
+                return;
+            }
+            totalBytes -= entry.size;
+            deleteFile(entry);
+            try {
+                append(REMOVE, url, null);
+            } catch (IOException e) {
+                Utils.logError("Failed to update cache index", e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return total size of the cached files
+     */
+    public long getTotalBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            try {
+                if (log != null) {
+                    log.close();
+                    log = null;
+                }
+                lockChannel.close();
+            } catch (IOException e) {
+                Utils.logError("Failed to close cache index", e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Drop least recently used entries until both limits hold
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ((totalBytes > maxBytes || entries.size() > maxEntries) && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.size;
+            deleteFile(entry);
+            try {
+                append(REMOVE, entry.url, null);
+            } catch (IOException e) {
+                Utils.logError("Failed to update cache index", e);
+            }
+        }
+    }
+
+    /**
+     * Replay the log into the map.
+     * @return false if it ended in a torn record, which a rewrite removes
+     */
+    private boolean load() throws IOException {
+        Path index = directory.resolve(INDEX);
+        if (!Files.exists(index)) {
+            return false;
+        }
+        try (InputStream file = Files.newInputStream(index);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException("Not a download cache index: " + index);
+            }
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    return true;
+                }
+                String url = in.readUTF();
+                if (type == PUT) {
+                    Entry entry = new Entry(url, in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+                    Entry old = entries.put(url, entry);
+                    if (old != null) {
+                        totalBytes -= old.size;
+                    }
+                    totalBytes += entry.size;
+                    nextId = Math.max(nextId, entry.id + 1);
+                } else if (type == TOUCH) {
+                    entries.get(url);
+                } else if (type == REMOVE) {
+                    Entry old = entries.remove(url);
+                    if (old != null) {
+                        totalBytes -= old.size;
+                    }
+                } else {
+                    throw new IOException("Corrupt cache index " + index);
+                }
+                records++;
+            }
+        } catch (EOFException e) {
+            Utils.logWarn("Cache index " + index + " ends in a partial record, rewriting it");
+            return false;
+        }
+    }
+
+    private boolean needsCompaction() {
+        return records > MIN_COMPACT_RECORDS && records > 2 * entries.size();
+    }
+
+    /**
+     * Rewrite the log with one PUT per live entry, least recently used
+     * first so replaying it restores the order.
+     */
+    private void compact() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        Path index = directory.resolve(INDEX);
+        Path temp = directory.resolve(INDEX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            for (Entry entry : entries.values()) {
+                writeRecord(out, PUT, entry.url, entry);
+            }
+        }
+        try {
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING);
+        }
+        records = entries.size();
+        openLog();
+    }
+
+    private void openLog() throws IOException {
+        log = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(directory.resolve(INDEX).toFile(), true), 1 << 12));
+    }
+
+    private void append(byte type, String url, Entry entry) throws IOException {
+        if (log == null) {
+            return;
+        }
+        writeRecord(log, type, url, entry);
+        // Not forced to disk: after a crash the cache may just miss an update
+        log.flush();
+        records++;
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, String url, Entry entry) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(url);
+        if (type == PUT) {
+            out.writeUTF(entry.etag);
+            out.writeUTF(entry.lastModified);
+            out.writeLong(entry.size);
+            out.writeLong(entry.modified);
+            out.writeLong(entry.id);
+        }
+    }
+
+    private void deleteFile(Entry entry) {
+        try {
+            Files.deleteIfExists(entry.resolveIn(directory));
+        } catch (IOException e) {
+            Utils.logError("Failed to delete cached file " + entry.id, e);
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * A cached download.
+     */
+    static final class Entry {
+        private final String url;
+        private final String etag;
+        private final String lastModified;
+        private final long size;
+        private final long modified;
+        /** Name of the cached file, kept as a number to keep entries small */
+        private final long id;
+
+        Entry(String url, String etag, String lastModified, long size, long modified, long id) {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.modified = modified;
+            this.id = id;
+        }
+
+        private Path resolveIn(Path directory) {
+            return directory.resolve(Long.toString(id));
+        }
+
+        /**
+         * @return the ETag, or null if the file was served without one
+         */
+        String getEtag() {
+            return etag.isEmpty() ? null : etag;
+        }
+
+        /**
+         * @return the Last-Modified date, or null if the file was served without one
+         */
+        String getLastModified() {
+            return lastModified.isEmpty() ? null : lastModified;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+}
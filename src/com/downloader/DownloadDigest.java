@@ -0,0 +1,153 @@
+package com.downloader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Digest of a download computed while it is written, so that checking a
+ * finished file does not wait for it to be read from start to end.
+ *
+ * The digest has to be fed in file order. The worker writing at the
+ * current frontier hashes its buffer directly. Bytes other workers wrote
+ * further ahead are read back from the output once the frontier reaches
+ * them, during the download and normally from the OS cache; with several
+ * connections that is most of the file.
+ */
+class DownloadDigest {
+    private static final int READ_CHUNK = 1024 * 1024;
+
+    private final String algorithm;
+    private final OutputFile output;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final MessageDigest inOrder;
+    private volatile long frontier;
+    private ByteBuffer readBuffer;
+
+    DownloadDigest(String algorithm, OutputFile output) {
+        this.algorithm = algorithm;
+        this.output = output;
+        this.inOrder = newDigest(algorithm);
+    }
+
+    static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported digest " + algorithm, e);
+        }
+    }
+
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * First byte not yet included in the plain digest.
+     */
+    long getFrontier() {
+        return frontier;
+    }
+
+    /**
+     * Called by a worker right after writing. Bytes that start exactly at
+     * the frontier go into the digest straight from the buffer; any other
+     * write returns at once.
+     */
+    void onWrite(ByteBuffer data, long position) {
+        if (position != frontier || !lock.tryLock()) {
+            return;
+        }
+        try {
+            if (position == frontier) {
+                int start = data.position();
+                inOrder.update(data);
+                data.position(start);
+                frontier = position + data.remaining();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hash output already on disk from the frontier up to the given
+     * position, which must not be past the first byte still missing.
+     */
+    void advance(long writtenUpTo) throws IOException {
+        lock.lock();
+        try {
+            long position = frontier;
+            while (position < writtenUpTo) {
+                int length = (int) Math.min(READ_CHUNK, writtenUpTo - position);
+                ByteBuffer buffer = read(position, length);
+                inOrder.update(buffer);
+                position += length;
+                frontier = position;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Complete the plain digest up to the end of the file.
+     * @return the digest in hex
+     */
+    String finish(long size) throws IOException {
+        advance(size);
+        lock.lock();
+        try {
+            return toHex(inOrder.digest());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Callers hold the lock
+    private ByteBuffer read(long position, int length) throws IOException {
+        if (readBuffer == null || readBuffer.capacity() < length) {
+            readBuffer = ByteBuffer.allocate(Math.max(length, READ_CHUNK));
+        }
+        readBuffer.clear().limit(length);
+        while (readBuffer.hasRemaining()) {
+            if (output.read(readBuffer, position + readBuffer.position()) < 0) {
+                throw new IOException("Output ended at " + (position + readBuffer.position()) +
+                    " while hashing");
+            }
+        }
+        readBuffer.flip();
+        return readBuffer;
+    }
+
+    /**
+     * Plain digest of a whole file already on disk, e.g. one taken from
+     * the download cache.
+     * @return the digest in hex
+     */
+    static String hashFile(Path file, String algorithm) throws IOException {
+        MessageDigest digest = newDigest(algorithm);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_CHUNK);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer.clear()) != -1) {
+                digest.update(buffer.flip());
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
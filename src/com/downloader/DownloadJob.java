@@ -0,0 +1,211 @@
+package com.downloader;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One entry in the {@link DownloadManager} queue.
+ */
+public class DownloadJob {
+    public enum State { QUEUED, RUNNING, PAUSED, COMPLETED, FAILED, CANCELLED }
+
+    private final int id;
+    private final List<String> mirrors;
+    private final String destinationPath;
+    private final int threads;
+    private final String host;
+    private final BandwidthLimiter.Share bandwidth;
+    private final Checksum expectedChecksum;
+
+    private volatile OutputMode outputMode = OutputMode.getDefault();
+    private volatile State state = State.QUEUED;
+    private volatile Downloader downloader;
+    private volatile String failureReason;
+
+    DownloadJob(int id, List<String> mirrors, String destinationPath, int threads,
+                BandwidthLimiter.Share bandwidth, Checksum expectedChecksum) {
+        this.id = id;
+        this.mirrors = Collections.unmodifiableList(mirrors);
+        this.destinationPath = destinationPath;
+        this.threads = threads;
+        // Queued by the first mirror's host, the one the download is named after
+        this.host = HostLimiter.keyFor(mirrors.get(0));
+        this.bandwidth = bandwidth;
+        this.expectedChecksum = expectedChecksum;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getUrl() {
+        return mirrors.get(0);
+    }
+
+    /**
+     * @return every URL the file is downloaded from, the first being {@link #getUrl()}
+     */
+    public List<String> getMirrors() {
+        return mirrors;
+    }
+
+    public String getDestinationPath() {
+        return destinationPath;
+    }
+
+    /**
+     * @return the requested connection count, or {@link Downloader#AUTO_CONNECTIONS}
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    String getHost() {
+        return host;
+    }
+
+    /**
+     * @return the checksum the file is verified against, or null
+     */
+    public Checksum getExpectedChecksum() {
+        return expectedChecksum;
+    }
+
+    /**
+     * @return the digest computed while downloading, once completed
+     */
+    public String getChecksum() {
+        Downloader current = downloader;
+        return current != null ? current.getChecksum() : null;
+    }
+
+    BandwidthLimiter.Share getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * @return this job's own speed limit in bytes per second, 0 when unlimited
+     */
+    public long getSpeedLimit() {
+        return bandwidth.getLimit();
+    }
+
+    /**
+     * Cap this job's speed, on top of the manager's global limit.
+     * Takes effect while the job is running.
+     */
+    public void setSpeedLimit(long bytesPerSecond) {
+        bandwidth.setLimit(bytesPerSecond);
+    }
+
+    public OutputMode getOutputMode() {
+        return outputMode;
+    }
+
+    /**
+     * Write with channel writes or memory-mapped windows. Takes effect
+     * when the job first starts, not on a resume.
+     */
+    public void setOutputMode(OutputMode outputMode) {
+        this.outputMode = outputMode;
+    }
+
+    public int getWeight() {
+        return bandwidth.getWeight();
+    }
+
+    /**
+     * Relative share of the global limit. A job with weight 2 gets twice
+     * the bandwidth of a job with weight 1 when both could use more.
+     */
+    public void setWeight(int weight) {
+        bandwidth.setWeight(weight);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * True once the job will not run again.
+     */
+    public boolean isFinished() {
+        State current = state;
+        return current == State.COMPLETED || current == State.FAILED || current == State.CANCELLED;
+    }
+
+    /**
+     * The downloader running this job, which is what listeners receive
+     * events from; null until the job first starts.
+     */
+    public Downloader getDownloader() {
+        return downloader;
+    }
+
+    void setDownloader(Downloader downloader) {
+        this.downloader = downloader;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    void setFailureReason(String failureReason) {
+        this.failureReason = failureReason;
+    }
+
+    /**
+     * Connections in use, or the level an auto-tuned download settled on;
+     * 0 before the job has started.
+     */
+    public int getConnections() {
+        Downloader current = downloader;
+        return current != null ? current.getConnections() : 0;
+    }
+
+    public long getDownloadedBytes() {
+        Downloader current = downloader;
+        return current != null ? current.getDownloadedBytes() : 0;
+    }
+
+    /**
+     * @return the download's progress, or null before the job has started
+     */
+    public ProgressSnapshot getProgress() {
+        Downloader current = downloader;
+        return current != null ? current.getProgress() : null;
+    }
+
+    /**
+     * Size of the file, or -1 until the server has been asked.
+     */
+    public long getFileSize() {
+        Downloader current = downloader;
+        return current != null ? current.getFileSize() : -1;
+    }
+
+    public String getFileName() {
+        return new File(destinationPath).getName();
+    }
+
+    @Override
+    public String toString() {
+        ProgressSnapshot snapshot = getProgress();
+        long size = snapshot != null ? snapshot.getFileSize() : -1;
+        long downloaded = snapshot != null ? snapshot.getTotalBytes() : 0;
+        String progress = size > 0
+            ? String.format("%.1f%% of %s", snapshot.getPercentage(), Utils.formatBytes(size))
+            : Utils.formatBytes(downloaded);
+        Downloader current = downloader;
+        if (state == State.RUNNING && current != null) {
+            progress += ", " + Utils.formatBytes(current.getThroughput().getCurrentSpeed()) + "/s";
+        }
+        String line = String.format("#%d %-9s %s (%s)", id, state, getFileName(), progress);
+        return failureReason != null ? line + " - " + failureReason : line;
+    }
+}
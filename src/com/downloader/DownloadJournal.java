@@ -0,0 +1,373 @@
+package com.downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Small binary journal kept next to a download (the .partial file).
+ * It records where the file came from and which fixed-size blocks of
+ * the output are already on disk, so an interrupted download can resume
+ * exactly the missing blocks after a crash or a killed JVM.
+ *
+ * Layout: magic, version, URL, ETag, Last-Modified, total size,
+ * block size, block count, then one bit per block.
+ */
+public class DownloadJournal {
+    static final String SUFFIX = ".partial";
+    static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+    private static final int MAGIC = 0x4A534450; // "JSDP"
+    private static final short VERSION = 1;
+    private static final int FLUSH_BATCH = 64;
+
+    private final Path path;
+    private final String url;
+    private final String etag;
+    private final String lastModified;
+    private final long totalSize;
+    private final int blockSize;
+    private final int blockCount;
+    private final AtomicLongArray bitmap;
+    private final AtomicInteger dirtyBlocks = new AtomicInteger();
+
+    // Guards the channel and the bitmap buffer, see ExecutionMode
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel channel;
+    private long bitmapOffset;
+    // Reused by every flush, so workers flushing mid-download allocate nothing
+    private ByteBuffer bits;
+
+    private DownloadJournal(Path path, String url, String etag, String lastModified,
+                            long totalSize, int blockSize) {
+        this.path = path;
+        this.url = url;
+        this.etag = etag == null ? "" : etag;
+        this.lastModified = lastModified == null ? "" : lastModified;
+        this.totalSize = totalSize;
+        this.blockSize = blockSize;
+        this.blockCount = (int) ((totalSize + blockSize - 1) / blockSize);
+        this.bitmap = new AtomicLongArray((blockCount + 63) / 64);
+    }
+
+    /**
+     * Create a fresh journal for a download, replacing any existing one.
+     */
+    static DownloadJournal create(String destinationPath, String url, String etag,
+                                  String lastModified, long totalSize) throws IOException {
+        DownloadJournal journal = new DownloadJournal(Paths.get(destinationPath + SUFFIX),
+            url, etag, lastModified, totalSize, DEFAULT_BLOCK_SIZE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(header)) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeUTF(journal.url);
+            out.writeUTF(journal.etag);
+            out.writeUTF(journal.lastModified);
+            out.writeLong(journal.totalSize);
+            out.writeInt(journal.blockSize);
+            out.writeInt(journal.blockCount);
+        }
+
+        journal.channel = FileChannel.open(journal.path, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal.bitmapOffset = header.size();
+        journal.channel.write(ByteBuffer.wrap(header.toByteArray()), 0);
+        journal.writeBitmap(journal.snapshotBits());
+        journal.channel.force(true);
+        return journal;
+    }
+
+    /**
+     * Load the journal of a download if there is one.
+     * @return the journal, or null if missing or unreadable
+     */
+    static DownloadJournal open(String destinationPath) {
+        Path path = Paths.get(destinationPath + SUFFIX);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                DownloadJournal journal = read(path, channel);
+                journal.channel = channel;
+                return journal;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            Utils.logError("Ignoring unreadable journal " + path, e);
+            return null;
+        }
+    }
+
+    private static DownloadJournal read(Path path, FileChannel channel) throws IOException {
+        channel.position(0);
+        DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+        if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+            throw new IOException("Not a download journal");
+        }
+
+        String url = in.readUTF();
+        String etag = in.readUTF();
+        String lastModified = in.readUTF();
+        long totalSize = in.readLong();
+        int blockSize = in.readInt();
+        int blockCount = in.readInt();
+        if (totalSize <= 0 || blockSize <= 0 ||
+            blockCount != (int) ((totalSize + blockSize - 1) / blockSize)) {
+            throw new IOException("Corrupt journal header");
+        }
+
+        DownloadJournal journal = new DownloadJournal(path, url, etag, lastModified, totalSize, blockSize);
+        journal.bitmapOffset = channel.position();
+
+        byte[] bits = new byte[(blockCount + 7) / 8];
+        in.readFully(bits);
+        for (int block = 0; block < blockCount; block++) {
+            if ((bits[block >>> 3] & (1 << (block & 7))) != 0) {
+                journal.setBit(block);
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Find interrupted downloads in a directory by looking for journals.
+     */
+    public static List<DownloadJournal> findInterrupted(File directory) {
+        List<DownloadJournal> found = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return found;
+        }
+
+        for (File file : files) {
+            String destination = file.getPath().substring(0, file.getPath().length() - SUFFIX.length());
+            DownloadJournal journal = open(destination);
+            if (journal != null) {
+                journal.close();
+                found.add(journal);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Check that the journal was written for the same remote file.
+     */
+    boolean matches(String url, long totalSize, String etag, String lastModified) {
+        if (!this.url.equals(url) || this.totalSize != totalSize) {
+            return false;
+        }
+        if (!this.etag.isEmpty() && etag != null) {
+            return this.etag.equals(etag);
+        }
+        if (!this.lastModified.isEmpty() && lastModified != null) {
+            return this.lastModified.equals(lastModified);
+        }
+        return true;
+    }
+
+    /**
+     * Mark every block fully inside [from, to) as complete.
+     */
+    void markRange(long from, long to) {
+        if (to >= totalSize) {
+            to = blockCount * (long) blockSize;
+        }
+        long first = (from + blockSize - 1) / blockSize;
+        long last = to / blockSize;
+        for (long block = first; block < last; block++) {
+            if (setBit((int) block)) {
+                dirtyBlocks.incrementAndGet();
+            }
+        }
+    }
+
+    boolean isComplete(int block) {
+        return (bitmap.get(block >>> 6) & (1L << (block & 63))) != 0;
+    }
+
+    private boolean setBit(int block) {
+        int index = block >>> 6;
+        long mask = 1L << (block & 63);
+        while (true) {
+            long current = bitmap.get(index);
+            if ((current & mask) != 0) {
+                return false;
+            }
+            if (bitmap.compareAndSet(index, current, current | mask)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Byte ranges (inclusive start and end) that are not complete yet.
+     */
+    List<long[]> getMissingRanges() {
+        List<long[]> ranges = new ArrayList<>();
+        int block = 0;
+        while (block < blockCount) {
+            if (isComplete(block)) {
+                block++;
+                continue;
+            }
+            int first = block;
+            while (block < blockCount && !isComplete(block)) {
+                block++;
+            }
+            long start = (long) first * blockSize;
+            long end = Math.min((long) block * blockSize, totalSize) - 1;
+            ranges.add(new long[] {start, end});
+        }
+        return ranges;
+    }
+
+    public long getCompletedBytes() {
+        long completed = 0;
+        for (int block = 0; block < blockCount; block++) {
+            if (isComplete(block)) {
+                completed += Math.min(blockSize, totalSize - (long) block * blockSize);
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * True when enough blocks changed since the last flush to write a batch.
+     */
+    boolean needsFlush() {
+        return dirtyBlocks.get() >= FLUSH_BATCH;
+    }
+
+    /**
+     * Copy of the blocks marked so far, to be written with {@link #flush}
+     * once their data is on disk.
+     * @return null if no block was marked since the last snapshot
+     */
+    long[] snapshot() {
+        if (dirtyBlocks.getAndSet(0) == 0) {
+            return null;
+        }
+        return snapshotBits();
+    }
+
+    private long[] snapshotBits() {
+        long[] words = new long[bitmap.length()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = bitmap.get(i);
+        }
+        return words;
+    }
+
+    /**
+     * Persist a bitmap taken with {@link #snapshot}. Callers must force the
+     * output data to disk between taking the snapshot and writing it, so
+     * blocks marked meanwhile are left for the next flush.
+     */
+    void flush(long[] snapshot) throws IOException {
+        lock.lock();
+        try {
+            if (channel == null) {
+                return;
+            }
+            writeBitmap(snapshot);
+            channel.force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held, or before the journal is shared
+    private void writeBitmap(long[] words) throws IOException {
+        if (bits == null) {
+            bits = ByteBuffer.allocate((blockCount + 7) / 8);
+        }
+        byte[] array = bits.array();
+        Arrays.fill(array, (byte) 0);
+        for (int block = 0; block < blockCount; block++) {
+            if ((words[block >>> 6] & (1L << (block & 63))) != 0) {
+                array[block >>> 3] |= (byte) (1 << (block & 7));
+            }
+        }
+        bits.clear();
+        long position = bitmapOffset;
+        while (bits.hasRemaining()) {
+            position += channel.write(bits, position);
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Utils.logError("Failed to close journal " + path, e);
+                }
+                channel = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            Utils.logError("Failed to delete journal " + path, e);
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getDestinationPath() {
+        String journalPath = path.toString();
+        return journalPath.substring(0, journalPath.length() - SUFFIX.length());
+    }
+
+    /**
+     * Validator to send in If-Range from a response's ETag and Last-Modified,
+     * or null if the server gave neither. Weak ETags are not allowed in If-Range.
+     */
+    static String validatorFor(String etag, String lastModified) {
+        if (etag != null && !etag.isEmpty() && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified == null || lastModified.isEmpty() ? null : lastModified;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    int getBlockSize() {
+        return blockSize;
+    }
+}
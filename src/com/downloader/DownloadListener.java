@@ -0,0 +1,46 @@
+package com.downloader;
+
+/**
+ * Receives events from a {@link Downloader}. Every method has an empty
+ * default, so listeners only implement what they need.
+ *
+ * Events are delivered on the downloader's own threads. Listeners must
+ * return quickly; a GUI should hand the event over to its UI thread.
+ * Progress events are coalesced: at most one per progress interval, each
+ * carrying a snapshot that replaces the previous one.
+ */
+public interface DownloadListener {
+
+    /**
+     * The download started or resumed; the file size is known by now.
+     */
+    default void downloadStarted(Downloader downloader) {
+    }
+
+    default void progressChanged(Downloader downloader, ProgressSnapshot progress) {
+    }
+
+    /**
+     * A byte range was fully written.
+     */
+    default void segmentCompleted(Downloader downloader, ProgressSnapshot.SegmentProgress segment) {
+    }
+
+    default void downloadPaused(Downloader downloader) {
+    }
+
+    /**
+     * The file is complete, verified if a checksum was given, and in place.
+     */
+    default void downloadCompleted(Downloader downloader) {
+    }
+
+    /**
+     * The download failed or was aborted and will not continue by itself.
+     */
+    default void downloadFailed(Downloader downloader, String reason) {
+    }
+
+    default void downloadCancelled(Downloader downloader) {
+    }
+}
@@ -0,0 +1,348 @@
+package com.downloader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Download queue. Jobs wait in submission order and up to a fixed number
+ * run at once; when one finishes, fails or is paused the next waiting job
+ * is started. Connections are also capped per host across all running
+ * jobs, and a waiting job for a host with free connections is preferred
+ * over one whose server is already busy.
+ */
+public class DownloadManager {
+    public static final int DEFAULT_MAX_CONCURRENT_JOBS = 3;
+    /**
+     * As high as auto mode goes for one download. Auto-tuned downloads
+     * never go above the per-host limit, so a lower one caps them too.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = Downloader.MAX_CONNECTIONS;
+
+    private final List<DownloadJob> jobs = new ArrayList<>();
+    private final Deque<DownloadJob> queue = new ArrayDeque<>();
+    private final List<DownloadJob> active = new ArrayList<>();
+    private final HostLimiter hostLimiter;
+    private final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+    private final List<DownloadListener> listeners = new CopyOnWriteArrayList<>();
+    private int maxConcurrentJobs;
+    private int nextId = 1;
+    private ExecutionMode executionMode = ExecutionMode.getDefault();
+    private OutputMode outputMode = OutputMode.getDefault();
+
+    public DownloadManager() {
+        this(DEFAULT_MAX_CONCURRENT_JOBS, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    public DownloadManager(int maxConcurrentJobs, int maxConnectionsPerHost) {
+        this.maxConcurrentJobs = Math.max(1, maxConcurrentJobs);
+        this.hostLimiter = new HostLimiter(Math.max(1, maxConnectionsPerHost));
+        ensurePoolCapacity(maxConnectionsPerHost);
+        DownloadMetrics.register(this);
+    }
+
+    /**
+     * Subscribe to the events of every job started from now on.
+     */
+    public void addListener(DownloadListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(DownloadListener listener) {
+        listeners.remove(listener);
+        for (DownloadJob job : getJobs()) {
+            Downloader downloader = job.getDownloader();
+            if (downloader != null) {
+                downloader.removeListener(listener);
+            }
+        }
+    }
+
+    /**
+     * Queue a download. If a job for the same destination is already
+     * queued or running, that job is returned instead.
+     */
+    public synchronized DownloadJob submit(String url, String destinationPath, int threads) {
+        return submit(url, destinationPath, threads, null);
+    }
+
+    /**
+     * Queue a download that is verified against a checksum before it is
+     * moved into place.
+     */
+    public synchronized DownloadJob submit(String url, String destinationPath, int threads, Checksum checksum) {
+        return submit(Collections.singletonList(url), destinationPath, threads, checksum);
+    }
+
+    /**
+     * Queue a download from several mirrors of the same file.
+     * @see Downloader#Downloader(List, String, int)
+     */
+    public synchronized DownloadJob submit(List<String> mirrors, String destinationPath, int threads, Checksum checksum) {
+        if (mirrors.isEmpty()) {
+            throw new IllegalArgumentException("No URL to download from");
+        }
+        for (DownloadJob job : jobs) {
+            if (!job.isFinished() && job.getDestinationPath().equals(destinationPath)) {
+                return job;
+            }
+        }
+
+        DownloadJob job = new DownloadJob(nextId++, new ArrayList<>(mirrors), destinationPath, Math.max(Downloader.AUTO_CONNECTIONS, threads),
+            bandwidthLimiter.newShare(1, 0), checksum);
+        job.setOutputMode(outputMode);
+        jobs.add(job);
+        queue.addLast(job);
+        promote();
+        return job;
+    }
+
+    public synchronized List<DownloadJob> getJobs() {
+        return new ArrayList<>(jobs);
+    }
+
+    /**
+     * @return the job with this id, or null
+     */
+    public synchronized DownloadJob getJob(int id) {
+        for (DownloadJob job : jobs) {
+            if (job.getId() == id) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pause a queued or running job. A running job gives up its slot.
+     */
+    public synchronized void pause(DownloadJob job) {
+        if (job.getState() == DownloadJob.State.QUEUED) {
+            queue.remove(job);
+            job.setState(DownloadJob.State.PAUSED);
+        } else if (job.getState() == DownloadJob.State.RUNNING) {
+            active.remove(job);
+            job.setState(DownloadJob.State.PAUSED);
+            job.getBandwidth().setActive(false);
+            job.getDownloader().pauseDownload();
+            promote();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Put a paused job back at the front of the queue.
+     */
+    public synchronized void resume(DownloadJob job) {
+        if (job.getState() != DownloadJob.State.PAUSED) {
+            return;
+        }
+        job.setState(DownloadJob.State.QUEUED);
+        queue.addFirst(job);
+        promote();
+    }
+
+    /**
+     * Stop a job for good. Partial data is kept so the same file can be
+     * resumed later.
+     */
+    public synchronized void cancel(DownloadJob job) {
+        if (job.isFinished()) {
+            return;
+        }
+        queue.remove(job);
+        active.remove(job);
+        job.setState(DownloadJob.State.CANCELLED);
+        job.getBandwidth().setActive(false);
+
+        Downloader downloader = job.getDownloader();
+        if (downloader != null) {
+            downloader.cancelDownload();
+        }
+        promote();
+        notifyAll();
+    }
+
+    /**
+     * Cancel every job that has not finished, e.g. before exiting.
+     */
+    public synchronized void cancelAll() {
+        for (DownloadJob job : new ArrayList<>(jobs)) {
+            cancel(job);
+        }
+    }
+
+    /**
+     * Block until no job is queued or running. Paused jobs don't count.
+     */
+    public synchronized void awaitAll() throws InterruptedException {
+        while (!queue.isEmpty() || !active.isEmpty()) {
+            wait();
+        }
+    }
+
+    /**
+     * Like {@link #awaitAll()} but gives up after the timeout.
+     * @return true if nothing is left queued or running
+     */
+    public synchronized boolean awaitAll(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!queue.isEmpty() || !active.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    public synchronized int getRunningCount() {
+        return active.size();
+    }
+
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    public synchronized int getMaxConcurrentJobs() {
+        return maxConcurrentJobs;
+    }
+
+    public synchronized void setMaxConcurrentJobs(int maxConcurrentJobs) {
+        this.maxConcurrentJobs = Math.max(1, maxConcurrentJobs);
+        promote();
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return hostLimiter.getMaxPerHost();
+    }
+
+    public synchronized void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        hostLimiter.setMaxPerHost(Math.max(1, maxConnectionsPerHost));
+        ensurePoolCapacity(maxConnectionsPerHost);
+        promote();
+    }
+
+    /**
+     * @return total download rate in bytes per second, 0 when unlimited
+     */
+    public long getGlobalSpeedLimit() {
+        return bandwidthLimiter.getGlobalLimit();
+    }
+
+    /**
+     * Cap the combined speed of all jobs. Running jobs share it by weight
+     * and pick up the change within a fraction of a second.
+     */
+    public void setGlobalSpeedLimit(long bytesPerSecond) {
+        bandwidthLimiter.setGlobalLimit(bytesPerSecond);
+    }
+
+    /**
+     * Run jobs started from now on with platform or virtual threads.
+     */
+    public synchronized void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * Output mode for jobs submitted from now on; a queued job can still be
+     * changed with {@link DownloadJob#setOutputMode}.
+     */
+    public synchronized void setOutputMode(OutputMode outputMode) {
+        this.outputMode = outputMode;
+    }
+
+    // The pool would otherwise time out connections the limiter already allowed
+    private static void ensurePoolCapacity(int maxConnectionsPerHost) {
+        ConnectionPool pool = ConnectionPool.getShared();
+        if (pool.getMaxPerHost() < maxConnectionsPerHost) {
+            pool.setMaxPerHost(maxConnectionsPerHost);
+        }
+    }
+
+    private void promote() {
+        while (active.size() < maxConcurrentJobs && !queue.isEmpty()) {
+            DownloadJob next = pickNext();
+            queue.remove(next);
+            start(next);
+        }
+    }
+
+    /**
+     * First waiting job whose host still has connections to spare, or
+     * simply the first one if every host is busy.
+     */
+    private DownloadJob pickNext() {
+        for (DownloadJob job : queue) {
+            if (plannedConnections(job.getHost()) < hostLimiter.getMaxPerHost()) {
+                return job;
+            }
+        }
+        return queue.peekFirst();
+    }
+
+    private int plannedConnections(String host) {
+        int connections = 0;
+        for (DownloadJob job : active) {
+            if (job.getHost().equals(host)) {
+                Downloader downloader = job.getDownloader();
+                connections += downloader != null ? downloader.getConnections() : job.getThreads();
+            }
+        }
+        return connections;
+    }
+
+    private void start(DownloadJob job) {
+        job.setState(DownloadJob.State.RUNNING);
+        active.add(job);
+        job.getBandwidth().setActive(true);
+
+        Downloader downloader = job.getDownloader();
+        boolean resuming = downloader != null;
+        if (!resuming) {
+            downloader = new Downloader(job.getMirrors(), job.getDestinationPath(), job.getThreads());
+            downloader.setPrintProgress(false);
+            downloader.setHostLimiter(hostLimiter);
+            downloader.setThrottle(job.getBandwidth());
+            downloader.setExpectedChecksum(job.getExpectedChecksum());
+            downloader.setExecutionMode(executionMode);
+            downloader.setOutputMode(job.getOutputMode());
+            downloader.getCompletion().whenComplete((result, error) -> finished(job, error));
+            for (DownloadListener listener : listeners) {
+                downloader.addListener(listener);
+            }
+            job.setDownloader(downloader);
+        }
+
+        Downloader target = downloader;
+        executionMode.newThread("download-job-" + job.getId(), () -> {
+            if (resuming) {
+                target.resumeDownload();
+            } else {
+                target.startDownload();
+            }
+        }).start();
+    }
+
+    private synchronized void finished(DownloadJob job, Throwable error) {
+        active.remove(job);
+        job.getBandwidth().setActive(false);
+        if (job.getState() != DownloadJob.State.CANCELLED) {
+            if (error == null) {
+                job.setState(DownloadJob.State.COMPLETED);
+                Utils.logInfo("Download completed: " + job.getUrl());
+            } else {
+                String reason = job.getDownloader().getFailureReason();
+                job.setFailureReason(reason != null ? reason : error.getMessage());
+                job.setState(DownloadJob.State.FAILED);
+            }
+        }
+        promote();
+        notifyAll();
+    }
+}
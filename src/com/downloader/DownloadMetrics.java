@@ -0,0 +1,103 @@
+package com.downloader;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The metrics every download reports into, plus per-download gauges that
+ * exist while a download is in progress. Names follow the Prometheus
+ * conventions: times in seconds, sizes in bytes, counters end in _total.
+ */
+final class DownloadMetrics {
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.get();
+
+    static final MetricsRegistry.Counter BYTES = REGISTRY.counter("downloader_bytes_total",
+        "Bytes received by all downloads");
+    static final MetricsRegistry.Counter WIRE_BYTES = REGISTRY.counter("downloader_wire_bytes_total",
+        "Bytes received from the network, before decompression");
+    static final MetricsRegistry.Counter REQUESTS = REGISTRY.counter("downloader_requests_total",
+        "Range and probe requests sent");
+    static final MetricsRegistry.Counter REQUEST_ERRORS = REGISTRY.counter("downloader_request_errors_total",
+        "Requests that failed or got an error status");
+    static final MetricsRegistry.Counter RETRIES = REGISTRY.counter("downloader_retries_total",
+        "Failed range requests that were tried again");
+    static final MetricsRegistry.Counter COMPLETED = REGISTRY.counter("downloader_downloads_completed_total",
+        "Downloads that finished and were moved into place");
+    static final MetricsRegistry.Counter FAILED = REGISTRY.counter("downloader_downloads_failed_total",
+        "Downloads that failed or were aborted");
+    static final MetricsRegistry.Counter CACHE_HITS = REGISTRY.counter("downloader_cache_hits_total",
+        "Downloads answered 304 and taken from the local cache");
+    static final MetricsRegistry.Counter COALESCED = REGISTRY.counter("downloader_coalesced_total",
+        "Downloads that shared the transfer of another download of the same file");
+    static final MetricsRegistry.Counter STORE_SAVED_BYTES = REGISTRY.counter("downloader_store_saved_bytes_total",
+        "Bytes of finished downloads replaced by links to identical files in the content store");
+
+    static final MetricsRegistry.Histogram CONNECT = REGISTRY.histogram("downloader_connect_seconds",
+        "Time to open a connection, including the TLS handshake");
+    static final MetricsRegistry.Histogram FIRST_BYTE = REGISTRY.histogram("downloader_first_byte_seconds",
+        "Time from sending a request to receiving the response headers");
+    static final MetricsRegistry.Histogram SEGMENT = REGISTRY.histogram("downloader_segment_seconds",
+        "Time spent on one range request, from sending it to the last byte");
+    static final MetricsRegistry.Histogram DISK_WRITE = REGISTRY.histogram("downloader_disk_write_seconds",
+        "Time of one write to the output file");
+    static final MetricsRegistry.Histogram FINALIZE = REGISTRY.histogram("downloader_finalize_seconds",
+        "Time from the last byte to the file being in place, including checksum verification");
+
+    private static final AtomicInteger openConnections = new AtomicInteger();
+
+    static {
+        REGISTRY.gauge("downloader_active_connections", "",
+            "Requests in progress across all downloads", openConnections::get);
+        REGISTRY.gauge("downloader_buffer_pool_idle_bytes", "",
+            "Direct buffer memory waiting to be reused", () -> BufferPool.getShared().getIdleBytes());
+        REGISTRY.gauge("downloader_buffer_pool_allocated_buffers", "",
+            "Direct buffers allocated because none of the size was idle", () -> BufferPool.getShared().getAllocatedCount());
+    }
+
+    private DownloadMetrics() {
+    }
+
+    static void connectionOpened() {
+        openConnections.incrementAndGet();
+    }
+
+    static void connectionClosed() {
+        openConnections.decrementAndGet();
+    }
+
+    /**
+     * Publish gauges for a download until {@link #unregister} is called.
+     */
+    static void register(Downloader downloader) {
+        String labels = labels(downloader);
+        REGISTRY.gauge("downloader_download_bytes", labels,
+            "Bytes of the download on disk", downloader::getDownloadedBytes);
+        REGISTRY.gauge("downloader_download_size_bytes", labels,
+            "Size of the download, -1 if unknown", downloader::getFileSize);
+        REGISTRY.gauge("downloader_download_wire_bytes", labels,
+            "Bytes of the download received from the network", downloader::getWireBytes);
+        REGISTRY.gauge("downloader_download_bytes_per_second", labels,
+            "Recent speed of the download", () -> downloader.getThroughput().getCurrentSpeed());
+        REGISTRY.gauge("downloader_download_connections", labels,
+            "Ranges of the download being fetched right now", () -> downloader.getProgress().getActiveSegments());
+        REGISTRY.gauge("downloader_download_retries", labels,
+            "Failed range requests of the download that were tried again", downloader::getRetries);
+    }
+
+    static void unregister(Downloader downloader) {
+        REGISTRY.removeLabelled(labels(downloader));
+    }
+
+    /**
+     * Publish the queue lengths of a download manager.
+     */
+    static void register(DownloadManager manager) {
+        REGISTRY.gauge("downloader_jobs_running", "", "Jobs running in the download queue",
+            manager::getRunningCount);
+        REGISTRY.gauge("downloader_jobs_queued", "", "Jobs waiting in the download queue",
+            manager::getQueuedCount);
+    }
+
+    private static String labels(Downloader downloader) {
+        return MetricsRegistry.label("download", downloader.getDestinationPath());
+    }
+}
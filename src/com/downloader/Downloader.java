@@ -2,66 +2,206 @@ package com.downloader;
 
 import java.io.*;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Multi-threaded downloader with pause/resume support
  */
 public class Downloader {
+    /** Thread count that lets the downloader pick the number of connections itself */
+    public static final int AUTO_CONNECTIONS = 0;
+    /** Upper bound on connections per download, set with -Ddownloader.maxConnections */
+    public static final int MAX_CONNECTIONS = Math.max(1, Integer.getInteger("downloader.maxConnections", 32));
+    /** How often progress events are sent to listeners, in milliseconds */
+    public static final long DEFAULT_PROGRESS_INTERVAL_MS = 1000;
+    private static final long MIN_PROGRESS_INTERVAL_MS = 100;
+    // Off with -Ddownloader.singleFlight=false
+    private static final boolean SINGLE_FLIGHT =
+        Boolean.parseBoolean(System.getProperty("downloader.singleFlight", "true"));
+    // Downloads fetching a file, by URL and version, for others of the same file to follow
+    private static final ConcurrentHashMap<String, Downloader> IN_FLIGHT = new ConcurrentHashMap<>();
+    // A connection's buffer is sized to its speed once it has received this much
+    private static final long MIN_BUFFER_SAMPLE = 1024 * 1024;
+    // Extra attempts at the first request before a download is given up
+    private static final int PROBE_RETRIES = 3;
+    // A compressed stream is timed against the ranges once it has run this long and received this much
+    private static final long COMPRESSION_TRIAL_NANOS = 1_000_000_000L;
+    private static final long COMPRESSION_TRIAL_BYTES = 1024 * 1024;
+    private static final int INFLATE_CHUNK = 64 * 1024;
+    
     private final String url;
     private final String destinationPath;
     private final int numThreads;
-    private final AtomicLong totalBytesDownloaded;
     private final AtomicBoolean isPaused;
     private final AtomicBoolean isCompleted;
     private final AtomicBoolean isCancelled;
     
+    private volatile OutputFile output;
+    private Transport transport = Transport.fromSystemProperty();
+    private ExecutionMode executionMode = ExecutionMode.getDefault();
+    private OutputMode outputMode = OutputMode.getDefault();
+    private HostLimiter hostLimiter;
+    private BandwidthLimiter.Share throttle;
+    private final MirrorSet mirrors;
+    private final CompletableFuture<Void> completion;
+    private volatile String failureReason;
+    private Checksum expectedChecksum;
+    private String digestAlgorithm;
+    // Replaced when a download without ranges starts over
+    private volatile DownloadDigest digest;
+    private volatile String checksum;
+    private DownloadCache cache = DownloadCache.getShared();
+    // The cached copy whose validators went with the probe, and whether the server confirmed it
+    private DownloadCache.Entry cached;
+    private boolean notModified;
+    private volatile boolean fromCache;
+    private ContentStore store = ContentStore.getShared();
+    // Set while this download leads a flight, or while it waits for the one leading it
+    private volatile String flightKey;
+    private volatile Downloader following;
+    private volatile boolean coalesced;
+    private CompressionMode compressionMode = CompressionMode.getDefault();
+    private String contentType;
+    // Set until the worker starting at byte 0 has asked for the file compressed
+    private final AtomicBoolean compressionPending = new AtomicBoolean();
+    private volatile boolean compressed;
+    // The compressed stream won against the ranges and carries the download alone
+    private volatile boolean compressedOnly;
+    private final LongAdder wireBytes = new LongAdder();
+    
     private long fileSize;
+    private boolean rangesSupported;
+    // The probe's response until the worker starting at byte 0 takes it over
+    private final AtomicReference<OpenResponse> probeResponse = new AtomicReference<>();
+    private String etag;
+    private String lastModified;
+    private DownloadJournal journal;
+    // One journal flush at a time, so an older snapshot never overwrites a newer one
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // Only one worker finishes the download
+    private final ReentrantLock completionLock = new ReentrantLock();
     private ExecutorService executor;
     private List<Future<?>> downloadTasks;
     private List<DownloadWorker> workers;
-    private long startTime;
+    private volatile SegmentScheduler scheduler;
+    // Bytes a resumed download already had, outside the scheduler's ranges
+    private volatile long resumedBytes;
+    private long minSegmentSize = SegmentScheduler.DEFAULT_MIN_SEGMENT_SIZE;
+    private int maxConnections = MAX_CONNECTIONS;
+    private ConnectionTuner tuner;
+    private final ThroughputEstimator throughput = new ThroughputEstimator();
+    private AtomicInteger runningWorkers;
+    private volatile int session;
+    private final AtomicInteger retries = new AtomicInteger();
+    private RetryPolicy retryPolicy = RetryPolicy.fromSystemProperties();
     
     // Progress tracking
     private Thread progressThread;
     private final AtomicBoolean showProgress;
+    private volatile long progressInterval = DEFAULT_PROGRESS_INTERVAL_MS;
+    private final List<DownloadListener> listeners = new CopyOnWriteArrayList<>();
+    private final ConsoleProgressPrinter consolePrinter = new ConsoleProgressPrinter();
     
     public Downloader(String url, String destinationPath, int numThreads) {
-        this.url = url;
+        this(Collections.singletonList(url), destinationPath, numThreads);
+    }
+    
+    /**
+     * Download one file from several mirrors at once. They must agree on
+     * the size and ETag; the first URL names the download and its journal.
+     */
+    public Downloader(List<String> urls, String destinationPath, int numThreads) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("No URL to download from");
+        }
+        this.url = urls.get(0);
         this.destinationPath = destinationPath;
-        this.numThreads = numThreads;
-        this.totalBytesDownloaded = new AtomicLong(0);
+        this.numThreads = numThreads == AUTO_CONNECTIONS ? AUTO_CONNECTIONS : 
+            Math.max(1, Math.min(numThreads, MAX_CONNECTIONS));
         this.isPaused = new AtomicBoolean(false);
         this.isCompleted = new AtomicBoolean(false);
         this.isCancelled = new AtomicBoolean(false);
         this.showProgress = new AtomicBoolean(false);
-        this.downloadTasks = new ArrayList<>();
+        this.downloadTasks = new CopyOnWriteArrayList<>();
         this.workers = new ArrayList<>();
+        this.output = new OutputFile(destinationPath);
+        this.mirrors = new MirrorSet(urls);
+        this.completion = new CompletableFuture<>();
+        this.listeners.add(consolePrinter);
     }
     
     public void startDownload() {
         try {
+            // With a cached copy the probe becomes a conditional request
+            cached = lookupCache();
+            
             // Get file size and check if server supports partial downloads
             if (!initializeDownload()) {
+                failDownload("could not get file information from the server");
                 return;
             }
             
-            startTime = System.currentTimeMillis();
+            if (notModified) {
+                finishFromCache();
+                return;
+            }
             
-            // Check for existing partial file
-            File partialFile = new File(destinationPath + ".partial");
-            if (partialFile.exists()) {
-                System.out.println("Found partial download. Resuming from: " + 
-                    Utils.formatBytes(partialFile.length()));
-                totalBytesDownloaded.set(partialFile.length());
+            // Another download of the same file may already be fetching it
+            if (followInFlight()) {
+                return;
+            }
+            
+            if (fileSize > 0 && !Utils.hasEnoughDiskSpace(destinationPath, fileSize)) {
+                System.err.println("Not enough disk space for " + Utils.formatBytes(fileSize));
+                failDownload("not enough disk space for " + Utils.formatBytes(fileSize));
+                return;
+            }
+            
+            // Check for an interrupted download of the same file
+            openJournal();
+            DownloadMetrics.register(this);
+            
+            if (outputMode == OutputMode.MAPPED && !(output instanceof MappedOutputFile)) {
+                if (fileSize > 0) {
+                    output = new MappedOutputFile(destinationPath);
+                } else {
+                    Utils.logInfo("Size of " + url + " unknown, writing without memory mapping");
+                }
+            }
+            // Without a journal to resume, a .download file left by an earlier run is stale
+            output.open(fileSize, resumedBytes > 0);
+            if (digestAlgorithm == null && store != null) {
+                // The content store finds files by their digest
+                digestAlgorithm = Checksum.SHA_256;
+            }
+            if (digestAlgorithm != null) {
+                digest = new DownloadDigest(digestAlgorithm, output);
             }
+            // A fresh download of text may come faster compressed, see CompressionMode
+            compressionPending.set(resumedBytes == 0 && compressionMode.appliesTo(contentType, fileSize));
+            notifyListeners(listener -> listener.downloadStarted(this));
             
             // Start download workers
             startDownloadWorkers();
@@ -72,145 +212,936 @@ public class Downloader {
         } catch (Exception e) {
             System.err.println("Error starting download: " + e.getMessage());
             Utils.logError("Download start failed", e);
+            failDownload(e.getMessage());
         }
     }
     
     private boolean initializeDownload() {
+        List<MirrorSet.Mirror> sources = mirrors.getMirrors();
+        boolean probed = false;
+        for (MirrorSet.Mirror mirror : sources) {
+            if (!probed) {
+                probed = probe(mirror, true);
+                if (!probed && sources.size() > 1) {
+                    mirrors.drop(mirror, "could not get file information");
+                }
+                if (notModified) {
+                    // Nothing will be downloaded, the other mirrors don't matter
+                    return true;
+                }
+            } else if (!isRanged()) {
+                // Without ranges there is only ever one connection
+                mirrors.drop(mirror, fileSize > 0 ? "the first mirror does not serve ranges" : "file size unknown");
+            } else if (!probe(mirror, false)) {
+                mirrors.drop(mirror, "does not serve the same file");
+            }
+        }
+        if (probed && sources.size() > 1) {
+            System.out.println("Mirrors: " + mirrors.getLiveCount() + " of " + sources.size() + " usable");
+        }
+        return probed;
+    }
+    
+    /**
+     * Get the size and validators of the file without a HEAD round trip.
+     * The first mirror is asked for the whole file as a range from byte 0:
+     * a 206 carries the size in its Content-Range and proves ranges work,
+     * a 200 means one stream. The response is left open for the worker
+     * that starts at byte 0, which keeps reading it while the other ranges
+     * start. Every other mirror is asked for its first byte and must report
+     * the same size and ETag. Being a GET, the probe meets the same throttling
+     * as range requests, so errors that may pass are retried a few times.
+     */
+    private boolean probe(MirrorSet.Mirror mirror, boolean first) {
+        String source = mirrors.getMirrors().size() > 1 ? "Mirror " + mirror.getUrl() + ": " : "";
+        int failures = 0;
+        while (true) {
+            try {
+                return probeOnce(mirror, first);
+            } catch (Exception e) {
+                boolean retryable = e instanceof IOException && isRetryable((IOException) e);
+                if (!retryable || failures >= PROBE_RETRIES || isCancelled.get()) {
+                    System.err.println((source.isEmpty() ? "Failed to initialize download: " : source) + e.getMessage());
+                    Utils.logError("Download initialization failed", e);
+                    return false;
+                }
+                failures++;
+                long retryAfter = e instanceof HttpStatusException ? ((HttpStatusException) e).getRetryAfter() : -1;
+                long delay = retryPolicy.getDelay(failures, retryAfter);
+                Utils.logWarn("Probe of " + mirror.getUrl() + " failed (" + e.getMessage() + 
+                    "), retrying in " + delay + " ms");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return false if the mirror cannot be used
+     */
+    private boolean probeOnce(MirrorSet.Mirror mirror, boolean first) throws IOException {
         try {
-            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-            connection.setRequestMethod("HEAD");
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(10000);
+            acquireConnection(mirror.getHost());
+        } catch (InterruptedIOException e) {
+            return false;
+        }
+        
+        TransportResponse response = null;
+        boolean kept = false;
+        try {
+            TransportRequest request = TransportRequest.get(mirror.getUrl()).range(0, first ? -1 : 0);
+            if (first && cached != null) {
+                // Answered with a 304 if the cached copy is still current
+                if (cached.getEtag() != null) {
+                    request.header("If-None-Match", cached.getEtag());
+                }
+                if (cached.getLastModified() != null) {
+                    request.header("If-Modified-Since", cached.getLastModified());
+                }
+            }
+            long requestStart = System.nanoTime();
+            response = send(request);
+            int responseCode = response.getStatusCode();
+            if (first && cached != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                notModified = true;
+                Utils.logInfo("Cached copy of " + mirror.getUrl() + " is current");
+                return true;
+            }
+            long size;
+            boolean ranges;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                long[] range = response.getContentRange();
+                if (range == null || range[0] != 0) {
+                    throw new IOException("Unexpected Content-Range " + response.getHeader("Content-Range"));
+                }
+                size = range[2];
+                ranges = true;
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                size = response.getContentLength();
+                ranges = false;
+            } else if (responseCode == 416) {
+                // Range not satisfiable: the file is empty, there is no byte 0
+                size = 0;
+                ranges = false;
+            } else {
+                DownloadMetrics.REQUEST_ERRORS.increment();
+                throw new HttpStatusException(responseCode, 
+                    RetryPolicy.parseRetryAfter(response.getHeader("Retry-After")));
+            }
             
-            int responseCode = connection.getResponseCode();
-            if (responseCode != HttpURLConnection.HTTP_OK && 
-                responseCode != HttpURLConnection.HTTP_PARTIAL) {
-                System.err.println("Server returned error code: " + responseCode);
-                return false;
+            String tag = response.getHeader("ETag");
+            String modified = response.getHeader("Last-Modified");
+            mirror.setValidator(DownloadJournal.validatorFor(tag, modified));
+            
+            if (!first) {
+                if (!ranges) {
+                    System.out.println("Skipping mirror " + mirror.getUrl() + ": does not serve ranges");
+                    return false;
+                }
+                if (size != fileSize) {
+                    System.out.println("Skipping mirror " + mirror.getUrl() + ": size " + 
+                        (size > 0 ? Utils.formatBytes(size) : "unknown") + " instead of " + Utils.formatBytes(fileSize));
+                    return false;
+                }
+                if (etag != null && tag != null && !etag.equals(tag)) {
+                    System.out.println("Skipping mirror " + mirror.getUrl() + ": ETag " + tag + " instead of " + etag);
+                    return false;
+                }
+                Utils.logInfo("Probed mirror " + mirror.getUrl() + " over " + response.getProtocol());
+                return true;
             }
             
-            fileSize = connection.getContentLengthLong();
+            fileSize = size;
+            rangesSupported = ranges;
+            etag = tag;
+            lastModified = modified;
+            contentType = response.getHeader("Content-Type");
             if (fileSize <= 0) {
                 System.out.println("Warning: Unable to determine file size. Using single-threaded download.");
                 fileSize = -1;
             } else {
                 System.out.println("File size: " + Utils.formatBytes(fileSize));
+                if (!ranges) {
+                    System.out.println("Server doesn't support partial downloads. Using single thread.");
+                }
             }
             
-            // Check if server supports partial downloads
-            String acceptRanges = connection.getHeaderField("Accept-Ranges");
-            if (!"bytes".equals(acceptRanges) && fileSize > 0) {
-                System.out.println("Server doesn't support partial downloads. Using single thread.");
+            // A partial body of unknown total, or none at all, is no use to the worker
+            if (responseCode == HttpURLConnection.HTTP_OK || (ranges && fileSize > 0)) {
+                probeResponse.set(new OpenResponse(mirror, response, requestStart));
+                kept = true;
             }
             
-            connection.disconnect();
+            Utils.logInfo("Probed " + mirror.getUrl() + " over " + response.getProtocol() + " (" + transport.getName() + 
+                ", " + (ranges ? "ranges" : "single stream") + ")");
             return true;
+        } finally {
+            if (!kept && response != null) {
+                response.close();
+            }
+            // A kept response only counts against the per-host limit once a worker
+            // takes it over, or probing more mirrors on the host could wait for good
+            releaseConnection(mirror.getHost());
+        }
+    }
+    
+    /**
+     * The cached copy of the URL worth revalidating, if there is one. With
+     * an expected checksum, a copy that does not match it is no use.
+     */
+    private DownloadCache.Entry lookupCache() {
+        if (cache == null) {
+            return null;
+        }
+        DownloadCache.Entry entry = cache.lookup(url);
+        if (entry == null || expectedChecksum == null) {
+            return entry;
+        }
+        try {
+            String hex = DownloadDigest.hashFile(cache.getFile(entry), expectedChecksum.getAlgorithm());
+            if (expectedChecksum.matches(hex)) {
+                checksum = hex;
+                return entry;
+            }
+            Utils.logWarn("Cached copy of " + url + " does not match the expected checksum");
+        } catch (IOException e) {
+            Utils.logError("Failed to hash cached copy of " + url, e);
+        }
+        return null;
+    }
+    
+    /**
+     * The server answered 304: put the cached copy in place instead of
+     * downloading the file again.
+     */
+    private void finishFromCache() throws IOException {
+        long start = System.nanoTime();
+        // A partial download left from an earlier run is not needed any more
+        DownloadJournal existing = DownloadJournal.open(destinationPath);
+        if (existing != null) {
+            existing.delete();
+            output.delete();
+        }
+        cache.restore(cached, Paths.get(destinationPath));
+        if (digestAlgorithm != null && checksum == null) {
+            checksum = DownloadDigest.hashFile(Paths.get(destinationPath), digestAlgorithm);
+        }
+        fromCache = true;
+        
+        System.out.println("Not modified since it was cached: " + Utils.formatBytes(cached.getSize()) + " taken from the cache");
+        Utils.logInfo("Restored " + url + " from the cache to " + destinationPath);
+        DownloadMetrics.CACHE_HITS.increment();
+        completeWithoutTransfer(cached.getSize(), start);
+    }
+    
+    /**
+     * Share the transfer of a download of the same URL and version that is
+     * already under way instead of fetching the file again, and wait for it
+     * to end. If it fails or is cancelled, this download goes ahead itself.
+     * @return true if this download is over
+     */
+    private boolean followInFlight() throws IOException {
+        if (!SINGLE_FLIGHT) {
+            return false;
+        }
+        String validator = DownloadJournal.validatorFor(etag, lastModified);
+        String key = validator != null ? url + '\n' + validator : url;
+        while (true) {
+            Downloader leader = IN_FLIGHT.putIfAbsent(key, this);
+            if (leader == null) {
+                flightKey = key;
+                return false;
+            }
             
-        } catch (Exception e) {
-            System.err.println("Failed to initialize download: " + e.getMessage());
-            Utils.logError("Download initialization failed", e);
+            discardProbeResponse();
+            following = leader;
+            System.out.println("Already downloading " + url + " to " + leader.destinationPath + ", waiting for it");
+            Utils.logInfo("Download of " + url + " to " + destinationPath + " follows the one to " + leader.destinationPath);
+            // Also returns when this download is cancelled
+            CompletableFuture.anyOf(leader.completion, completion).exceptionally(error -> null).join();
+            following = null;
+            if (isCancelled.get()) {
+                return true;
+            }
+            if (!leader.completion.isCompletedExceptionally()) {
+                finishFromLeader(leader);
+                return true;
+            }
+            Utils.logInfo("Download of " + url + " to " + leader.destinationPath + " did not finish, fetching it here");
+        }
+    }
+    
+    /**
+     * The download this one followed finished: check its file against the
+     * expected checksum and copy it here, or link it if there is a content
+     * store.
+     */
+    private void finishFromLeader(Downloader leader) throws IOException {
+        long start = System.nanoTime();
+        Path source = Paths.get(leader.destinationPath);
+        Path target = Paths.get(destinationPath);
+        if (digestAlgorithm != null) {
+            checksum = digestAlgorithm.equals(leader.digestAlgorithm) && leader.checksum != null ?
+                leader.checksum : DownloadDigest.hashFile(source, digestAlgorithm);
+            if (expectedChecksum != null && !expectedChecksum.matches(checksum)) {
+                abortDownload(digestAlgorithm + " mismatch: expected " + expectedChecksum.getHex() + 
+                    ", got " + checksum);
+                return;
+            }
+        }
+        // Both may have been downloading to the same file
+        boolean sameFile = source.toAbsolutePath().normalize().equals(target.toAbsolutePath().normalize());
+        if (!sameFile && store != null) {
+            // With a content store, identical files share their data anyway
+            Utils.linkOrCopy(source, target, true);
+        } else if (!sameFile) {
+            Utils.copyReplacing(source, target);
+        }
+        coalesced = true;
+        
+        long size = Files.size(target);
+        System.out.println("Shared the transfer of " + leader.destinationPath + ": " + Utils.formatBytes(size));
+        DownloadMetrics.COALESCED.increment();
+        completeWithoutTransfer(size, start);
+    }
+    
+    /**
+     * Complete a download whose file was put in place without transferring it.
+     */
+    private void completeWithoutTransfer(long size, long start) {
+        fileSize = size;
+        resumedBytes = size;
+        isCompleted.set(true);
+        DownloadMetrics.FINALIZE.recordSince(start);
+        DownloadMetrics.COMPLETED.increment();
+        
+        notifyListeners(listener -> listener.downloadStarted(this));
+        ProgressSnapshot progress = getProgress();
+        notifyListeners(listener -> listener.progressChanged(this, progress));
+        completion.complete(null);
+        notifyListeners(listener -> listener.downloadCompleted(this));
+    }
+    
+    /**
+     * Other downloads of the file no longer follow this one.
+     */
+    private void leaveFlight() {
+        if (flightKey != null) {
+            IN_FLIGHT.remove(flightKey, this);
+            flightKey = null;
+        }
+    }
+    
+    /**
+     * Share the file's data with identical files in the content store. A
+     * failure only costs the space.
+     */
+    private void addToStore() {
+        try {
+            long saved = store.add(digest.getAlgorithm(), checksum, Paths.get(destinationPath));
+            if (saved > 0) {
+                Utils.logInfo(destinationPath + " has the content of a stored file, now linked to it");
+                DownloadMetrics.STORE_SAVED_BYTES.add(saved);
+            }
+        } catch (IOException e) {
+            Utils.logError("Failed to add " + destinationPath + " to the content store", e);
+        }
+    }
+    
+    /**
+     * Remember the finished file, so the next download of the URL can be
+     * revalidated instead of repeated. A failure only costs that.
+     */
+    private void storeInCache() {
+        try {
+            cache.store(url, etag, lastModified, Paths.get(destinationPath));
+        } catch (IOException e) {
+            Utils.logError("Failed to cache " + destinationPath, e);
+        }
+    }
+    
+    private static boolean isRetryable(IOException e) {
+        return !(e instanceof HttpStatusException) || ((HttpStatusException) e).isRetryable();
+    }
+    
+    private static boolean isInflatable(String encoding) {
+        if (encoding == null) {
             return false;
         }
+        String name = encoding.trim().toLowerCase(Locale.ROOT);
+        return name.equals("gzip") || name.equals("x-gzip") || name.equals("deflate");
+    }
+    
+    /**
+     * The decoded body for a Content-Encoding of gzip or deflate. Deflate
+     * is meant to come with a zlib header, but some servers send it raw.
+     */
+    private static InputStream inflate(InputStream body, String encoding) throws IOException {
+        if (!encoding.trim().equalsIgnoreCase("deflate")) {
+            return new GZIPInputStream(body, INFLATE_CHUNK);
+        }
+        PushbackInputStream in = new PushbackInputStream(body, 2);
+        int first = in.read();
+        int second = first >= 0 ? in.read() : -1;
+        if (second >= 0) {
+            in.unread(second);
+        }
+        if (first >= 0) {
+            in.unread(first);
+        }
+        boolean zlib = second >= 0 && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+        return new InflaterInputStream(in, new Inflater(!zlib), INFLATE_CHUNK);
+    }
+    
+    /**
+     * Close the probe's response if no worker has taken it over yet.
+     */
+    private void discardProbeResponse() {
+        OpenResponse open = probeResponse.getAndSet(null);
+        if (open != null) {
+            open.response.close();
+        }
+    }
+    
+    /**
+     * Whether the file can be fetched in ranges: its size is known and the
+     * server answered the probe's range with a 206.
+     */
+    private boolean isRanged() {
+        return fileSize > 0 && rangesSupported;
+    }
+    
+    private void openJournal() throws IOException {
+        if (!isRanged()) {
+            return;
+        }
+        
+        DownloadJournal existing = DownloadJournal.open(destinationPath);
+        if (existing != null) {
+            if (existing.matches(url, fileSize, etag, lastModified) &&
+                new File(output.getTempPath()).exists()) {
+                journal = existing;
+                resumedBytes = journal.getCompletedBytes();
+                System.out.println("Found partial download. Resuming from: " + 
+                    Utils.formatBytes(resumedBytes));
+                return;
+            }
+            System.out.println("Remote file changed since the partial download. Starting over.");
+            existing.delete();
+            output.delete();
+        }
+        
+        journal = DownloadJournal.create(destinationPath, url, etag, lastModified, fileSize);
     }
     
     private void startDownloadWorkers() {
-        executor = Executors.newFixedThreadPool(numThreads);
+        // Shared across downloads; tasks are cancelled, the executor is never shut down
+        executor = executionMode.executor();
         
-        if (fileSize <= 0) {
-            // Single-threaded download for unknown file size
-            DownloadWorker worker = new DownloadWorker(0, 0, -1);
-            workers.add(worker);
-            Future<?> task = executor.submit(worker);
-            downloadTasks.add(task);
+        if (numThreads == AUTO_CONNECTIONS && isRanged() && tuner == null) {
+            tuner = new ConnectionTuner(maxConnections);
+            if (hostLimiter != null) {
+                tuner.setLimit(hostLimiter.getMaxPerHost());
+            }
+        }
+        // Time spent paused counts towards neither the speed nor the tuner's windows
+        long now = System.currentTimeMillis();
+        throughput.restart(now, getDownloadedBytes());
+        if (tuner != null) {
+            tuner.restart(now);
+        }
+        
+        if (scheduler == null) {
+            scheduler = createScheduler();
         } else {
-            // Multi-threaded download
-            long chunkSize = fileSize / numThreads;
-            
-            for (int i = 0; i < numThreads; i++) {
-                long startByte = i * chunkSize;
-                long endByte = (i == numThreads - 1) ? fileSize - 1 : (startByte + chunkSize - 1);
-                
-                DownloadWorker worker = new DownloadWorker(i, startByte, endByte);
+            // Resuming: continue every unfinished range from where it stopped
+            scheduler.reset();
+            compressedOnly = false;
+        }
+        // The probe's response is only of use to a range starting at byte 0
+        if (scheduler.firstUnwritten(0) != 0) {
+            discardProbeResponse();
+        }
+        
+        synchronized (workers) {
+            workers.clear();
+            int current = ++session;
+            int connections = isRanged() ? getConnections() : 1;
+            runningWorkers = new AtomicInteger(connections);
+            for (int i = 0; i < connections; i++) {
+                DownloadWorker worker = new DownloadWorker(i, current, runningWorkers);
                 workers.add(worker);
-                Future<?> task = executor.submit(worker);
-                downloadTasks.add(task);
+                downloadTasks.add(executor.submit(worker));
+            }
+        }
+    }
+    
+    /**
+     * In auto mode, add or retire workers to match the tuner's level.
+     */
+    private void adjustConnections(long now) {
+        if (hostLimiter != null) {
+            // The per-host limit may have changed since the last sample
+            tuner.setLimit(hostLimiter.getMaxPerHost());
+        }
+        int target = tuner.update(now, throughput);
+        
+        synchronized (workers) {
+            List<DownloadWorker> live = getLiveWorkers();
+            addWorkers(target - live.size());
+            
+            // Retired workers hand their unfinished range back to the others
+            for (int i = live.size() - 1; i >= target; i--) {
+                live.get(i).retire();
+            }
+        }
+    }
+    
+    private List<DownloadWorker> getLiveWorkers() {
+        List<DownloadWorker> live = new ArrayList<>();
+        for (DownloadWorker worker : workers) {
+            if (worker.isLive()) {
+                live.add(worker);
+            }
+        }
+        return live;
+    }
+    
+    /**
+     * Start more workers. Each takes over half of the largest range still
+     * in progress. Called holding the workers lock.
+     */
+    private void addWorkers(int count) {
+        for (int i = 0; i < count; i++) {
+            if (runningWorkers.getAndUpdate(running -> running == 0 ? 0 : running + 1) == 0) {
+                // Every worker has already left; nothing to join
+                break;
+            }
+            DownloadWorker worker = new DownloadWorker(workers.size(), session, runningWorkers);
+            workers.add(worker);
+            downloadTasks.add(executor.submit(worker));
+        }
+    }
+    
+    /**
+     * The compressed stream carries on alone: the other workers hand their
+     * ranges back for it to take over as it gets there.
+     */
+    private void retireOthers(DownloadWorker stream) {
+        compressedOnly = true;
+        synchronized (workers) {
+            for (DownloadWorker worker : workers) {
+                if (worker != stream) {
+                    worker.retire();
+                }
+            }
+        }
+    }
+    
+    /**
+     * The compressed stream that carried the download alone broke off:
+     * bring the ranged connections back for the rest.
+     */
+    private void restoreConnections() {
+        if (!compressedOnly) {
+            return;
+        }
+        compressedOnly = false;
+        synchronized (workers) {
+            addWorkers(getConnections() - getLiveWorkers().size());
+        }
+    }
+    
+    /**
+     * Whether the compressed stream should carry the rest of the download
+     * alone: its own output speed against the speed of the ranges fetched
+     * meanwhile, scaled up to every connection as if the stream were one
+     * more range.
+     * @param streamBytes bytes the stream wrote
+     * @param rangeBytes bytes the other connections wrote meanwhile
+     */
+    private boolean preferCompressed(long streamBytes, long rangeBytes, long inflated, long wire, long nanos) {
+        int connections = getConnections();
+        double seconds = nanos / 1e9;
+        double streamSpeed = streamBytes / seconds;
+        double rangeSpeed = rangeBytes / seconds * connections / Math.max(1, connections - 1);
+        boolean alone = streamSpeed >= rangeSpeed;
+        Utils.logInfo(String.format("Compressed %s %.1f times: %s/s on one connection against %s/s over %d ranges, %s",
+            url, wire > 0 ? (double) inflated / wire : 1, Utils.formatBytes((long) streamSpeed),
+            Utils.formatBytes((long) rangeSpeed), connections,
+            alone ? "continuing compressed" : "continuing with ranges"));
+        return alone;
+    }
+    
+    /**
+     * Connections this download uses: the tuned level in auto mode,
+     * otherwise the configured thread count.
+     */
+    public int getConnections() {
+        if (compressedOnly) {
+            return 1;
+        }
+        if (tuner != null) {
+            return tuner.getLevel();
+        }
+        return numThreads == AUTO_CONNECTIONS ? ConnectionTuner.INITIAL_CONNECTIONS : numThreads;
+    }
+    
+    /**
+     * Upper bound for auto mode. Must be called before the download starts.
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+    
+    private SegmentScheduler createScheduler() {
+        if (journal == null) {
+            SegmentScheduler fresh = new SegmentScheduler(minSegmentSize, 1);
+            fresh.splitEvenly(fileSize, isRanged() ? getConnections() : 1);
+            return fresh;
+        }
+        
+        // Ranges line up with journal blocks so finished blocks can be recorded
+        SegmentScheduler blocks = new SegmentScheduler(minSegmentSize, journal.getBlockSize());
+        if (journal.getCompletedBytes() == 0) {
+            blocks.splitEvenly(fileSize, getConnections());
+        } else {
+            for (long[] range : journal.getMissingRanges()) {
+                blocks.addRange(range[0], range[1]);
             }
         }
+        return blocks;
+    }
+    
+    /**
+     * Use a different HTTP backend. Must be called before the download starts.
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+    
+    /**
+     * Run workers on platform or virtual threads. Must be called before
+     * the download starts.
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+    
+    /**
+     * Write through positional channel writes or memory-mapped windows.
+     * Must be called before the download starts.
+     */
+    public void setOutputMode(OutputMode outputMode) {
+        this.outputMode = outputMode;
+    }
+    
+    public OutputMode getOutputMode() {
+        return outputMode;
+    }
+    
+    /**
+     * Revalidate and fill this cache instead of the shared one, or use no
+     * cache if null. Must be called before the download starts.
+     */
+    public void setCache(DownloadCache cache) {
+        this.cache = cache;
+    }
+    
+    /**
+     * @return true if the server confirmed the cached copy was current and
+     *         nothing was downloaded
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+    
+    /**
+     * Link finished downloads into this content store instead of the
+     * shared one, or into none if null. Must be called before the download
+     * starts.
+     */
+    public void setStore(ContentStore store) {
+        this.store = store;
+    }
+    
+    /**
+     * @return true if another download of the same file did the transfer
+     *         and this one only got a link or copy of its file
+     */
+    public boolean isCoalesced() {
+        return coalesced;
+    }
+    
+    /**
+     * Whether to ask for the file gzip or deflate compressed.
+     * Must be called before the download starts.
+     */
+    public void setCompressionMode(CompressionMode compressionMode) {
+        this.compressionMode = compressionMode;
+    }
+    
+    /**
+     * @return true if the server sent the file compressed and some of it
+     *         was inflated into the output
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+    
+    /**
+     * Bytes received from the network. Less than the bytes written when
+     * part of the file came compressed.
+     */
+    public long getWireBytes() {
+        return wireBytes.sum();
+    }
+    
+    /**
+     * Change how failed range requests are retried. Must be called before
+     * the download starts.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+    
+    /**
+     * Ranges are never split below this size when a worker takes over
+     * part of another worker's range.
+     */
+    public void setMinSegmentSize(long minSegmentSize) {
+        this.minSegmentSize = minSegmentSize;
+    }
+    
+    /**
+     * Turn the console progress bar and completion summary on or off.
+     * Jobs run by a {@link DownloadManager} keep them off so output from
+     * concurrent downloads doesn't interleave.
+     */
+    public void setPrintProgress(boolean printProgress) {
+        if (printProgress) {
+            addListener(consolePrinter);
+        } else {
+            removeListener(consolePrinter);
+        }
+    }
+    
+    public void addListener(DownloadListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+    
+    public void removeListener(DownloadListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Send progress events at most this often (100 ms at the least).
+     * Writes in between are folded into the next event.
+     */
+    public void setProgressInterval(long intervalMs) {
+        this.progressInterval = Math.max(MIN_PROGRESS_INTERVAL_MS, intervalMs);
+    }
+    
+    // A failing listener must not take the download down with it
+    private void notifyListeners(Consumer<DownloadListener> event) {
+        for (DownloadListener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                Utils.logError("Download listener failed", e);
+            }
+        }
+    }
+    
+    /**
+     * Share connection slots per host with other downloads.
+     */
+    void setHostLimiter(HostLimiter hostLimiter) {
+        this.hostLimiter = hostLimiter;
+    }
+    
+    /**
+     * Verify the file against this digest before it is moved into place.
+     * A mismatch fails the download and discards the data.
+     * Must be called before the download starts.
+     */
+    public void setExpectedChecksum(Checksum expectedChecksum) {
+        this.expectedChecksum = expectedChecksum;
+        this.digestAlgorithm = expectedChecksum != null ? expectedChecksum.getAlgorithm() : null;
+    }
+    
+    /**
+     * Compute a digest ({@link Checksum#SHA_256} or {@link Checksum#MD5})
+     * while downloading without verifying it. Must be called before the
+     * download starts.
+     */
+    public void setDigestAlgorithm(String digestAlgorithm) {
+        DownloadDigest.newDigest(digestAlgorithm);
+        this.digestAlgorithm = digestAlgorithm;
+    }
+    
+    /**
+     * @return the file's digest in hex once complete, or null
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+    
+    /**
+     * @return the digest being computed, or null if none
+     */
+    public String getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+    
+    public Checksum getExpectedChecksum() {
+        return expectedChecksum;
+    }
+    
+    /**
+     * True when the number of connections is picked automatically.
+     */
+    public boolean isAutoTuned() {
+        return numThreads == AUTO_CONNECTIONS && tuner != null;
+    }
+    
+    /**
+     * Limit the download rate through a share of a {@link BandwidthLimiter}.
+     */
+    void setThrottle(BandwidthLimiter.Share throttle) {
+        this.throttle = throttle;
+    }
+    
+    private void acquireConnection(String host) throws InterruptedIOException {
+        if (hostLimiter != null) {
+            try {
+                hostLimiter.acquire(host);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a connection to " + host);
+            }
+        }
+    }
+    
+    private long acquireBandwidth() throws InterruptedIOException {
+        try {
+            return throttle.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+    
+    private void releaseConnection(String host) {
+        if (hostLimiter != null) {
+            hostLimiter.release(host);
+        }
+    }
+    
+    /**
+     * Send a request, recording the time until the response headers arrive.
+     */
+    private TransportResponse send(TransportRequest request) throws IOException {
+        DownloadMetrics.REQUESTS.increment();
+        long start = System.nanoTime();
+        try {
+            TransportResponse response = transport.send(request);
+            DownloadMetrics.FIRST_BYTE.recordSince(start);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            DownloadMetrics.REQUEST_ERRORS.increment();
+            throw e;
+        }
     }
     
     private void startProgressTracking() {
         showProgress.set(true);
-        progressThread = new Thread(() -> {
+        progressThread = executionMode.newThread("download-progress", () -> {
             while (showProgress.get() && !isCompleted.get() && !isCancelled.get()) {
                 try {
-                    Thread.sleep(1000); // Update every second
+                    Thread.sleep(progressInterval);
                     if (!isPaused.get()) {
-                        displayProgress();
+                        ProgressSnapshot progress = getProgress();
+                        throughput.sample(progress);
+                        if (tuner != null && !compressedOnly) {
+                            adjustConnections(progress.getTimestamp());
+                        }
+                        notifyListeners(listener -> listener.progressChanged(this, progress));
+                        advanceDigest();
+                        flushJournal();
                     }
                 } catch (InterruptedException e) {
                     break;
                 }
             }
         });
-        progressThread.setDaemon(true);
         progressThread.start();
     }
     
-    private void displayProgress() {
-        long downloaded = totalBytesDownloaded.get();
-        long elapsed = System.currentTimeMillis() - startTime;
-        
-        if (fileSize > 0) {
-            double percentage = (double) downloaded / fileSize * 100;
-            long speed = elapsed > 0 ? (downloaded * 1000) / elapsed : 0;
-            long eta = speed > 0 ? (fileSize - downloaded) / speed : -1;
-            
-            String progressBar = createProgressBar(percentage);
-            
-            System.out.printf("\r[%s] %.1f%% | %s/%s | Speed: %s/s | ETA: %s",
-                progressBar, percentage,
-                Utils.formatBytes(downloaded), Utils.formatBytes(fileSize),
-                Utils.formatBytes(speed),
-                eta >= 0 ? Utils.formatTime(eta) : "Unknown");
-        } else {
-            long speed = elapsed > 0 ? (downloaded * 1000) / elapsed : 0;
-            System.out.printf("\rDownloaded: %s | Speed: %s/s | Time: %s",
-                Utils.formatBytes(downloaded),
-                Utils.formatBytes(speed),
-                Utils.formatTime(elapsed / 1000));
+    /**
+     * Record finished blocks in the journal. The blocks are taken before
+     * the output data is forced to disk and written after, so the journal
+     * never claims blocks that could be lost.
+     */
+    private void flushJournal() {
+        DownloadJournal current = journal;
+        if (current == null) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            long[] marked = current.snapshot();
+            if (marked == null) {
+                return;
+            }
+            output.force();
+            current.flush(marked);
+        } catch (IOException e) {
+            Utils.logError("Failed to update download journal", e);
+        } finally {
+            flushLock.unlock();
         }
     }
     
-    private String createProgressBar(double percentage) {
-        int barLength = 30;
-        int filled = (int) (percentage / 100 * barLength);
-        StringBuilder bar = new StringBuilder();
-        
-        for (int i = 0; i < barLength; i++) {
-            if (i < filled) {
-                bar.append("█");
-            } else {
-                bar.append("░");
+    /**
+     * Hash whatever other workers wrote ahead of the digest's frontier
+     * since the last call, while it is still in the page cache.
+     */
+    private void advanceDigest() {
+        DownloadDigest current = digest;
+        if (current == null || scheduler == null) {
+            return;
+        }
+        try {
+            long writtenUpTo = scheduler.firstUnwritten(current.getFrontier());
+            if (writtenUpTo == Long.MAX_VALUE) {
+                writtenUpTo = fileSize > 0 ? fileSize : current.getFrontier();
             }
+            current.advance(writtenUpTo);
+        } catch (IOException e) {
+            Utils.logError("Failed to hash downloaded data", e);
         }
-        return bar.toString();
     }
     
     public void pauseDownload() {
         isPaused.set(true);
-        System.out.println("\nPausing download...");
         
-        // Cancel all tasks
+        // Workers notice the pause after their current read. They are not
+        // interrupted, since that would close the shared file channel.
         for (Future<?> task : downloadTasks) {
-            task.cancel(true);
-        }
-        
-        if (executor != null) {
-            executor.shutdownNow();
+            task.cancel(false);
         }
         
         showProgress.set(false);
-        System.out.println("Download paused. Progress saved to partial file.");
+        discardProbeResponse();
+        flushJournal();
+        notifyListeners(listener -> listener.downloadPaused(this));
     }
     
     public void resumeDownload() {
@@ -218,15 +1149,18 @@ public class Downloader {
             System.out.println("Download is already completed.");
             return;
         }
+        if (following != null) {
+            // Nothing to resume until the download it follows ends
+            isPaused.set(false);
+            return;
+        }
         
         isPaused.set(false);
         downloadTasks.clear();
-        workers.clear();
+        notifyListeners(listener -> listener.downloadStarted(this));
         
         startDownloadWorkers();
         startProgressTracking();
-        
-        System.out.println("Download resumed.");
     }
     
     public void cancelDownload() {
@@ -237,10 +1171,76 @@ public class Downloader {
         for (Future<?> task : downloadTasks) {
             task.cancel(true);
         }
+        discardProbeResponse();
+        leaveFlight();
+        
+        // Keep the journal so the download can be resumed next time
+        flushJournal();
+        if (journal != null) {
+            journal.close();
+        }
+        output.close();
+        DownloadMetrics.unregister(this);
+        completion.cancel(false);
+        notifyListeners(listener -> listener.downloadCancelled(this));
+    }
+    
+    /**
+     * Give up after an error nobody is left to recover from. Unlike an
+     * abort, the partial data and journal are kept for a later resume.
+     */
+    private void failDownload(String reason) {
+        if (!isCancelled.compareAndSet(false, true)) {
+            return;
+        }
+        
+        failureReason = reason;
+        Utils.logError("Download failed: " + url + ": " + reason, null);
+        
+        isPaused.set(true);
+        showProgress.set(false);
+        discardProbeResponse();
+        leaveFlight();
+        flushJournal();
+        if (journal != null) {
+            journal.close();
+        }
+        output.close();
+        DownloadMetrics.FAILED.increment();
+        DownloadMetrics.unregister(this);
+        completion.completeExceptionally(new IOException(reason));
+        notifyListeners(listener -> listener.downloadFailed(this, reason));
+    }
+    
+    /**
+     * Stop for good when the remote file no longer matches what was
+     * already downloaded. Partial data is discarded so the next attempt
+     * starts over.
+     */
+    private void abortDownload(String reason) {
+        if (!isCancelled.compareAndSet(false, true)) {
+            return;
+        }
         
-        if (executor != null) {
-            executor.shutdownNow();
+        System.err.println("\nDownload aborted: " + reason);
+        Utils.logError("Download aborted: " + reason, null);
+        
+        isPaused.set(true);
+        showProgress.set(false);
+        for (Future<?> task : downloadTasks) {
+            task.cancel(true);
+        }
+        discardProbeResponse();
+        leaveFlight();
+        if (journal != null) {
+            journal.delete();
         }
+        output.delete();
+        failureReason = reason;
+        DownloadMetrics.FAILED.increment();
+        DownloadMetrics.unregister(this);
+        completion.completeExceptionally(new IOException(reason));
+        notifyListeners(listener -> listener.downloadFailed(this, reason));
     }
     
     public boolean isDownloading() {
@@ -251,16 +1251,80 @@ public class Downloader {
         return isCompleted.get();
     }
     
+    public boolean isPaused() {
+        return isPaused.get() && !isCancelled.get();
+    }
+    
+    /**
+     * Completes normally when the file is in place, exceptionally when the
+     * download failed or was aborted, and is cancelled by {@link #cancelDownload()}.
+     * Pausing leaves it pending.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+    
+    /**
+     * Why the download stopped, or null if it did not fail.
+     */
+    public String getFailureReason() {
+        return failureReason;
+    }
+    
+    public String getUrl() {
+        return url;
+    }
+    
+    public String getDestinationPath() {
+        return destinationPath;
+    }
+    
+    /**
+     * Size reported by the server, or -1 if unknown or not probed yet.
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+    
+    public long getDownloadedBytes() {
+        return getProgress().getTotalBytes();
+    }
+    
+    /**
+     * Failed range requests that were tried again, counted against the
+     * retry budget.
+     */
+    public int getRetries() {
+        return retries.get();
+    }
+    
+    /**
+     * Current, average and per-range speed, updated once per progress interval.
+     */
+    public ThroughputEstimator getThroughput() {
+        return throughput;
+    }
+    
+    /**
+     * Take a snapshot of the total and per-range progress. Workers are
+     * never blocked by this; each range's position is its own counter.
+     */
+    public ProgressSnapshot getProgress() {
+        SegmentScheduler current = scheduler;
+        return new ProgressSnapshot(System.currentTimeMillis(), fileSize, resumedBytes, wireBytes.sum(),
+            current != null ? current.snapshot() : Collections.emptyList());
+    }
+    
     public void printStatus() {
-        long downloaded = totalBytesDownloaded.get();
+        ProgressSnapshot progress = getProgress();
+        long downloaded = progress.getTotalBytes();
         System.out.println("Download Status:");
         System.out.println("URL: " + url);
         System.out.println("Destination: " + destinationPath);
         System.out.println("Downloaded: " + Utils.formatBytes(downloaded));
         
         if (fileSize > 0) {
-            double percentage = (double) downloaded / fileSize * 100;
-            System.out.println("Progress: " + String.format("%.1f%%", percentage));
+            System.out.println("Progress: " + String.format("%.1f%%", progress.getPercentage()));
             System.out.println("File size: " + Utils.formatBytes(fileSize));
         }
         
@@ -270,135 +1334,670 @@ public class Downloader {
              isCancelled.get() ? "Cancelled" : "Downloading"));
     }
     
+    /**
+     * A response whose body has not been read yet, with the mirror it came
+     * from. It holds no per-host connection slot; the worker that takes it
+     * over takes one.
+     */
+    private static class OpenResponse {
+        final MirrorSet.Mirror mirror;
+        final TransportResponse response;
+        final long requestStart;
+    
+        OpenResponse(MirrorSet.Mirror mirror, TransportResponse response, long requestStart) {
+            this.mirror = mirror;
+            this.response = response;
+            this.requestStart = requestStart;
+        }
+    }
+    
+    /**
+     * Counts the compressed bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+    
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+    
+        long getCount() {
+            return count;
+        }
+    
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+    
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+    
     private class DownloadWorker implements Runnable {
         private final int workerId;
-        private final long startByte;
-        private final long endByte;
+        private final int workerSession;
+        private final AtomicInteger running;
+        private volatile boolean retired;
+        private volatile boolean exited;
+        // Sized to this connection's speed, starting from the download's speed per connection
+        private int bufferSize;
         
-        public DownloadWorker(int workerId, long startByte, long endByte) {
+        public DownloadWorker(int workerId, int workerSession, AtomicInteger running) {
             this.workerId = workerId;
-            this.startByte = startByte;
-            this.endByte = endByte;
+            this.workerSession = workerSession;
+            this.running = running;
+            long speed = throughput.getCurrentSpeed();
+            int connections = getConnections();
+            this.bufferSize = BufferPool.getShared().sizeFor(connections > 0 ? speed / connections : 0);
+        }
+        
+        // False once paused, even if a later resume started new workers
+        private boolean isCurrent() {
+            return !isPaused.get() && session == workerSession;
+        }
+        
+        private boolean isActive() {
+            return !retired && isCurrent();
+        }
+        
+        boolean isLive() {
+            return !retired && !exited && session == workerSession;
+        }
+        
+        /**
+         * Stop after the current read, leaving the rest of the range to others.
+         */
+        void retire() {
+            retired = true;
         }
         
         @Override
         public void run() {
-            String partFileName = destinationPath + ".part" + workerId;
-            
+            Segment segment = null;
             try {
-                // Check for existing partial download
-                File partFile = new File(partFileName);
-                long currentPos = startByte;
-                
-                if (partFile.exists()) {
-                    currentPos += partFile.length();
+                // Keep taking ranges until there is nothing left worth splitting
+                while (isActive() && (segment = scheduler.next(this)) != null) {
+                    downloadWithRetries(segment);
+                    
+                    if (!isActive()) {
+                        break;
+                    }
+                    if (scheduler.finish(segment, this)) {
+                        ProgressSnapshot.SegmentProgress done = segment.toProgress();
+                        notifyListeners(listener -> listener.segmentCompleted(Downloader.this, done));
+                    }
+                    segment = null;
+                    checkCompletion();
                 }
-                
-                if (endByte > 0 && currentPos > endByte) {
-                    // This part is already complete
-                    return;
+            } catch (Exception e) {
+                if (isActive()) {
+                    System.err.println("\nError in worker " + workerId + ": " + e.getMessage());
+                    Utils.logError("Worker " + workerId + " failed", e);
+                }
+            } finally {
+                if (segment != null) {
+                    if (!isRanged()) {
+                        // Without ranges there is nothing to resume from
+                        startOver(segment);
+                    }
+                    scheduler.release(segment, this);
                 }
                 
-                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-                connection.setConnectTimeout(10000);
-                connection.setReadTimeout(30000);
+                exited = true;
                 
-                if (fileSize > 0 && endByte > 0) {
+                // The last worker to leave with ranges still open means every connection failed
+                if (running.decrementAndGet() == 0 && isCurrent() && !scheduler.isComplete()) {
+                    failDownload("all connections failed");
+                }
+            }
+        }
+        
+        /**
+         * Fetch a range, reconnecting after failures. Each attempt continues
+         * from the last byte written, so a dropped connection only costs a
+         * reconnect: straight away if the attempt made progress, otherwise
+         * after a growing delay. A download without ranges starts over from
+         * the first byte instead, within the same retry budget.
+         */
+        private void downloadWithRetries(Segment segment) throws IOException, InterruptedException {
+            int failures = 0;
+            while (true) {
+                long before = segment.getPosition();
+                try {
+                    downloadSegment(segment);
+                    if (!isActive() || !isRanged() || segment.getPosition() > segment.getEnd()) {
+                        return;
+                    }
+                    // Its mirror was dropped part way, the next one picks up the rest
+                } catch (IOException e) {
+                    if (!isActive() || !isRetryable(e)) {
+                        throw e;
+                    }
+                    if (retries.incrementAndGet() > retryPolicy.getBudget()) {
+                        failDownload("gave up after " + retryPolicy.getBudget() + " retries: " + e.getMessage());
+                        throw e;
+                    }
+                    DownloadMetrics.RETRIES.increment();
+                    failures = segment.getPosition() > before ? 0 : failures + 1;
+                    long retryAfter = e instanceof HttpStatusException ? ((HttpStatusException) e).getRetryAfter() : -1;
+                    long delay = retryPolicy.getDelay(failures, retryAfter);
+                    Utils.logWarn("Worker " + workerId + " failed at byte " + segment.getPosition() + 
+                        " (" + e.getMessage() + "), retrying in " + delay + " ms");
+                    if (!isRanged()) {
+                        // Without ranges there is nothing to continue from
+                        startOver(segment);
+                    }
+                    if (!waitToRetry(delay)) {
+                        return;
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Go back to the first byte of a download without ranges. The digest
+         * may already have hashed bytes that are about to be written again,
+         * so it is replaced; one the progress thread still holds is dropped.
+         */
+        private void startOver(Segment segment) {
+            segment.setPosition(segment.getStart());
+            DownloadDigest current = digest;
+            if (current != null) {
+                digest = new DownloadDigest(current.getAlgorithm(), output);
+            }
+        }
+        
+        /**
+         * Swap the buffer for one sized to the speed of the request so far,
+         * once enough has arrived to judge it.
+         */
+        private ByteBuffer resizeBuffer(ByteBuffer buffer, long bytes, long nanos) {
+            if (bytes < MIN_BUFFER_SAMPLE || nanos <= 0) {
+                return buffer;
+            }
+            BufferPool pool = BufferPool.getShared();
+            bufferSize = pool.sizeFor((long) (bytes * 1e9 / nanos));
+            if (bufferSize == buffer.capacity()) {
+                return buffer;
+            }
+            pool.release(buffer);
+            return pool.acquire(bufferSize);
+        }
+        
+        /**
+         * Sleep before a retry, waking early when paused or retired.
+         * @return false if the worker should stop instead
+         */
+        private boolean waitToRetry(long delay) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + delay;
+            long remaining;
+            while (isActive() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                Thread.sleep(Math.min(remaining, 100));
+            }
+            return isActive();
+        }
+        
+        private void downloadSegment(Segment segment) throws IOException {
+            long currentPos = segment.getPosition();
+            if (segment.isBounded() && currentPos > segment.getEnd()) {
+                // This range is already complete
+                return;
+            }
+            
+            // Only the first request of a fresh download asks for compression
+            if (currentPos == 0 && compressionPending.compareAndSet(true, false) && downloadCompressed(segment)) {
+                return;
+            }
+            
+            boolean ranged = isRanged() && segment.isBounded();
+            // The probe's response already streams from byte 0
+            OpenResponse open = currentPos == 0 ? probeResponse.getAndSet(null) : null;
+            MirrorSet.Mirror mirror;
+            TransportRequest request = null;
+            long requestStart;
+            if (open != null) {
+                mirror = open.mirror;
+                mirrors.acquire(mirror);
+                try {
+                    acquireConnection(mirror.getHost());
+                } catch (InterruptedIOException e) {
+                    open.response.close();
+                    mirrors.release(mirror, false);
+                    throw e;
+                }
+                requestStart = open.requestStart;
+            } else {
+                mirror = mirrors.acquire();
+                request = TransportRequest.get(mirror.getUrl());
+                if (ranged) {
                     // Set range for partial download
-                    String range = "bytes=" + currentPos + "-" + endByte;
-                    connection.setRequestProperty("Range", range);
+                    request.range(currentPos, segment.getEnd());
+                    
+                    // Only honour the range if the file is still the one we started on
+                    String validator = journal != null ? mirror.getValidator() : null;
+                    if (validator != null) {
+                        request.header("If-Range", validator);
+                    }
                 }
                 
-                int responseCode = connection.getResponseCode();
+                try {
+                    acquireConnection(mirror.getHost());
+                } catch (InterruptedIOException e) {
+                    mirrors.release(mirror, false);
+                    throw e;
+                }
+                requestStart = System.nanoTime();
+            }
+            
+            boolean failed = true;
+            DownloadMetrics.connectionOpened();
+            try (TransportResponse response = open != null ? open.response : send(request)) {
+                int responseCode = response.getStatusCode();
                 if (responseCode != HttpURLConnection.HTTP_OK && 
                     responseCode != HttpURLConnection.HTTP_PARTIAL) {
-                    throw new IOException("Server returned error code: " + responseCode);
+                    DownloadMetrics.REQUEST_ERRORS.increment();
+                    if (tuner != null && (responseCode == 429 || responseCode == HttpURLConnection.HTTP_UNAVAILABLE)) {
+                        tuner.onThrottled();
+                    }
+                    throw new HttpStatusException(responseCode, 
+                        RetryPolicy.parseRetryAfter(response.getHeader("Retry-After")));
                 }
                 
-                try (BufferedInputStream in = new BufferedInputStream(connection.getInputStream());
-                     FileOutputStream out = new FileOutputStream(partFileName, partFile.exists())) {
-                    
-                    byte[] buffer = new byte[8192];
+                if (ranged && responseCode == HttpURLConnection.HTTP_OK &&
+                    (currentPos > 0 || segment.getEnd() < fileSize - 1)) {
+                    // A full response to a range request means the If-Range check failed,
+                    // or this mirror ignores ranges; either way the others can carry on
+                    failed = false;
+                    if (!mirrors.drop(mirror, "ignored the range request")) {
+                        abortDownload("remote file changed since the download started");
+                    }
+                    return;
+                }
+                
+                // Ranges start on block boundaries, so everything from the start
+                // of the current block up to currentPos is already written
+                long blockStart = journal != null ? currentPos - currentPos % journal.getBlockSize() : currentPos;
+                
+                // Socket to file through a pooled direct buffer, not the heap
+                ReadableByteChannel in = response.getBodyChannel();
+                ByteBuffer buffer = BufferPool.getShared().acquire(bufferSize);
+                long readStart = System.nanoTime();
+                long readFrom = currentPos;
+                try {
                     int bytesRead;
+                    long allowance = 0;
+                    long sampleStart = System.nanoTime();
+                    long sampleBytes = 0;
                     
-                    while ((bytesRead = in.read(buffer)) != -1 && !isPaused.get()) {
-                        out.write(buffer, 0, bytesRead);
-                        totalBytesDownloaded.addAndGet(bytesRead);
+                    while (isActive() && !mirror.isDropped() && (bytesRead = in.read(buffer.clear())) != -1) {
+                        if (!isActive()) {
+                            // Paused while blocked in read
+                            break;
+                        }
+                        
+                        wireBytes.add(bytesRead);
+                        DownloadMetrics.WIRE_BYTES.add(bytesRead);
+                        int length = bytesRead;
+                        if (segment.isBounded()) {
+                            // The end may have moved if another worker took over the tail
+                            length = (int) Math.min(length, segment.getEnd() - currentPos + 1);
+                            if (length <= 0) {
+                                break;
+                            }
+                        }
+                        buffer.flip().limit(length);
+                        
+                        write(buffer, currentPos);
+                        currentPos += length;
+                        segment.setPosition(currentPos);
+                        
+                        if ((sampleBytes += length) >= MirrorSet.SAMPLE_BYTES) {
+                            long now = System.nanoTime();
+                            mirrors.recordTransfer(mirror, sampleBytes, now - sampleStart);
+                            sampleStart = now;
+                            sampleBytes = 0;
+                            buffer = resizeBuffer(buffer, currentPos - readFrom, now - readStart);
+                        }
+                        
+                        // Bytes are paid for a grant at a time, not on every read
+                        if (throttle != null && (allowance -= length) <= 0) {
+                            allowance += acquireBandwidth();
+                        }
+                        
+                        blockStart = markWritten(blockStart, currentPos);
+                        
+                        if (segment.isBounded() && currentPos > segment.getEnd()) {
+                            break;
+                        }
                     }
+                } finally {
+                    BufferPool.getShared().release(buffer);
                 }
                 
-                connection.disconnect();
+                if (journal != null) {
+                    journal.markRange(blockStart, currentPos);
+                }
                 
-                // Check if all parts are complete
-                checkAndMergeFiles();
+                // A dropped mirror hands the rest of its range to the next one
+                if (isActive() && !mirror.isDropped() && segment.isBounded() && currentPos <= segment.getEnd()) {
+                    throw new IOException("Connection closed at byte " + currentPos + 
+                        ", expected range to end at " + segment.getEnd());
+                }
+                failed = false;
+            } finally {
+                DownloadMetrics.connectionClosed();
+                DownloadMetrics.SEGMENT.recordSince(requestStart);
+                releaseConnection(mirror.getHost());
+                mirrors.release(mirror, failed);
+            }
+        }
+        
+        /**
+         * Fetch the file from byte 0 as one gzip or deflate stream and
+         * inflate it into the output. Meanwhile the other connections fetch
+         * ranges of the rest, and once the stream has run for a moment it is
+         * timed against them. If it is faster alone, the others are retired
+         * and the stream carries on through the whole file, skipping what
+         * they already wrote. Otherwise it stops at the end of its own range.
+         * @return false if the server did not compress the file, which is
+         *         then fetched as usual
+         */
+        private boolean downloadCompressed(Segment segment) throws IOException {
+            // The probe's identity stream from byte 0 would be a second connection to the host
+            discardProbeResponse();
+            MirrorSet.Mirror mirror = mirrors.acquire();
+            try {
+                acquireConnection(mirror.getHost());
+            } catch (InterruptedIOException e) {
+                mirrors.release(mirror, false);
+                throw e;
+            }
+            long requestStart = System.nanoTime();
+            TransportRequest request = TransportRequest.get(mirror.getUrl()).header("Accept-Encoding", "gzip, deflate");
+            
+            Segment current = segment;
+            boolean failed = true;
+            DownloadMetrics.connectionOpened();
+            try (TransportResponse response = send(request)) {
+                String encoding = response.getHeader("Content-Encoding");
+                String modified = response.getHeader("Last-Modified");
+                if (response.getStatusCode() != HttpURLConnection.HTTP_OK || !isInflatable(encoding) ||
+                    (lastModified != null && modified != null && !lastModified.equals(modified))) {
+                    failed = false;
+                    Utils.logInfo(mirror + " did not send " + url + " compressed (" + 
+                        response.getStatusCode() + ", Content-Encoding " + encoding + ")");
+                    return false;
+                }
+                compressed = true;
                 
-            } catch (Exception e) {
-                if (!isPaused.get()) {
-                    System.err.println("\nError in worker " + workerId + ": " + e.getMessage());
-                    Utils.logError("Worker " + workerId + " failed", e);
+                // Without other connections, or when told to, there is nothing to time the stream against
+                boolean alone = !isRanged() || getConnections() == 1 || compressionMode == CompressionMode.ALWAYS;
+                boolean judging = !alone;
+                if (alone && isRanged()) {
+                    retireOthers(this);
                 }
+                
+                CountingInputStream wire = new CountingInputStream(response.getBody());
+                InputStream in = inflate(wire, encoding);
+                // Once per request, like the inflater; only ranges read into pooled buffers
+                byte[] chunk = new byte[INFLATE_CHUNK];
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                long streamPos = 0;
+                long received = 0;
+                long written = 0;
+                long rangesBefore = getDownloadedBytes();
+                long readStart = System.nanoTime();
+                long allowance = 0;
+                long blockStart = 0;
+                boolean ended = true;
+                int bytesRead;
+                
+                reading:
+                while (isActive() && !mirror.isDropped() && (bytesRead = in.read(chunk)) != -1) {
+                    long wireNow = wire.getCount();
+                    wireBytes.add(wireNow - received);
+                    DownloadMetrics.WIRE_BYTES.add(wireNow - received);
+                    // Bandwidth limits apply to what crosses the network
+                    if (throttle != null && (allowance -= wireNow - received) <= 0) {
+                        allowance += acquireBandwidth();
+                    }
+                    received = wireNow;
+                    
+                    int offset = 0;
+                    while (offset < bytesRead) {
+                        long position = streamPos + offset;
+                        if (current.isBounded() && position > current.getEnd()) {
+                            if (journal != null) {
+                                journal.markRange(blockStart, current.getPosition());
+                            }
+                            if (!alone) {
+                                // The stream's own range is done; the ranges fetch the rest
+                                ended = false;
+                                break reading;
+                            }
+                            finishStreamed(current);
+                            current = claimFrom(position);
+                            if (current == null) {
+                                // Everything from here on is written
+                                ended = false;
+                                break reading;
+                            }
+                            blockStart = current.getPosition();
+                            if (journal != null) {
+                                blockStart -= blockStart % journal.getBlockSize();
+                            }
+                            continue;
+                        }
+                        
+                        long next = current.getPosition();
+                        if (position < next) {
+                            // Already written by the worker that had this range
+                            offset += (int) Math.min(bytesRead - offset, next - position);
+                            continue;
+                        }
+                        int length = bytesRead - offset;
+                        if (current.isBounded()) {
+                            length = (int) Math.min(length, current.getEnd() - position + 1);
+                        }
+                        buffer.limit(offset + length).position(offset);
+                        write(buffer, position);
+                        current.setPosition(position + length);
+                        blockStart = markWritten(blockStart, position + length);
+                        written += length;
+                        offset += length;
+                    }
+                    streamPos += bytesRead;
+                    
+                    long elapsed = System.nanoTime() - readStart;
+                    if (judging && elapsed >= COMPRESSION_TRIAL_NANOS && received >= COMPRESSION_TRIAL_BYTES) {
+                        judging = false;
+                        alone = preferCompressed(written, getDownloadedBytes() - rangesBefore - written,
+                            streamPos, received, elapsed);
+                        if (alone) {
+                            retireOthers(this);
+                        }
+                    }
+                }
+                
+                if (journal != null && ended) {
+                    journal.markRange(blockStart, current.getPosition());
+                }
+                if (ended && isActive() && !mirror.isDropped() && current.isBounded() &&
+                    current.getPosition() <= current.getEnd()) {
+                    throw new IOException("Compressed stream ended at byte " + current.getPosition() + 
+                        ", expected " + (current.getEnd() + 1));
+                }
+                failed = false;
+                return true;
+            } finally {
+                if (current != null && current != segment) {
+                    // The worker only knows the range it started with
+                    if (current.getPosition() > current.getEnd()) {
+                        finishStreamed(current);
+                    } else {
+                        scheduler.release(current, this);
+                    }
+                }
+                if (failed) {
+                    restoreConnections();
+                }
+                DownloadMetrics.connectionClosed();
+                DownloadMetrics.SEGMENT.recordSince(requestStart);
+                releaseConnection(mirror.getHost());
+                mirrors.release(mirror, failed);
             }
         }
-    }
-    
-    private synchronized void checkAndMergeFiles() {
-        // Check if all workers are done
-        boolean allComplete = true;
-        for (int i = 0; i < workers.size(); i++) {
-            String partFileName = destinationPath + ".part" + i;
-            File partFile = new File(partFileName);
-            if (!partFile.exists()) {
-                allComplete = false;
-                break;
+        
+        /**
+         * The next range the compressed stream can write to, waiting for a
+         * retired worker to hand it back if need be.
+         * @return null if everything from the position on is written
+         */
+        private Segment claimFrom(long position) throws InterruptedIOException {
+            while (true) {
+                Segment next = scheduler.claimFrom(position, this);
+                if (next == null || next.getOwner() == this) {
+                    return next;
+                }
+                if (!isActive()) {
+                    throw new InterruptedIOException("Stopped while waiting for " + next);
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for " + next);
+                }
+            }
+        }
+        
+        private void finishStreamed(Segment segment) {
+            if (scheduler.finish(segment, this)) {
+                ProgressSnapshot.SegmentProgress done = segment.toProgress();
+                notifyListeners(listener -> listener.segmentCompleted(Downloader.this, done));
             }
+            checkCompletion();
         }
         
-        if (allComplete && !isCompleted.get()) {
-            mergeFiles();
+        /**
+         * Write a buffer at its place in the file and feed the digest.
+         * The buffer's position and limit are left as they were.
+         */
+        private void write(ByteBuffer buffer, long position) throws IOException {
+            long writeStart = System.nanoTime();
+            output.write(buffer, position);
+            DownloadMetrics.DISK_WRITE.recordSince(writeStart);
+            DownloadMetrics.BYTES.add(buffer.remaining());
+            if (digest != null) {
+                digest.onWrite(buffer, position);
+            }
+        }
+        
+        /**
+         * Record the whole blocks written since blockStart in the journal.
+         * @return where the next block to record starts
+         */
+        private long markWritten(long blockStart, long position) {
+            if (journal == null || position - blockStart < journal.getBlockSize()) {
+                return blockStart;
+            }
+            journal.markRange(blockStart, position);
+            if (journal.needsFlush()) {
+                flushJournal();
+            }
+            return position - position % journal.getBlockSize();
         }
     }
     
-    private void mergeFiles() {
+    /**
+     * Finish the streaming digest and compare it with the expected one.
+     * @return false if the download was aborted because they differ
+     */
+    private boolean verifyChecksum() throws IOException {
+        long start = System.nanoTime();
+        checksum = digest.finish(fileSize > 0 ? fileSize : getDownloadedBytes());
+        Utils.logInfo(digest.getAlgorithm() + " of " + destinationPath + ": " + checksum +
+            String.format(" (%.1f ms to finish)", (System.nanoTime() - start) / 1e6));
+        
+        if (expectedChecksum != null && !expectedChecksum.matches(checksum)) {
+            abortDownload(digest.getAlgorithm() + " mismatch: expected " + expectedChecksum.getHex() + 
+                ", got " + checksum);
+            return false;
+        }
+        return true;
+    }
+    
+    private void checkCompletion() {
+        completionLock.lock();
+        try {
+            if (scheduler.isComplete() && !isCompleted.get()) {
+                finishDownload();
+            }
+        } finally {
+            completionLock.unlock();
+        }
+    }
+    
+    private void finishDownload() {
+        long start = System.nanoTime();
         try {
             showProgress.set(false);
-            System.out.println("\nMerging files...");
             
-            try (FileOutputStream finalFile = new FileOutputStream(destinationPath)) {
-                for (int i = 0; i < workers.size(); i++) {
-                    String partFileName = destinationPath + ".part" + i;
-                    File partFile = new File(partFileName);
-                    
-                    if (partFile.exists()) {
-                        try (FileInputStream partStream = new FileInputStream(partFile)) {
-                            byte[] buffer = new byte[8192];
-                            int bytesRead;
-                            while ((bytesRead = partStream.read(buffer)) != -1) {
-                                finalFile.write(buffer, 0, bytesRead);
-                            }
-                        }
-                        partFile.delete(); // Clean up part file
-                    }
-                }
+            if (digest != null && !verifyChecksum()) {
+                return;
             }
             
-            // Clean up partial file if it exists
-            File partialFile = new File(destinationPath + ".partial");
-            if (partialFile.exists()) {
-                partialFile.delete();
+            output.commit();
+            if (store != null && checksum != null) {
+                addToStore();
+            }
+            
+            // The journal is no longer needed once the file is in place
+            if (journal != null) {
+                journal.delete();
+            }
+            if (cache != null) {
+                storeInCache();
             }
             
             isCompleted.set(true);
-            long totalTime = (System.currentTimeMillis() - startTime) / 1000;
+            leaveFlight();
+            DownloadMetrics.FINALIZE.recordSince(start);
+            DownloadMetrics.COMPLETED.increment();
+            DownloadMetrics.unregister(this);
             
-            System.out.println("\n✅ Download completed successfully!");
-            System.out.println("File saved to: " + destinationPath);
-            System.out.println("Total time: " + Utils.formatTime(totalTime));
-            System.out.println("Average speed: " + 
-                Utils.formatBytes(totalBytesDownloaded.get() / Math.max(totalTime, 1)) + "/s");
+            // A last progress event so listeners see the download reach 100%
+            ProgressSnapshot progress = getProgress();
+            throughput.sample(progress);
+            notifyListeners(listener -> listener.progressChanged(this, progress));
+            if (tuner != null) {
+                Utils.logInfo("Downloaded " + url + " with " + tuner.getLevel() + " auto-tuned connections");
+            }
+            completion.complete(null);
+            notifyListeners(listener -> listener.downloadCompleted(this));
             
         } catch (Exception e) {
-            System.err.println("Error merging files: " + e.getMessage());
-            Utils.logError("File merge failed", e);
+            System.err.println("Error finalizing file: " + e.getMessage());
+            Utils.logError("File finalize failed", e);
+            failDownload("could not finalize file: " + e.getMessage());
         }
     }
 }
@@ -0,0 +1,137 @@
+package com.downloader;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How download workers and jobs get their threads.
+ *
+ * PLATFORM runs them on a shared pool of daemon OS threads. VIRTUAL gives
+ * every segment and job its own virtual thread (Java 21+), scheduled by
+ * the JVM's shared carrier pool, so thousands of blocking range reads can
+ * be in flight without thousands of OS threads. On older runtimes VIRTUAL
+ * falls back to PLATFORM.
+ *
+ * Code that workers block in while holding a lock uses a ReentrantLock
+ * rather than synchronized, so a blocked virtual thread does not pin its
+ * carrier on Java 21. That covers waiting for a slot or a mapped window
+ * ({@link HostLimiter}, {@link ConnectionPool}, {@link MappedOutputFile})
+ * and file I/O: finishing a download (hashing, fsync, rename), journal
+ * flushes, and writes to the {@link DownloadCache} and {@link ContentStore}.
+ * Monitors are left only around in-memory state.
+ *
+ * The mode is picked with the downloader.threads system property
+ * ("platform" or "virtual") or {@link #setDefault}.
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL;
+
+    private static volatile ExecutionMode defaultMode = fromSystemProperty();
+    private static final ThreadFactory virtualFactory = createVirtualFactory();
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static volatile ExecutorService platformExecutor;
+    private static volatile ExecutorService virtualExecutor;
+
+    public static ExecutionMode getDefault() {
+        return defaultMode;
+    }
+
+    public static void setDefault(ExecutionMode mode) {
+        if (mode == VIRTUAL && !isVirtualSupported()) {
+            System.out.println("Virtual threads need Java 21 or later. Using platform threads.");
+            mode = PLATFORM;
+        }
+        defaultMode = mode;
+    }
+
+    public static boolean isVirtualSupported() {
+        return virtualFactory != null;
+    }
+
+    /**
+     * Shared executor for this mode. It lives for the whole process, so
+     * callers cancel their own tasks rather than shutting it down.
+     */
+    public ExecutorService executor() {
+        if (this == VIRTUAL && isVirtualSupported()) {
+            if (virtualExecutor == null) {
+                synchronized (ExecutionMode.class) {
+                    if (virtualExecutor == null) {
+                        virtualExecutor = newThreadPerTaskExecutor(virtualFactory);
+                    }
+                }
+            }
+            return virtualExecutor;
+        }
+
+        if (platformExecutor == null) {
+            synchronized (ExecutionMode.class) {
+                if (platformExecutor == null) {
+                    platformExecutor = Executors.newCachedThreadPool(
+                        task -> newPlatformThread("download-worker-" + threadCount.incrementAndGet(), task));
+                }
+            }
+        }
+        return platformExecutor;
+    }
+
+    /**
+     * Create an unstarted thread for a long-running task such as a job or
+     * a progress updater. Platform threads are daemons.
+     */
+    public Thread newThread(String name, Runnable task) {
+        if (this == VIRTUAL && isVirtualSupported()) {
+            Thread thread = virtualFactory.newThread(task);
+            thread.setName(name);
+            return thread;
+        }
+        return newPlatformThread(name, task);
+    }
+
+    private static Thread newPlatformThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static ExecutionMode fromSystemProperty() {
+        String name = System.getProperty("downloader.threads", "platform");
+        if ("virtual".equalsIgnoreCase(name)) {
+            if (createVirtualFactory() != null) {
+                return VIRTUAL;
+            }
+            System.out.println("Virtual threads need Java 21 or later. Using platform threads.");
+        }
+        return PLATFORM;
+    }
+
+    // Executors.newThreadPerTaskExecutor is Java 21 as well
+    private static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory) {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual thread executor unavailable", e);
+        }
+    }
+
+    // Thread.ofVirtual().factory(), looked up reflectively so the code
+    // still compiles and runs on Java 17
+    private static ThreadFactory createVirtualFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class)
+                .invoke(builder, "download-virtual-", 1L);
+            Method factory = builderType.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
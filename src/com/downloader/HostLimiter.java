@@ -0,0 +1,97 @@
+package com.downloader;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts open connections per host across every download of a
+ * {@link DownloadManager}, so many jobs against the same server cannot
+ * open more connections than the server is willing to accept.
+ */
+class HostLimiter {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private final Map<String, Integer> inUse = new HashMap<>();
+    private volatile int maxPerHost;
+
+    HostLimiter(int maxPerHost) {
+        this.maxPerHost = maxPerHost;
+    }
+
+    /**
+     * Key used to group connections: lower-case host and port.
+     */
+    static String keyFor(String url) {
+        try {
+            URI uri = URI.create(url);
+            String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if (port < 0) {
+                port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+            }
+            return host + ":" + port;
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+
+    /**
+     * Wait until the host has a free connection slot and take it.
+     */
+    void acquire(String host) throws InterruptedException {
+        lock.lock();
+        try {
+            while (inUse.getOrDefault(host, 0) >= maxPerHost) {
+                slotFreed.await();
+            }
+            inUse.merge(host, 1, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(String host) {
+        lock.lock();
+        try {
+            Integer count = inUse.get(host);
+            if (count == null || count <= 1) {
+                inUse.remove(host);
+            } else {
+                inUse.put(host, count - 1);
+            }
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Connections currently open to the host.
+     */
+    int getInUse(String host) {
+        lock.lock();
+        try {
+            return inUse.getOrDefault(host, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    void setMaxPerHost(int maxPerHost) {
+        lock.lock();
+        try {
+            this.maxPerHost = maxPerHost;
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
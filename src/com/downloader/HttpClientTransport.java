@@ -0,0 +1,239 @@
+package com.downloader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backend on top of java.net.http.HttpClient. One client is shared by all
+ * downloads, so range requests to the same server are multiplexed as
+ * HTTP/2 streams over a single connection when the server supports it,
+ * and reuse keep-alive HTTP/1.1 connections when it does not. HttpClient
+ * takes its connect timeout per client, so there is one client for each
+ * connect timeout requests ask for, normally just the one.
+ *
+ * The request timeout only covers the wait for the response headers, so
+ * bodies are watched separately: a read that gets no data within the
+ * request's read timeout is cancelled, as a socket timeout would be on
+ * the other backends.
+ */
+public class HttpClientTransport implements Transport {
+    private static final long WATCH_INTERVAL_MS = 500;
+
+    private static volatile HttpClientTransport shared;
+    // Bodies still open, checked for stalled reads
+    private static final Set<WatchedBody> bodies = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService watchdog;
+
+    // Null when the clients are built here, one per connect timeout
+    private final HttpClient client;
+    private final Map<Integer, HttpClient> clients = new ConcurrentHashMap<>();
+
+    public HttpClientTransport() {
+        this.client = null;
+    }
+
+    /**
+     * Send every request through the given client, whose own connect
+     * timeout then applies.
+     */
+    public HttpClientTransport(HttpClient client) {
+        this.client = client;
+    }
+
+    private static HttpClient newClient(int connectTimeout) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL);
+        // Zero means no timeout, as for a socket
+        if (connectTimeout > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeout));
+        }
+        // Without a selector HttpClient connects directly; this one honours http(s).proxyHost
+        ProxySelector proxies = ProxySelector.getDefault();
+        if (proxies != null) {
+            builder.proxy(proxies);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The process-wide instance used by default.
+     */
+    public static HttpClientTransport getShared() {
+        if (shared == null) {
+            synchronized (HttpClientTransport.class) {
+                if (shared == null) {
+                    shared = new HttpClientTransport();
+                }
+            }
+        }
+        return shared;
+    }
+
+    @Override
+    public TransportResponse send(TransportRequest request) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.getUrl()))
+            .timeout(Duration.ofMillis(request.getReadTimeout()))
+            .method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+
+        try {
+            HttpClient sender = client != null ? client
+                : clients.computeIfAbsent(request.getConnectTimeout(), HttpClientTransport::newClient);
+            HttpResponse<InputStream> response =
+                sender.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+            startWatchdog();
+            return new Response(response, new WatchedBody(response.body(), request.getReadTimeout()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request interrupted");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid request: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "httpclient";
+    }
+
+    private static synchronized void startWatchdog() {
+        if (watchdog != null) {
+            return;
+        }
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "httpclient-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog.scheduleWithFixedDelay(() -> {
+            long now = System.nanoTime();
+            for (WatchedBody body : bodies) {
+                body.cancelIfStalled(now);
+            }
+        }, WATCH_INTERVAL_MS, WATCH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A response body whose reads time out. A stalled read is cancelled by
+     * closing the stream under it, which cancels the HTTP/2 stream (or
+     * drops the HTTP/1.1 connection) and wakes the reader.
+     */
+    private static class WatchedBody extends FilterInputStream {
+        private final long timeoutNanos;
+        // Start of the read in progress, 0 between reads
+        private volatile long readingSince;
+        private volatile boolean timedOut;
+
+        WatchedBody(InputStream in, int readTimeout) {
+            super(in);
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeout > 0 ? readTimeout : Integer.MAX_VALUE);
+            bodies.add(this);
+        }
+
+        @Override
+        public int read() throws IOException {
+            readingSince = System.nanoTime();
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw timedOut ? new SocketTimeoutException("Read timed out") : e;
+            } finally {
+                readingSince = 0;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            readingSince = System.nanoTime();
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw timedOut ? new SocketTimeoutException("Read timed out") : e;
+            } finally {
+                readingSince = 0;
+            }
+        }
+
+        void cancelIfStalled(long now) {
+            long since = readingSince;
+            if (since != 0 && now - since > timeoutNanos) {
+                timedOut = true;
+                try {
+                    close();
+                } catch (IOException e) {
+                    // Closed either way
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            bodies.remove(this);
+            super.close();
+        }
+    }
+
+    private static class Response implements TransportResponse {
+        private final HttpResponse<InputStream> response;
+        private final WatchedBody body;
+
+        Response(HttpResponse<InputStream> response, WatchedBody body) {
+            this.response = response;
+            this.body = body;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        }
+
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public String getProtocol() {
+            return response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2" : "HTTP/1.1";
+        }
+
+        @Override
+        public void close() {
+            try {
+                // Closing before the end cancels the stream (or drops the
+                // HTTP/1.1 connection) instead of draining the rest
+                body.close();
+            } catch (IOException e) {
+                // Nothing left to release
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.downloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A persistent HTTP/1.1 connection owned by a {@link ConnectionPool}.
+ * Only one request is in flight at a time.
+ *
+ * Plain HTTP connections are opened through a {@link SocketChannel}, so a
+ * response body can be read straight into a direct buffer with
+ * {@link #read(ByteBuffer)}. While it does, the channel is non-blocking
+ * and waits on a selector to keep the read timeout.
+ */
+public class HttpConnection {
+    private static final Consumer<SelectionKey> IGNORE_KEY = selected -> { };
+
+    private final String key;
+    private final String hostHeader;
+    private final Socket socket;
+    private final SocketChannel channel;
+    private final HeaderInputStream in;
+    private final OutputStream out;
+    private volatile long idleSince;
+    private Selector selector;
+    private SelectionKey selectionKey;
+
+    private HttpConnection(String key, String hostHeader, Socket socket) throws IOException {
+        this.key = key;
+        this.hostHeader = hostHeader;
+        this.socket = socket;
+        this.channel = socket.getChannel();
+        this.in = new HeaderInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 2048);
+        this.idleSince = System.currentTimeMillis();
+    }
+
+    static HttpConnection open(String key, String scheme, String host, int port,
+                               int connectTimeout, int readTimeout) throws IOException {
+        long start = System.nanoTime();
+        // TLS needs a plain socket to layer on; body reads then go through the heap
+        Socket socket = "https".equalsIgnoreCase(scheme) ? new Socket() : SocketChannel.open().socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            socket.setSoTimeout(readTimeout);
+
+            if ("https".equalsIgnoreCase(scheme)) {
+                SSLSocket tls = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                    .createSocket(socket, host, port, true);
+                SSLParameters parameters = tls.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                tls.setSSLParameters(parameters);
+                tls.startHandshake();
+                socket = tls;
+            }
+            DownloadMetrics.CONNECT.recordSince(start);
+
+            boolean defaultPort = ("https".equalsIgnoreCase(scheme) && port == 443) ||
+                ("http".equalsIgnoreCase(scheme) && port == 80);
+            return new HttpConnection(key, defaultPort ? host : host + ":" + port, socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the request and read the status line and headers.
+     */
+    Response execute(String method, String target, Map<String, String> headers) throws IOException {
+        endChannelRead();
+        StringBuilder request = new StringBuilder(256);
+        request.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(hostHeader).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        request.append("User-Agent: JavaSmartDownloader\r\n");
+        request.append("Connection: keep-alive\r\n\r\n");
+        out.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        String statusLine = readLine();
+        String[] status = statusLine.split(" ", 3);
+        if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+
+        int statusCode;
+        try {
+            statusCode = Integer.parseInt(status[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+
+        Map<String, String> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                responseHeaders.putIfAbsent(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        }
+        return new Response(status[0], statusCode, responseHeaders);
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                throw new EOFException("Connection closed by server");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    InputStream getInputStream() {
+        return in;
+    }
+
+    /**
+     * @return whether {@link #read(ByteBuffer)} avoids copying through the heap
+     */
+    boolean hasChannel() {
+        return channel != null;
+    }
+
+    /**
+     * Read response body bytes into a buffer: first whatever arrived along
+     * with the headers, then straight from the channel. Only for connections
+     * that {@link #hasChannel() have a channel}; the input stream must not be
+     * used again until {@link #endChannelRead()}.
+     * @return bytes read, or -1 at the end of the stream
+     */
+    int read(ByteBuffer buffer) throws IOException {
+        int buffered = in.drainTo(buffer);
+        if (buffered > 0 || !buffer.hasRemaining()) {
+            return buffered;
+        }
+
+        if (selectionKey == null) {
+            if (selector == null) {
+                selector = Selector.open();
+            }
+            channel.configureBlocking(false);
+            selectionKey = channel.register(selector, SelectionKey.OP_READ);
+        }
+        int n;
+        while ((n = channel.read(buffer)) == 0) {
+            int timeout = socket.getSoTimeout();
+            // With an action the key is not added to the selected-key set,
+            // which would allocate on every wait
+            if (selector.select(IGNORE_KEY, timeout) == 0 && timeout > 0) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Put the channel back in blocking mode after {@link #read(ByteBuffer)},
+     * so the input stream can be used again.
+     */
+    void endChannelRead() throws IOException {
+        if (selectionKey != null) {
+            selectionKey.cancel();
+            selectionKey = null;
+            // Deregisters the cancelled key, which blocking mode requires
+            selector.selectNow();
+            channel.configureBlocking(true);
+        }
+    }
+
+    /**
+     * Check that the server has not closed an idle connection, by peeking
+     * for a byte with a very short timeout.
+     */
+    boolean isHealthy() {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return false;
+        }
+
+        int timeout = 0;
+        try {
+            endChannelRead();
+            timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            in.mark(1);
+            // Anything but a timeout means the server closed or sent garbage
+            in.read();
+            return false;
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                in.reset();
+                socket.setSoTimeout(timeout);
+            } catch (IOException e) {
+                // Socket is gone; the caller closes it
+            }
+        }
+    }
+
+    void setReadTimeout(int readTimeout) throws SocketException {
+        socket.setSoTimeout(readTimeout);
+    }
+
+    void markIdle() {
+        idleSince = System.currentTimeMillis();
+    }
+
+    long getIdleSince() {
+        return idleSince;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    void close() {
+        try {
+            socket.close();
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Buffers the status line and headers, and hands over any body bytes
+     * that were read along with them.
+     */
+    private static class HeaderInputStream extends BufferedInputStream {
+        HeaderInputStream(InputStream in) {
+            super(in, 16384);
+        }
+
+        synchronized int drainTo(ByteBuffer buffer) {
+            int n = Math.min(count - pos, buffer.remaining());
+            if (n > 0) {
+                buffer.put(buf, pos, n);
+                pos += n;
+            }
+            return Math.max(n, 0);
+        }
+    }
+
+    static class Response {
+        final String protocol;
+        final int statusCode;
+        final Map<String, String> headers;
+
+        Response(String protocol, int statusCode, Map<String, String> headers) {
+            this.protocol = protocol;
+            this.statusCode = statusCode;
+            this.headers = headers;
+        }
+
+        /**
+         * Whether the server allows the connection to carry another request.
+         */
+        boolean isKeepAlive() {
+            String connection = headers.get("Connection");
+            if ("HTTP/1.0".equals(protocol)) {
+                return "keep-alive".equalsIgnoreCase(connection);
+            }
+            return !"close".equalsIgnoreCase(connection);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.downloader;
+
+import java.io.IOException;
+
+/**
+ * A request was answered with an error status.
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterMs;
+
+    public HttpStatusException(int statusCode, long retryAfterMs) {
+        super("Server returned error code: " + statusCode);
+        this.statusCode = statusCode;
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return how long the server asked us to wait, in milliseconds, or -1
+     */
+    public long getRetryAfter() {
+        return retryAfterMs;
+    }
+
+    /**
+     * Timeouts, throttling and server errors may go away; other client
+     * errors such as 404 will not.
+     */
+    public boolean isRetryable() {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+}
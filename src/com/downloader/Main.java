@@ -1,7 +1,15 @@
 package com.downloader;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
 
 /**
  * Main class for Java Smart Downloader (MVP)
@@ -9,11 +17,17 @@ import java.util.Scanner;
  */
 public class Main {
     private static final Scanner scanner = new Scanner(System.in);
-    private static Downloader currentDownloader;
+    private static final DownloadManager manager = new DownloadManager();
     
     public static void main(String[] args) {
+        MetricsExporter.install();
+        if (args.length > 0) {
+            System.exit(runBatch(args));
+        }
+        
         System.out.println("=== Java Smart Downloader (MVP) ===");
-        System.out.println("Multi-threaded file downloader with pause/resume support\n");
+        System.out.println("Multi-threaded file downloader with pause/resume support");
+        System.out.println("Thread mode: " + ExecutionMode.getDefault().name().toLowerCase() + "\n");
         
         while (true) {
             displayMenu();
@@ -24,19 +38,32 @@ public class Main {
                     startNewDownload();
                     break;
                 case 2:
-                    pauseCurrentDownload();
+                    addDownloadsFromFile();
                     break;
                 case 3:
-                    resumeDownload();
+                    pauseDownload();
                     break;
                 case 4:
-                    showDownloadStatus();
+                    resumeDownload();
                     break;
                 case 5:
+                    cancelDownload();
+                    break;
+                case 6:
+                    showDownloadStatus();
+                    break;
+                case 7:
+                    resumeInterruptedDownload();
+                    break;
+                case 8:
+                    changeLimits();
+                    break;
+                case 9:
+                    changeSpeedLimits();
+                    break;
+                case 10:
                     System.out.println("Goodbye!");
-                    if (currentDownloader != null) {
-                        currentDownloader.cancelDownload();
-                    }
+                    manager.cancelAll();
                     System.exit(0);
                     break;
                 default:
@@ -49,10 +76,15 @@ public class Main {
     private static void displayMenu() {
         System.out.println("Choose an option:");
         System.out.println("1. Start new download");
-        System.out.println("2. Pause current download");
-        System.out.println("3. Resume download");
-        System.out.println("4. Show download status");
-        System.out.println("5. Exit");
+        System.out.println("2. Add downloads from a URL list");
+        System.out.println("3. Pause download");
+        System.out.println("4. Resume download");
+        System.out.println("5. Cancel download");
+        System.out.println("6. Show downloads");
+        System.out.println("7. Resume interrupted download");
+        System.out.println("8. Change concurrency limits");
+        System.out.println("9. Change speed limits");
+        System.out.println("10. Exit");
         System.out.print("Enter your choice: ");
     }
     
@@ -65,19 +97,70 @@ public class Main {
     }
     
     private static void startNewDownload() {
-        if (currentDownloader != null && currentDownloader.isDownloading()) {
-            System.out.println("A download is already in progress. Please pause it first.");
+        System.out.print("Enter the URL to download (several mirrors of the file separated by spaces): ");
+        String input = scanner.nextLine().trim();
+        
+        if (input.isEmpty()) {
+            System.out.println("URL cannot be empty.");
             return;
         }
+        List<String> mirrors = Arrays.asList(input.split("\\s+"));
+        String url = mirrors.get(0);
         
-        System.out.print("Enter the URL to download: ");
-        String url = scanner.nextLine().trim();
+        String destDir = askDestinationDirectory();
+        if (destDir == null) {
+            return;
+        }
+        int numThreads = askThreadCount();
         
-        if (url.isEmpty()) {
-            System.out.println("URL cannot be empty.");
+        System.out.print("Expected SHA-256 or MD5 checksum (or press Enter to skip): ");
+        String checksumInput = scanner.nextLine().trim();
+        Checksum checksum = null;
+        if (!checksumInput.isEmpty()) {
+            try {
+                checksum = Checksum.parse(checksumInput);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage() + ". Downloading without verification.");
+            }
+        }
+        
+        // Extract filename from URL
+        String fileName = Utils.extractFileName(url);
+        String destinationPath = destDir + File.separator + fileName;
+        
+        DownloadJob job = manager.submit(mirrors, destinationPath, numThreads, checksum);
+        System.out.println("\nQueued download #" + job.getId() + ":");
+        System.out.println("URL: " + url);
+        if (mirrors.size() > 1) {
+            System.out.println("Mirrors: " + String.join(", ", mirrors.subList(1, mirrors.size())));
+        }
+        System.out.println("Destination: " + destinationPath);
+        System.out.println("Threads: " + describeThreads(numThreads));
+        if (checksum != null) {
+            System.out.println("Checksum: " + checksum);
+        }
+        System.out.println("----------------------------------------");
+    }
+    
+    private static void addDownloadsFromFile() {
+        System.out.print("Enter the path of a file with one URL per line (optionally followed by mirrors and a checksum): ");
+        String listFile = scanner.nextLine().trim();
+        
+        String destDir = askDestinationDirectory();
+        if (destDir == null) {
             return;
         }
+        int numThreads = askThreadCount();
         
+        try {
+            int added = submitAll(readUrlList(listFile), destDir, numThreads);
+            System.out.println("Queued " + added + " downloads.");
+        } catch (IOException e) {
+            System.out.println("Could not read " + listFile + ": " + e.getMessage());
+        }
+    }
+    
+    private static String askDestinationDirectory() {
         System.out.print("Enter destination directory (or press Enter for current directory): ");
         String destDir = scanner.nextLine().trim();
         if (destDir.isEmpty()) {
@@ -89,81 +172,412 @@ public class Main {
         if (!destDirFile.exists()) {
             if (!destDirFile.mkdirs()) {
                 System.out.println("Failed to create destination directory.");
-                return;
+                return null;
             }
         }
-        
-        System.out.print("Enter number of threads (1-8, default 4): ");
+        return destDir;
+    }
+    
+    private static int askThreadCount() {
+        System.out.print("Enter number of threads (1-" + Downloader.MAX_CONNECTIONS + 
+            ", or press Enter to tune automatically): ");
         String threadsInput = scanner.nextLine().trim();
-        int numThreads = 4;
+        int numThreads = Downloader.AUTO_CONNECTIONS;
         
-        if (!threadsInput.isEmpty()) {
+        if (!threadsInput.isEmpty() && !threadsInput.equalsIgnoreCase("auto")) {
             try {
                 numThreads = Integer.parseInt(threadsInput);
-                if (numThreads < 1 || numThreads > 8) {
-                    numThreads = 4;
-                    System.out.println("Invalid thread count. Using default: 4");
+                if (numThreads < 1 || numThreads > Downloader.MAX_CONNECTIONS) {
+                    numThreads = Downloader.AUTO_CONNECTIONS;
+                    System.out.println("Invalid thread count. Tuning automatically.");
                 }
             } catch (NumberFormatException e) {
-                System.out.println("Invalid thread count. Using default: 4");
+                System.out.println("Invalid thread count. Tuning automatically.");
+            }
+        }
+        return numThreads;
+    }
+    
+    private static String describeThreads(int numThreads) {
+        return numThreads == Downloader.AUTO_CONNECTIONS ? "auto" : String.valueOf(numThreads);
+    }
+    
+    /**
+     * Ask for a job id, listing the jobs in the given state first.
+     * @return the chosen job, or null
+     */
+    private static DownloadJob chooseJob(String action, DownloadJob.State state) {
+        List<DownloadJob> candidates = new ArrayList<>();
+        for (DownloadJob job : manager.getJobs()) {
+            if (state == null ? !job.isFinished() : job.getState() == state) {
+                candidates.add(job);
             }
         }
         
-        // Extract filename from URL
-        String fileName = Utils.extractFileName(url);
-        String destinationPath = destDir + File.separator + fileName;
+        if (candidates.isEmpty()) {
+            System.out.println("No download to " + action + ".");
+            return null;
+        }
         
-        System.out.println("\nStarting download:");
-        System.out.println("URL: " + url);
-        System.out.println("Destination: " + destinationPath);
-        System.out.println("Threads: " + numThreads);
-        System.out.println("----------------------------------------");
+        for (DownloadJob job : candidates) {
+            System.out.println(job);
+        }
+        System.out.print("Enter the number of the download to " + action + ": ");
         
-        currentDownloader = new Downloader(url, destinationPath, numThreads);
-        currentDownloader.startDownload();
+        DownloadJob job = manager.getJob(getChoice());
+        if (job == null || !candidates.contains(job)) {
+            System.out.println("Invalid choice.");
+            return null;
+        }
+        return job;
     }
     
-    private static void pauseCurrentDownload() {
-        if (currentDownloader == null) {
-            System.out.println("No download in progress.");
-            return;
+    private static void pauseDownload() {
+        DownloadJob job = chooseJob("pause", DownloadJob.State.RUNNING);
+        if (job != null) {
+            manager.pause(job);
+            System.out.println("Download paused. You can resume it later.");
+        }
+    }
+    
+    private static void resumeDownload() {
+        DownloadJob job = chooseJob("resume", DownloadJob.State.PAUSED);
+        if (job != null) {
+            manager.resume(job);
+            System.out.println("Download #" + job.getId() + " is " + 
+                job.getState().name().toLowerCase() + ".");
+        }
+    }
+    
+    private static void cancelDownload() {
+        DownloadJob job = chooseJob("cancel", null);
+        if (job != null) {
+            manager.cancel(job);
+            System.out.println("Download cancelled. The partial file is kept for a later resume.");
+        }
+    }
+    
+    private static void changeLimits() {
+        System.out.print("Downloads to run at once (currently " + manager.getMaxConcurrentJobs() + "): ");
+        Integer jobs = parsePositive(scanner.nextLine().trim());
+        if (jobs != null) {
+            manager.setMaxConcurrentJobs(jobs);
         }
         
-        if (!currentDownloader.isDownloading()) {
-            System.out.println("No active download to pause.");
-            return;
+        System.out.print("Connections per host (currently " + manager.getMaxConnectionsPerHost() + "): ");
+        Integer perHost = parsePositive(scanner.nextLine().trim());
+        if (perHost != null) {
+            manager.setMaxConnectionsPerHost(perHost);
         }
         
-        currentDownloader.pauseDownload();
-        System.out.println("Download paused. You can resume it later.");
+        System.out.println("Running " + manager.getMaxConcurrentJobs() + " downloads at once, " +
+            manager.getMaxConnectionsPerHost() + " connections per host.");
     }
     
-    private static void resumeDownload() {
-        if (currentDownloader == null) {
-            System.out.println("No download to resume. Please start a new download.");
-            return;
+    private static void changeSpeedLimits() {
+        System.out.print("Total speed limit in KB/s, 0 for unlimited (currently " + 
+            formatLimit(manager.getGlobalSpeedLimit()) + "): ");
+        Integer global = parseNonNegative(scanner.nextLine().trim());
+        if (global != null) {
+            manager.setGlobalSpeedLimit(global * 1024L);
         }
         
-        if (currentDownloader.isDownloading()) {
-            System.out.println("Download is already in progress.");
+        System.out.print("Download number to limit or prioritise (or press Enter to skip): ");
+        String input = scanner.nextLine().trim();
+        if (!input.isEmpty()) {
+            Integer id = parsePositive(input);
+            DownloadJob job = id != null ? manager.getJob(id) : null;
+            if (job == null) {
+                System.out.println("Invalid choice.");
+                return;
+            }
+            
+            System.out.print("Speed limit for #" + job.getId() + " in KB/s, 0 for unlimited (currently " + 
+                formatLimit(job.getSpeedLimit()) + "): ");
+            Integer limit = parseNonNegative(scanner.nextLine().trim());
+            if (limit != null) {
+                job.setSpeedLimit(limit * 1024L);
+            }
+            
+            System.out.print("Weight for #" + job.getId() + " when sharing the total limit (currently " + 
+                job.getWeight() + "): ");
+            Integer weight = parsePositive(scanner.nextLine().trim());
+            if (weight != null) {
+                job.setWeight(weight);
+            }
+        }
+        
+        System.out.println("Total speed limit: " + formatLimit(manager.getGlobalSpeedLimit()));
+    }
+    
+    private static String formatLimit(long bytesPerSecond) {
+        return bytesPerSecond > 0 ? Utils.formatBytes(bytesPerSecond) + "/s" : "unlimited";
+    }
+    
+    private static Integer parseNonNegative(String input) {
+        try {
+            int value = Integer.parseInt(input);
+            return value >= 0 ? value : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private static Integer parsePositive(String input) {
+        try {
+            int value = Integer.parseInt(input);
+            return value > 0 ? value : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private static void resumeInterruptedDownload() {
+        System.out.print("Enter directory to search (or press Enter for current directory): ");
+        String dir = scanner.nextLine().trim();
+        if (dir.isEmpty()) {
+            dir = System.getProperty("user.dir");
+        }
+        
+        List<DownloadJournal> interrupted = DownloadJournal.findInterrupted(new File(dir));
+        if (interrupted.isEmpty()) {
+            System.out.println("No interrupted downloads found in " + dir);
             return;
         }
         
-        if (currentDownloader.isCompleted()) {
-            System.out.println("Download is already completed.");
+        System.out.println("Interrupted downloads:");
+        for (int i = 0; i < interrupted.size(); i++) {
+            DownloadJournal journal = interrupted.get(i);
+            System.out.printf("%d. %s (%s of %s)%n", i + 1,
+                journal.getDestinationPath(),
+                Utils.formatBytes(journal.getCompletedBytes()),
+                Utils.formatBytes(journal.getTotalSize()));
+        }
+        System.out.print("Choose a download to resume: ");
+        
+        int choice = getChoice();
+        if (choice < 1 || choice > interrupted.size()) {
+            System.out.println("Invalid choice.");
             return;
         }
         
-        System.out.println("Resuming download...");
-        currentDownloader.resumeDownload();
+        DownloadJournal journal = interrupted.get(choice - 1);
+        DownloadJob job = manager.submit(journal.getUrl(), journal.getDestinationPath(), Downloader.AUTO_CONNECTIONS);
+        System.out.println("\nQueued download #" + job.getId() + ":");
+        System.out.println("URL: " + journal.getUrl());
+        System.out.println("Destination: " + journal.getDestinationPath());
+        System.out.println("----------------------------------------");
     }
     
     private static void showDownloadStatus() {
-        if (currentDownloader == null) {
+        List<DownloadJob> jobs = manager.getJobs();
+        if (jobs.isEmpty()) {
             System.out.println("No download initiated.");
             return;
         }
         
-        currentDownloader.printStatus();
+        System.out.println("Downloads (" + manager.getRunningCount() + " running, " + 
+            manager.getQueuedCount() + " queued):");
+        for (DownloadJob job : jobs) {
+            System.out.println(job);
+        }
+    }
+    
+    /**
+     * Non-interactive mode for scripts:
+     * {@code --batch <url list> [--dir <dir>] [--jobs <n>] [--threads <n|auto>] [--per-host <n>] [--limit <KB/s>]
+     * [--output <channel|mmap>] [--compression <off|auto|always>]}.
+     * Downloads every URL in the list, checking any checksum given after it, and exits with 1 if any failed.
+     */
+    private static int runBatch(String[] args) {
+        String listFile = null;
+        String destDir = System.getProperty("user.dir");
+        int jobs = DownloadManager.DEFAULT_MAX_CONCURRENT_JOBS;
+        int threads = Downloader.AUTO_CONNECTIONS;
+        int perHost = DownloadManager.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+        long limit = 0;
+        OutputMode output = OutputMode.getDefault();
+        CompressionMode compression = CompressionMode.getDefault();
+        String cacheDir = null;
+        String storeDir = null;
+        
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--batch":
+                        listFile = args[++i];
+                        break;
+                    case "--dir":
+                        destDir = args[++i];
+                        break;
+                    case "--jobs":
+                        jobs = Integer.parseInt(args[++i]);
+                        break;
+                    case "--threads":
+                        String value = args[++i];
+                        threads = value.equalsIgnoreCase("auto") ? Downloader.AUTO_CONNECTIONS : Integer.parseInt(value);
+                        break;
+                    case "--per-host":
+                        perHost = Integer.parseInt(args[++i]);
+                        break;
+                    case "--limit":
+                        limit = Long.parseLong(args[++i]) * 1024;
+                        break;
+                    case "--output":
+                        output = OutputMode.parse(args[++i]);
+                        if (output == null) {
+                            throw new IllegalArgumentException("Unknown output mode " + args[i]);
+                        }
+                        break;
+                    case "--compression":
+                        compression = CompressionMode.parse(args[++i]);
+                        if (compression == null) {
+                            throw new IllegalArgumentException("Unknown compression mode " + args[i]);
+                        }
+                        break;
+                    case "--cache":
+                        cacheDir = args[++i];
+                        break;
+                    case "--store":
+                        storeDir = args[++i];
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            listFile = null;
+        }
+        
+        if (listFile == null) {
+            System.err.println("Usage: java com.downloader.Main --batch <url list> [--dir <dir>] " +
+                "[--jobs <n>] [--threads <n|auto>] [--per-host <n>] [--limit <KB/s>] [--output <channel|mmap>] " +
+                "[--compression <off|auto|always>] [--cache <dir>] [--store <dir>]");
+            return 2;
+        }
+        
+        File destDirFile = new File(destDir);
+        if (!destDirFile.isDirectory() && !destDirFile.mkdirs()) {
+            System.err.println("Failed to create destination directory " + destDir);
+            return 2;
+        }
+        
+        manager.setMaxConcurrentJobs(jobs);
+        manager.setMaxConnectionsPerHost(perHost);
+        manager.setGlobalSpeedLimit(limit);
+        manager.setOutputMode(output);
+        CompressionMode.setDefault(compression);
+        if (cacheDir != null) {
+            try {
+                DownloadCache.setShared(DownloadCache.open(cacheDir));
+            } catch (IOException e) {
+                System.err.println("Could not open cache " + cacheDir + ": " + e.getMessage());
+                return 2;
+            }
+        }
+        if (storeDir != null) {
+            try {
+                ContentStore.setShared(ContentStore.open(storeDir));
+            } catch (IOException e) {
+                System.err.println("Could not open content store " + storeDir + ": " + e.getMessage());
+                return 2;
+            }
+        }
+        
+        int total;
+        try {
+            total = submitAll(readUrlList(listFile), destDir, threads);
+        } catch (IOException e) {
+            System.err.println("Could not read " + listFile + ": " + e.getMessage());
+            return 2;
+        }
+        System.out.println("Downloading " + total + " files, " + jobs + " at a time...");
+        
+        try {
+            while (!manager.awaitAll(5000)) {
+                System.out.println(manager.getRunningCount() + " running, " + 
+                    manager.getQueuedCount() + " queued");
+            }
+        } catch (InterruptedException e) {
+            manager.cancelAll();
+            return 1;
+        }
+        
+        int failed = 0;
+        for (DownloadJob job : manager.getJobs()) {
+            if (job.getState() != DownloadJob.State.COMPLETED) {
+                failed++;
+                System.err.println("Failed: " + job.getUrl() + 
+                    (job.getFailureReason() != null ? " (" + job.getFailureReason() + ")" : ""));
+            }
+        }
+        System.out.println("Finished: " + (manager.getJobs().size() - failed) + " completed, " + failed + " failed.");
+        pruneStore();
+        return failed == 0 ? 0 : 1;
+    }
+    
+    /**
+     * Drop stored files whose downloads have all been deleted since.
+     */
+    private static void pruneStore() {
+        ContentStore store = ContentStore.getShared();
+        if (store == null) {
+            return;
+        }
+        try {
+            int pruned = store.prune();
+            if (pruned > 0) {
+                System.out.println("Removed " + pruned + " files no download uses from the content store.");
+            }
+        } catch (IOException e) {
+            Utils.logError("Failed to prune the content store", e);
+        }
+    }
+    
+    /**
+     * Entries from a text file, one URL per line, optionally followed by its
+     * checksum. Blank lines and lines starting with # are skipped.
+     */
+    private static List<String> readUrlList(String listFile) throws IOException {
+        List<String> urls = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(listFile))) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                urls.add(line);
+            }
+        }
+        return urls;
+    }
+    
+    private static int submitAll(List<String> entries, String destDir, int numThreads) {
+        Set<DownloadJob> added = new HashSet<>();
+        for (String entry : entries) {
+            String[] fields = entry.split("\\s+");
+            String url = fields[0];
+            // Further URLs on the line are mirrors of the first
+            List<String> mirrors = new ArrayList<>();
+            mirrors.add(url);
+            int next = 1;
+            while (next < fields.length && fields[next].contains("://")) {
+                mirrors.add(fields[next++]);
+            }
+            Checksum checksum = null;
+            if (next < fields.length) {
+                try {
+                    checksum = Checksum.parse(fields[next]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Skipping " + url + ": " + e.getMessage());
+                    continue;
+                }
+            }
+            
+            String destinationPath = destDir + File.separator + Utils.extractFileName(url);
+            DownloadJob job = manager.submit(mirrors, destinationPath, numThreads, checksum);
+            if (!job.getUrl().equals(url) || !added.add(job)) {
+                System.out.println("Skipping " + url + ": " + destinationPath + 
+                    " is already used by download #" + job.getId());
+            }
+        }
+        return added.size();
     }
 }
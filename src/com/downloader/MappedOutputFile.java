@@ -0,0 +1,307 @@
+package com.downloader;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Output file written through memory-mapped windows of the preallocated
+ * file, see {@link OutputMode#MAPPED}. A window is mapped when a worker
+ * first writes into it. When more than the allowed number are mapped,
+ * the least recently used idle ones are forced and unmapped. Every
+ * {@link #force()}, which the downloader calls before each journal flush,
+ * also unmaps the windows nobody has written to since the last one. Resident
+ * mappings therefore stay bounded however large the file is.
+ *
+ * Configured with system properties:
+ * <ul>
+ *   <li>{@code downloader.mmap.window} - window size in MB, default 64</li>
+ *   <li>{@code downloader.mmap.maxWindows} - windows mapped at once, default 8</li>
+ * </ul>
+ */
+class MappedOutputFile extends OutputFile {
+    static final long DEFAULT_WINDOW_SIZE = 64L * 1024 * 1024;
+    static final int DEFAULT_MAX_WINDOWS = 8;
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            // The only way to unmap before the buffer is garbage collected
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Utils.logWarn("Mapped windows cannot be unmapped explicitly: " + e);
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final long windowSize;
+    private final int maxWindows;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Indexed by window number, null where nothing is mapped; guarded by the lock
+    private Window[] windows = new Window[0];
+    private int mapped;
+    private volatile long size = -1;
+    private long clock;
+    private long lastForce;
+
+    MappedOutputFile(String destinationPath) {
+        this(destinationPath,
+            Long.getLong("downloader.mmap.window", DEFAULT_WINDOW_SIZE >> 20) << 20,
+            Integer.getInteger("downloader.mmap.maxWindows", DEFAULT_MAX_WINDOWS));
+    }
+
+    MappedOutputFile(String destinationPath, long windowSize, int maxWindows) {
+        super(destinationPath);
+        this.windowSize = Math.max(1 << 20, Math.min(windowSize, Integer.MAX_VALUE));
+        this.maxWindows = Math.max(1, maxWindows);
+    }
+
+    @Override
+    void open(long size, boolean resume) throws IOException {
+        if (size <= 0) {
+            throw new IOException("A mapped output file needs a known size");
+        }
+        super.open(size, resume);
+        lock.lock();
+        try {
+            if (windows.length == 0) {
+                windows = new Window[(int) ((size + windowSize - 1) / windowSize)];
+            }
+        } finally {
+            lock.unlock();
+        }
+        this.size = size;
+    }
+
+    /**
+     * Copy the buffer's remaining bytes into the mapped windows they fall
+     * in. Safe to call concurrently for ranges that do not overlap.
+     */
+    @Override
+    void write(ByteBuffer data, long position) throws IOException {
+        if (position + data.remaining() > size) {
+            throw new IOException("Write past the end of the mapped file at byte " + position);
+        }
+        int offset = data.position();
+        int remaining = data.remaining();
+        while (remaining > 0) {
+            Window window = acquire((int) (position / windowSize));
+            try {
+                int at = (int) (position - window.start);
+                int length = Math.min(remaining, window.buffer.capacity() - at);
+                window.buffer.put(at, data, offset, length);
+                position += length;
+                offset += length;
+                remaining -= length;
+            } finally {
+                release(window);
+            }
+        }
+    }
+
+    /**
+     * Force every mapped window to disk, then unmap those not written to
+     * since the previous call.
+     */
+    @Override
+    void force() throws IOException {
+        List<Window> active = new ArrayList<>();
+        List<Window> idle = new ArrayList<>();
+        lock.lock();
+        try {
+            for (int i = 0; i < windows.length; i++) {
+                Window window = windows[i];
+                if (window == null) {
+                    continue;
+                }
+                if (window.users == 0 && window.lastUsed <= lastForce) {
+                    windows[i] = null;
+                    mapped--;
+                    idle.add(window);
+                } else {
+                    // Held so it is not unmapped by an eviction while being forced
+                    window.users++;
+                    active.add(window);
+                }
+            }
+            lastForce = clock;
+        } finally {
+            lock.unlock();
+        }
+
+        for (Window window : idle) {
+            window.buffer.force();
+            unmap(window);
+        }
+        for (Window window : active) {
+            try {
+                window.buffer.force();
+            } finally {
+                release(window);
+            }
+        }
+        super.force();
+    }
+
+    @Override
+    void commit() throws IOException {
+        for (Window window : takeAll()) {
+            window.buffer.force();
+            unmap(window);
+        }
+        super.commit();
+    }
+
+    /**
+     * Force and unmap everything, e.g. when paused, and close the file.
+     */
+    @Override
+    void close() {
+        for (Window window : takeAll()) {
+            try {
+                window.buffer.force();
+            } catch (RuntimeException e) {
+                Utils.logError("Failed to force mapped window at byte " + window.start, e);
+            }
+            unmap(window);
+        }
+        super.close();
+    }
+
+    @Override
+    void delete() {
+        // The data is thrown away, no point writing it out first
+        for (Window window : takeAll()) {
+            unmap(window);
+        }
+        super.delete();
+    }
+
+    private Window acquire(int index) throws IOException {
+        List<Window> evicted = null;
+        Window window;
+        lock.lock();
+        try {
+            window = windows[index];
+            if (window == null) {
+                long start = index * windowSize;
+                int length = (int) Math.min(windowSize, size - start);
+                FileChannel channel = getChannel();
+                if (channel == null) {
+                    throw new IOException("Output file is closed");
+                }
+                window = new Window(start, channel.map(FileChannel.MapMode.READ_WRITE, start, length));
+                windows[index] = window;
+                mapped++;
+            }
+            window.users++;
+            window.lastUsed = ++clock;
+            if (mapped > maxWindows) {
+                // Only after taking this window, so it cannot be the one evicted
+                evicted = evictOverflow();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (evicted != null) {
+            // Writing back is slow, so it happens outside the lock
+            for (Window old : evicted) {
+                old.buffer.force();
+                unmap(old);
+            }
+        }
+        return window;
+    }
+
+    private void release(Window window) {
+        lock.lock();
+        try {
+            window.users--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private List<Window> evictOverflow() {
+        List<Window> evicted = new ArrayList<>();
+        while (mapped > maxWindows) {
+            int oldest = -1;
+            for (int i = 0; i < windows.length; i++) {
+                Window window = windows[i];
+                if (window != null && window.users == 0 && (oldest < 0 || window.lastUsed < windows[oldest].lastUsed)) {
+                    oldest = i;
+                }
+            }
+            if (oldest < 0) {
+                // Every window is being written to; more workers than windows
+                break;
+            }
+            evicted.add(windows[oldest]);
+            windows[oldest] = null;
+            mapped--;
+        }
+        return evicted;
+    }
+
+    /**
+     * Forget every window and return those that can be unmapped. One still
+     * being written to is left for the garbage collector to unmap.
+     */
+    private List<Window> takeAll() {
+        lock.lock();
+        try {
+            List<Window> idle = new ArrayList<>();
+            for (Window window : windows) {
+                if (window != null && window.users == 0) {
+                    idle.add(window);
+                }
+            }
+            windows = new Window[windows.length];
+            mapped = 0;
+            return idle;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void unmap(Window window) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, window.buffer);
+        } catch (ReflectiveOperationException e) {
+            Utils.logError("Failed to unmap window at byte " + window.start, e);
+        }
+    }
+
+    private static class Window {
+        final long start;
+        final MappedByteBuffer buffer;
+        // Guarded by the lock
+        int users;
+        long lastUsed;
+
+        Window(long start, MappedByteBuffer buffer) {
+            this.start = start;
+            this.buffer = buffer;
+        }
+    }
+}
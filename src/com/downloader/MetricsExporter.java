@@ -0,0 +1,109 @@
+package com.downloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Makes the {@link MetricsRegistry} visible outside the process: as the
+ * JMX bean {@code com.downloader:type=Metrics}, and optionally over HTTP
+ * in the Prometheus text format at {@code http://127.0.0.1:<port>/metrics}.
+ * Configured with system properties:
+ * <ul>
+ *   <li>{@code downloader.metrics.jmx} - register the JMX bean, default true</li>
+ *   <li>{@code downloader.metrics.port} - serve /metrics on this local port, off by default</li>
+ * </ul>
+ */
+public class MetricsExporter {
+    public static final String OBJECT_NAME = "com.downloader:type=Metrics";
+
+    private static HttpServer server;
+
+    private MetricsExporter() {
+    }
+
+    /**
+     * Export the metrics as configured. Safe to call more than once.
+     */
+    public static synchronized void install() {
+        if (Boolean.parseBoolean(System.getProperty("downloader.metrics.jmx", "true"))) {
+            registerMBean();
+        }
+        Integer port = Integer.getInteger("downloader.metrics.port");
+        if (port != null && server == null) {
+            try {
+                startServer(port);
+            } catch (IOException e) {
+                System.err.println("Could not serve metrics on port " + port + ": " + e.getMessage());
+                Utils.logError("Metrics endpoint failed to start", e);
+            }
+        }
+    }
+
+    private static void registerMBean() {
+        try {
+            MBeanServer beans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!beans.isRegistered(name)) {
+                beans.registerMBean(new MetricsMBean(MetricsRegistry.get()), name);
+            }
+        } catch (JMException e) {
+            Utils.logError("Could not register the metrics MBean", e);
+        }
+    }
+
+    /**
+     * Serve /metrics on the loopback interface only; the port may be 0
+     * to pick a free one.
+     * @return the port in use
+     */
+    public static synchronized int startServer(int port) throws IOException {
+        if (server != null) {
+            return server.getAddress().getPort();
+        }
+        HttpServer created = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        created.createContext("/metrics", MetricsExporter::handle);
+        created.start();
+        server = created;
+        Utils.logInfo("Serving metrics on http://127.0.0.1:" + created.getAddress().getPort() + "/metrics");
+        return created.getAddress().getPort();
+    }
+
+    public static synchronized void stopServer() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            StringBuilder text = new StringBuilder(8192);
+            MetricsRegistry.get().writePrometheus(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
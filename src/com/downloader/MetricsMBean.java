@@ -0,0 +1,76 @@
+package com.downloader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Shows every metric of a {@link MetricsRegistry} as a read-only JMX
+ * attribute named like the Prometheus sample, e.g.
+ * {@code downloader_bytes_total} or
+ * {@code downloader_download_bytes_per_second{download="/tmp/file.iso"}}.
+ * The attribute list follows the downloads that come and go.
+ */
+class MetricsMBean implements DynamicMBean {
+    private final MetricsRegistry registry;
+
+    MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = registry.getValues().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = registry.getValues();
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            Number value = values.get(name);
+            if (value != null) {
+                list.add(new Attribute(name, value));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Map.Entry<String, Number> entry : registry.getValues().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                entry.getKey(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Downloader metrics",
+            attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,299 @@
+package com.downloader;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, gauges and latency histograms for the whole process, read by
+ * the JMX bean and the Prometheus endpoint of {@link MetricsExporter}.
+ *
+ * Metrics are created once and then updated by the download threads.
+ * Updating a counter or recording a latency never allocates and never
+ * takes a lock; the work of formatting happens when the metrics are read.
+ * A metric may carry labels, e.g. {@code download="/tmp/file.iso"}, to
+ * tell the downloads apart.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    // Sorted by name, so every metric of a family is listed together
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    public static MetricsRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the counter with this name, created on first use
+     */
+    public Counter counter(String name, String help) {
+        return (Counter) metrics.computeIfAbsent(name, key -> new Counter(name, "", help));
+    }
+
+    /**
+     * @return the histogram with this name, created on first use
+     */
+    public Histogram histogram(String name, String help) {
+        return (Histogram) metrics.computeIfAbsent(name, key -> new Histogram(name, "", help));
+    }
+
+    /**
+     * Publish a value that is read when the metrics are collected.
+     * Replaces a gauge registered earlier under the same name and labels.
+     */
+    public void gauge(String name, String labels, String help, LongSupplier value) {
+        metrics.put(key(name, labels), new Gauge(name, labels, help, value));
+    }
+
+    /**
+     * Drop every metric with these labels, e.g. once a download is over.
+     */
+    public void removeLabelled(String labels) {
+        metrics.values().removeIf(metric -> metric.labels.equals(labels));
+    }
+
+    /**
+     * Build a label set such as {@code download="/tmp/file.iso"}.
+     */
+    public static String label(String name, String value) {
+        StringBuilder label = new StringBuilder(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                label.append('\\').append(c);
+            } else if (c == '\n') {
+                label.append("\\n");
+            } else {
+                label.append(c);
+            }
+        }
+        return label.append('"').toString();
+    }
+
+    /**
+     * Current values keyed by name and labels. A histogram contributes its
+     * count, sum and a few percentiles.
+     */
+    public Map<String, Number> getValues() {
+        Map<String, Number> values = new ConcurrentSkipListMap<>();
+        for (Metric metric : metrics.values()) {
+            metric.values(values);
+        }
+        return values;
+    }
+
+    /**
+     * Write every metric in the Prometheus text exposition format.
+     */
+    public void writePrometheus(StringBuilder out) {
+        String family = null;
+        for (Metric metric : metrics.values()) {
+            if (!metric.name.equals(family)) {
+                family = metric.name;
+                out.append("# HELP ").append(family).append(' ').append(metric.help).append('\n');
+                out.append("# TYPE ").append(family).append(' ').append(metric.type()).append('\n');
+            }
+            metric.writePrometheus(out);
+        }
+    }
+
+    private static String key(String name, String labels) {
+        return labels.isEmpty() ? name : name + "{" + labels + "}";
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    abstract static class Metric {
+        final String name;
+        final String labels;
+        final String help;
+
+        Metric(String name, String labels, String help) {
+            this.name = name;
+            this.labels = labels;
+            this.help = help;
+        }
+
+        String key() {
+            return MetricsRegistry.key(name, labels);
+        }
+
+        abstract String type();
+
+        abstract void values(Map<String, Number> values);
+
+        abstract void writePrometheus(StringBuilder out);
+    }
+
+    /**
+     * A count that only goes up.
+     */
+    public static final class Counter extends Metric {
+        private final LongAdder count = new LongAdder();
+
+        Counter(String name, String labels, String help) {
+            super(name, labels, help);
+        }
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+
+        @Override
+        void values(Map<String, Number> values) {
+            values.put(key(), get());
+        }
+
+        @Override
+        void writePrometheus(StringBuilder out) {
+            sample(out, name, labels, Long.toString(get()));
+        }
+    }
+
+    private static final class Gauge extends Metric {
+        private final LongSupplier value;
+
+        Gauge(String name, String labels, String help, LongSupplier value) {
+            super(name, labels, help);
+            this.value = value;
+        }
+
+        @Override
+        String type() {
+            return "gauge";
+        }
+
+        @Override
+        void values(Map<String, Number> values) {
+            values.put(key(), value.getAsLong());
+        }
+
+        @Override
+        void writePrometheus(StringBuilder out) {
+            sample(out, name, labels, Long.toString(value.getAsLong()));
+        }
+    }
+
+    /**
+     * Latency distribution with power-of-two buckets from 1 microsecond
+     * to a little over two minutes. Percentiles are the upper bound of the
+     * bucket they fall in, so they are within a factor of two.
+     */
+    public static final class Histogram extends Metric {
+        // Bucket i holds values up to 2^i microseconds; the last one everything longer
+        static final int BUCKETS = 28;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS + 1);
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram(String name, String labels, String help) {
+            super(name, labels, help);
+        }
+
+        /**
+         * Record a duration measured with {@link System#nanoTime()}.
+         */
+        public void record(long nanos) {
+            long micros = Math.max(1, nanos / 1000);
+            int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+            buckets.incrementAndGet(Math.min(bucket, BUCKETS));
+            sumNanos.add(Math.max(0, nanos));
+        }
+
+        /**
+         * Record the time since a {@link System#nanoTime()} reading.
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i <= BUCKETS; i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        public double getSumSeconds() {
+            return sumNanos.sum() / 1e9;
+        }
+
+        /**
+         * @param quantile between 0 and 1, e.g. 0.99
+         * @return the bucket bound below which that share of values fell,
+         *         in microseconds, or 0 when nothing was recorded
+         */
+        public long getPercentileMicros(double quantile) {
+            long[] counts = new long[BUCKETS + 1];
+            long total = 0;
+            for (int i = 0; i <= BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        String type() {
+            return "histogram";
+        }
+
+        @Override
+        void values(Map<String, Number> values) {
+            values.put(key() + ".count", getCount());
+            values.put(key() + ".sumSeconds", getSumSeconds());
+            values.put(key() + ".p50Micros", getPercentileMicros(0.5));
+            values.put(key() + ".p99Micros", getPercentileMicros(0.99));
+        }
+
+        @Override
+        void writePrometheus(StringBuilder out) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += buckets.get(i);
+                String bound = String.format(Locale.ROOT, "%.6f", (1L << i) / 1e6);
+                sample(out, name + "_bucket", prefix + "le=\"" + bound + "\"", Long.toString(cumulative));
+            }
+            cumulative += buckets.get(BUCKETS);
+            sample(out, name + "_bucket", prefix + "le=\"+Inf\"", Long.toString(cumulative));
+            sample(out, name + "_sum", labels, String.format(Locale.ROOT, "%.9f", getSumSeconds()));
+            sample(out, name + "_count", labels, Long.toString(cumulative));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.downloader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The sources of one download: the same file published under several
+ * URLs. Every range request goes to the mirror with the most spare speed,
+ * so connections spread in proportion to how fast each mirror serves a
+ * single connection. A mirror that keeps failing, or serves far slower
+ * than the best one, is dropped and the others take over its ranges. The
+ * last mirror left is never dropped.
+ */
+class MirrorSet {
+    /** Failures in a row that get a mirror dropped */
+    static final int MAX_FAILURES = 3;
+    /** Mirrors slower per connection than this share of the fastest are dropped */
+    static final double SLOW_FACTOR = 0.25;
+    /** Speed is sampled once per this many bytes read from a mirror */
+    static final long SAMPLE_BYTES = 256 * 1024;
+    /** A mirror's speed is only judged after it has served this much */
+    static final long MIN_JUDGED_BYTES = 2 * 1024 * 1024;
+
+    private final List<Mirror> mirrors = new ArrayList<>();
+
+    MirrorSet(List<String> urls) {
+        for (String url : urls) {
+            mirrors.add(new Mirror(url));
+        }
+    }
+
+    List<Mirror> getMirrors() {
+        return Collections.unmodifiableList(mirrors);
+    }
+
+    synchronized int getLiveCount() {
+        int live = 0;
+        for (Mirror mirror : mirrors) {
+            if (!mirror.dropped) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Pick the mirror for the next request and count it as busy until
+     * {@link #release}. A mirror not measured yet is assumed to be as fast
+     * as the best one, so each gets a chance.
+     */
+    synchronized Mirror acquire() {
+        double best = bestSpeed();
+        Mirror chosen = null;
+        double lowest = Double.MAX_VALUE;
+        for (Mirror mirror : mirrors) {
+            if (mirror.dropped) {
+                continue;
+            }
+            double speed = mirror.isJudged() ? mirror.speed : Math.max(best, 1);
+            double load = (mirror.active + 1) / Math.max(speed, 1);
+            if (load < lowest) {
+                lowest = load;
+                chosen = mirror;
+            }
+        }
+        if (chosen == null) {
+            // Only reachable if every mirror was dropped during the probe
+            chosen = mirrors.get(0);
+        }
+        chosen.active++;
+        return chosen;
+    }
+
+    /**
+     * Count a request already sent to this mirror as busy until
+     * {@link #release}, e.g. the probe's response a worker carries on.
+     */
+    synchronized void acquire(Mirror mirror) {
+        mirror.active++;
+    }
+
+    /**
+     * The request is over.
+     * @param failed whether it ended with an error
+     */
+    synchronized void release(Mirror mirror, boolean failed) {
+        mirror.active--;
+        if (!failed) {
+            mirror.failures = 0;
+        } else if (++mirror.failures >= MAX_FAILURES) {
+            drop(mirror, mirror.failures + " failures in a row");
+        }
+    }
+
+    /**
+     * Record bytes one connection read from the mirror and drop mirrors that
+     * have fallen far behind the fastest.
+     */
+    synchronized void recordTransfer(Mirror mirror, long bytes, long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        double sample = bytes * 1e9 / nanos;
+        mirror.speed = mirror.bytes == 0 ? sample : mirror.speed * 0.7 + sample * 0.3;
+        mirror.bytes += bytes;
+
+        double best = bestSpeed();
+        // Indexed loops: this runs from the read loop, which should not allocate
+        for (int i = 0; i < mirrors.size(); i++) {
+            Mirror other = mirrors.get(i);
+            if (!other.dropped && other.isJudged() && other.speed < best * SLOW_FACTOR) {
+                drop(other, String.format("%s/s per connection against %s/s",
+                    Utils.formatBytes((long) other.speed), Utils.formatBytes((long) best)));
+            }
+        }
+    }
+
+    /**
+     * Stop using a mirror. Requests in progress on it stop after their
+     * current read.
+     * @return false if it is the last mirror left, which is kept
+     */
+    synchronized boolean drop(Mirror mirror, String reason) {
+        if (mirror.dropped) {
+            return true;
+        }
+        if (getLiveCount() <= 1) {
+            return false;
+        }
+        mirror.dropped = true;
+        Utils.logWarn("Dropped mirror " + mirror.url + ": " + reason);
+        return true;
+    }
+
+    private double bestSpeed() {
+        double best = 0;
+        for (int i = 0; i < mirrors.size(); i++) {
+            Mirror mirror = mirrors.get(i);
+            if (!mirror.dropped && mirror.isJudged()) {
+                best = Math.max(best, mirror.speed);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * One URL of the file.
+     */
+    static class Mirror {
+        private final String url;
+        private final String host;
+        private volatile String validator;
+        private volatile boolean dropped;
+
+        // Guarded by the MirrorSet
+        private int active;
+        private int failures;
+        private double speed;
+        private long bytes;
+
+        Mirror(String url) {
+            this.url = url;
+            this.host = HostLimiter.keyFor(url);
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        String getHost() {
+            return host;
+        }
+
+        /**
+         * @return the mirror's own ETag or Last-Modified for If-Range, or null
+         */
+        String getValidator() {
+            return validator;
+        }
+
+        void setValidator(String validator) {
+            this.validator = validator;
+        }
+
+        boolean isDropped() {
+            return dropped;
+        }
+
+        private boolean isJudged() {
+            return bytes >= MIN_JUDGED_BYTES;
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.downloader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single preallocated output file shared by all download workers.
+ * Workers write their ranges directly at the right offset, so there is
+ * no per-part file and no merge step. Data goes to a temporary file that
+ * is renamed to the destination once the download is complete.
+ */
+class OutputFile {
+    static final String TEMP_SUFFIX = ".download";
+
+    private final Path destination;
+    private final Path tempFile;
+    // Guards opening, committing and closing, see ExecutionMode
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile FileChannel channel;
+
+    OutputFile(String destinationPath) {
+        this.destination = Paths.get(destinationPath);
+        this.tempFile = Paths.get(destinationPath + TEMP_SUFFIX);
+    }
+
+    /**
+     * Open the temporary file, preallocating it to the given size.
+     * The file is extended by writing its last byte, which leaves a sparse
+     * file on filesystems that support it. A size of -1 means unknown.
+     * @param resume keep what an earlier run wrote; otherwise a leftover
+     *        file is emptied first
+     */
+    void open(long size, boolean resume) throws IOException {
+        lock.lock();
+        try {
+            if (channel != null && channel.isOpen()) {
+                return;
+            }
+
+            channel = resume
+                ? FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+
+            if (size > 0) {
+                long current = channel.size();
+                if (current > size) {
+                    channel.truncate(size);
+                } else if (current < size) {
+                    channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Positional write of the buffer's remaining bytes, safe to call
+     * concurrently from several workers as long as their ranges do not
+     * overlap. The buffer's position is left unchanged.
+     */
+    void write(ByteBuffer data, long position) throws IOException {
+        int start = data.position();
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+        data.position(start);
+    }
+
+    /**
+     * Positional read of data already written, e.g. to hash it.
+     * @return bytes read, or -1 past the end of the file
+     */
+    int read(ByteBuffer buffer, long position) throws IOException {
+        return channel.read(buffer, position);
+    }
+
+    /**
+     * @return the open file, or null before {@link #open}
+     */
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Force written data to disk.
+     */
+    void force() throws IOException {
+        FileChannel current = channel;
+        if (current != null && current.isOpen()) {
+            current.force(false);
+        }
+    }
+
+    /**
+     * Flush, close and move the temporary file to its final name.
+     */
+    void commit() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+            }
+
+            try {
+                Files.move(tempFile, destination,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, destination, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            Utils.logError("Failed to close output file " + tempFile, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close and remove the temporary file, discarding downloaded data.
+     */
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+            Utils.logError("Failed to delete " + tempFile, e);
+        }
+    }
+
+    String getTempPath() {
+        return tempFile.toString();
+    }
+}
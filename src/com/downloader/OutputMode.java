@@ -0,0 +1,52 @@
+package com.downloader;
+
+/**
+ * How workers write into the output file.
+ *
+ * CHANNEL makes a positional FileChannel write for every buffer read.
+ * MAPPED maps the preallocated file in windows and copies the data into
+ * them, which saves a system call per buffer for very large files on
+ * fast local disks. Only a few windows stay mapped at a time, and they
+ * are forced to disk and unmapped as the download moves on. Downloads of
+ * unknown size always use CHANNEL.
+ *
+ * The default is picked with the downloader.output system property
+ * ("channel" or "mmap") or {@link #setDefault}.
+ */
+public enum OutputMode {
+    CHANNEL,
+    MAPPED;
+
+    private static volatile OutputMode defaultMode = fromSystemProperty();
+
+    public static OutputMode getDefault() {
+        return defaultMode;
+    }
+
+    public static void setDefault(OutputMode mode) {
+        defaultMode = mode;
+    }
+
+    /**
+     * @return the mode named "channel", "mmap" or "mapped", or null
+     */
+    public static OutputMode parse(String name) {
+        if ("channel".equalsIgnoreCase(name)) {
+            return CHANNEL;
+        }
+        if ("mmap".equalsIgnoreCase(name) || "mapped".equalsIgnoreCase(name)) {
+            return MAPPED;
+        }
+        return null;
+    }
+
+    private static OutputMode fromSystemProperty() {
+        String name = System.getProperty("downloader.output", "channel");
+        OutputMode mode = parse(name);
+        if (mode == null) {
+            System.out.println("Unknown output mode " + name + ". Using channel writes.");
+            return CHANNEL;
+        }
+        return mode;
+    }
+}
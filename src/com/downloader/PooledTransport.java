@@ -0,0 +1,410 @@
+package com.downloader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * HTTP/1.1 backend that borrows keep-alive connections from a
+ * {@link ConnectionPool} instead of opening one per request. It connects
+ * to servers directly and does not go through proxies.
+ */
+public class PooledTransport implements Transport {
+    private static final int MAX_REDIRECTS = 5;
+    // Not sent on to another server after a redirect
+    private static final String[] CREDENTIAL_HEADERS = {"Authorization", "Proxy-Authorization", "Cookie"};
+    // Leftover bodies up to this size are read out so the connection can be reused
+    private static final long MAX_DRAIN = 64 * 1024;
+
+    private final ConnectionPool pool;
+
+    public PooledTransport() {
+        this(ConnectionPool.getShared());
+    }
+
+    public PooledTransport(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    @Override
+    public TransportResponse send(TransportRequest request) throws IOException {
+        URI uri = toUri(request.getUrl());
+        Map<String, String> headers = request.getHeaders();
+
+        for (int redirects = 0; ; redirects++) {
+            Response response = sendOnce(request, headers, uri);
+            int status = response.getStatusCode();
+            String location = response.getHeader("Location");
+            if (status < 300 || status > 308 || status == 304 || location == null || redirects >= MAX_REDIRECTS) {
+                return response;
+            }
+            response.close();
+            URI next = uri.resolve(toUri(location));
+            if (!sameOrigin(uri, next)) {
+                headers = withoutCredentials(headers);
+            }
+            uri = next;
+        }
+    }
+
+    private static boolean sameOrigin(URI a, URI b) {
+        return a.getScheme().equalsIgnoreCase(b.getScheme()) && a.getHost().equalsIgnoreCase(b.getHost()) &&
+            port(a) == port(b);
+    }
+
+    private static int port(URI uri) {
+        return uri.getPort() != -1 ? uri.getPort() : ("https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80);
+    }
+
+    private static Map<String, String> withoutCredentials(Map<String, String> headers) {
+        Map<String, String> kept = new LinkedHashMap<>(headers);
+        kept.keySet().removeIf(name -> {
+            for (String credential : CREDENTIAL_HEADERS) {
+                if (credential.equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+        return kept;
+    }
+
+    /**
+     * Whether a response body is framed by chunked encoding: it has to be
+     * the last transfer coding, e.g. "gzip, chunked".
+     */
+    static boolean isChunked(String transferEncoding) {
+        if (transferEncoding == null) {
+            return false;
+        }
+        String[] codings = transferEncoding.split(",");
+        return codings[codings.length - 1].trim().equalsIgnoreCase("chunked");
+    }
+
+    private Response sendOnce(TransportRequest request, Map<String, String> headers, URI uri) throws IOException {
+        String scheme = uri.getScheme();
+        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+            throw new IOException("Unsupported protocol: " + scheme);
+        }
+        int port = port(uri);
+        String target = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            target += "?" + uri.getRawQuery();
+        }
+
+        HttpConnection connection = pool.borrow(scheme.toLowerCase(), uri.getHost(), port,
+            request.getConnectTimeout(), request.getReadTimeout());
+        try {
+            HttpConnection.Response head = connection.execute(request.getMethod(), target, headers);
+            return new Response(connection, head, "HEAD".equals(request.getMethod()));
+        } catch (IOException | RuntimeException e) {
+            pool.release(connection, false);
+            throw e;
+        }
+    }
+
+    private static URI toUri(String url) throws IOException {
+        try {
+            return new URI(url);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "pooled";
+    }
+
+    private class Response implements TransportResponse {
+        private final HttpConnection connection;
+        private final HttpConnection.Response head;
+        private final Body body;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Response(HttpConnection connection, HttpConnection.Response head, boolean headRequest) {
+            this.connection = connection;
+            this.head = head;
+
+            long length = getContentLength();
+            boolean empty = headRequest || head.statusCode == 204 || head.statusCode == 304 ||
+                (head.statusCode >= 100 && head.statusCode < 200);
+            if (empty) {
+                this.body = new Body(connection, 0, false);
+            } else if (isChunked(head.headers.get("Transfer-Encoding"))) {
+                this.body = new Body(connection, -1, true);
+            } else if (head.headers.get("Transfer-Encoding") != null) {
+                // Any other transfer coding runs until the server closes
+                this.body = new Body(connection, -1, false);
+            } else {
+                // No length means the body runs until the server closes
+                this.body = new Body(connection, length, false);
+            }
+        }
+
+        @Override
+        public int getStatusCode() {
+            return head.statusCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return head.headers.get(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            String length = head.headers.get("Content-Length");
+            // A transfer coding overrides Content-Length
+            if (length == null || head.headers.get("Transfer-Encoding") != null) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(length);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * Reads go from the socket straight into the caller's buffer, except
+         * over TLS or with chunked framing where they go through the stream.
+         */
+        @Override
+        public ReadableByteChannel getBodyChannel() {
+            return connection.hasChannel() && !body.chunked ? body : Channels.newChannel(body);
+        }
+
+        @Override
+        public String getProtocol() {
+            return head.protocol;
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+
+            boolean reusable = head.isKeepAlive() && body.finish();
+            pool.release(connection, reusable);
+        }
+    }
+
+    /**
+     * Response body bounded by Content-Length or chunked framing, so the
+     * connection stays usable once the body has been read. Without chunked
+     * framing it can also be read as a channel.
+     */
+    private static class Body extends InputStream implements ReadableByteChannel {
+        private final HttpConnection connection;
+        private final InputStream in;
+        private final boolean chunked;
+        private long remaining;
+        private boolean eof;
+        private boolean failed;
+
+        Body(HttpConnection connection, long length, boolean chunked) {
+            this.connection = connection;
+            this.in = connection.getInputStream();
+            this.chunked = chunked;
+            this.remaining = length;
+            this.eof = length == 0 && !chunked;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (eof) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+
+            try {
+                if (chunked && remaining <= 0) {
+                    remaining = nextChunkSize();
+                    if (remaining == 0) {
+                        eof = true;
+                        return -1;
+                    }
+                }
+
+                int toRead = remaining < 0 ? length : (int) Math.min(length, remaining);
+                int n = in.read(buffer, offset, toRead);
+                if (n == -1) {
+                    if (remaining < 0 && !chunked) {
+                        // Read-until-close body; the connection is done
+                        eof = true;
+                        failed = true;
+                        return -1;
+                    }
+                    throw new EOFException("Connection closed before end of response");
+                }
+
+                if (remaining > 0) {
+                    remaining -= n;
+                    if (remaining == 0) {
+                        if (chunked) {
+                            expectCrlf();
+                        } else {
+                            eof = true;
+                        }
+                    }
+                }
+                return n;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        /**
+         * Channel read of a body that is not chunked, see {@link HttpConnection#read(ByteBuffer)}.
+         */
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            if (eof) {
+                return -1;
+            }
+            if (!buffer.hasRemaining()) {
+                return 0;
+            }
+
+            int limit = buffer.limit();
+            try {
+                if (remaining >= 0 && remaining < buffer.remaining()) {
+                    buffer.limit(buffer.position() + (int) remaining);
+                }
+                int n = connection.read(buffer);
+                if (n == -1) {
+                    if (remaining < 0) {
+                        eof = true;
+                        failed = true;
+                        return -1;
+                    }
+                    throw new EOFException("Connection closed before end of response");
+                }
+
+                if (remaining > 0) {
+                    remaining -= n;
+                    eof = remaining == 0;
+                }
+                return n;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            } finally {
+                buffer.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        private long nextChunkSize() throws IOException {
+            String line = readLine();
+            int extension = line.indexOf(';');
+            if (extension >= 0) {
+                line = line.substring(0, extension);
+            }
+            long size;
+            try {
+                size = Long.parseLong(line.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed chunk size: " + line);
+            }
+            if (size == 0) {
+                // Skip trailers
+                while (!readLine().isEmpty()) {
+                    // ignore
+                }
+            }
+            return size;
+        }
+
+        private void expectCrlf() throws IOException {
+            if (!readLine().isEmpty()) {
+                throw new IOException("Malformed chunk terminator");
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b == -1) {
+                    throw new EOFException("Connection closed inside chunked body");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        /**
+         * Read out a small leftover body so the connection can be reused.
+         * @return true if the body ended cleanly
+         */
+        boolean finish() {
+            if (failed) {
+                return false;
+            }
+            try {
+                connection.endChannelRead();
+            } catch (IOException e) {
+                return false;
+            }
+            if (eof) {
+                return true;
+            }
+            if (!chunked && (remaining < 0 || remaining > MAX_DRAIN)) {
+                return false;
+            }
+
+            byte[] skip = new byte[8192];
+            long drained = 0;
+            try {
+                int n;
+                while (drained <= MAX_DRAIN && (n = read(skip, 0, skip.length)) != -1) {
+                    drained += n;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            return eof;
+        }
+
+        @Override
+        public void close() {
+            // The owning response decides whether the connection is reused
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.downloader;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Progress of one download at a point in time. The total is the sum of
+ * the segments it contains plus whatever a resumed download already had
+ * on disk, so the figures always add up.
+ */
+public final class ProgressSnapshot {
+    private final long timestamp;
+    private final long fileSize;
+    private final long totalBytes;
+    private final long wireBytes;
+    private final List<SegmentProgress> segments;
+
+    ProgressSnapshot(long timestamp, long fileSize, long resumedBytes, long wireBytes,
+                     List<SegmentProgress> segments) {
+        long total = resumedBytes;
+        for (SegmentProgress segment : segments) {
+            total += segment.getBytes();
+        }
+        this.timestamp = timestamp;
+        this.fileSize = fileSize;
+        this.totalBytes = total;
+        this.wireBytes = wireBytes;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the file size, or -1 if unknown
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return bytes received from the network, which is less than the bytes
+     *         written when the transfer is compressed. What a resumed download
+     *         already had on disk is not counted.
+     */
+    public long getWireBytes() {
+        return wireBytes;
+    }
+
+    /**
+     * @return percent done, or -1 when the size is unknown
+     */
+    public double getPercentage() {
+        return fileSize > 0 ? (double) totalBytes / fileSize * 100 : -1;
+    }
+
+    public List<SegmentProgress> getSegments() {
+        return segments;
+    }
+
+    public int getActiveSegments() {
+        int active = 0;
+        for (SegmentProgress segment : segments) {
+            if (segment.getState() == SegmentProgress.State.ACTIVE) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * One byte range of the download.
+     */
+    public static final class SegmentProgress {
+        public enum State {
+            PENDING,
+            ACTIVE,
+            DONE
+        }
+
+        private final int id;
+        private final long start;
+        private final long end;
+        private final long position;
+        private final State state;
+
+        SegmentProgress(int id, long start, long end, long position, State state) {
+            this.id = id;
+            this.start = start;
+            this.end = end;
+            this.position = position;
+            this.state = state;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return the last byte of the range (inclusive), or -1 when the size is unknown
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        public long getBytes() {
+            return position - start;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + id + " " + state + " " + start + "-" + end + " at " + position;
+        }
+    }
+}
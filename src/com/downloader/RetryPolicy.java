@@ -0,0 +1,90 @@
+package com.downloader;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When a failed range request is tried again. Delays double with every
+ * failure in a row and are jittered, so connections that broke together
+ * don't reconnect in lockstep; a server's Retry-After takes precedence.
+ * A download has a budget of retries in total, after which it fails
+ * rather than retrying forever.
+ *
+ * Configured with system properties:
+ * <ul>
+ *   <li>{@code downloader.retry.budget} - retries per download, default 20</li>
+ *   <li>{@code downloader.retry.baseDelay} - first delay in ms, default 500</li>
+ *   <li>{@code downloader.retry.maxDelay} - longest backoff in ms, default 30000</li>
+ * </ul>
+ */
+public class RetryPolicy {
+    /** A Retry-After further out than this is cut short */
+    static final long MAX_RETRY_AFTER_MS = 10 * 60 * 1000;
+
+    private final int budget;
+    private final long baseDelay;
+    private final long maxDelay;
+
+    public RetryPolicy(int budget, long baseDelayMs, long maxDelayMs) {
+        this.budget = Math.max(0, budget);
+        this.baseDelay = Math.max(1, baseDelayMs);
+        this.maxDelay = Math.max(this.baseDelay, maxDelayMs);
+    }
+
+    public static RetryPolicy fromSystemProperties() {
+        return new RetryPolicy(
+            Integer.getInteger("downloader.retry.budget", 20),
+            Long.getLong("downloader.retry.baseDelay", 500),
+            Long.getLong("downloader.retry.maxDelay", 30000));
+    }
+
+    /**
+     * @return how many failed requests a download may retry
+     */
+    public int getBudget() {
+        return budget;
+    }
+
+    /**
+     * @param failures failed attempts in a row without receiving any data;
+     *                 0 retries straight away
+     * @param retryAfterMs the server's Retry-After in milliseconds, or -1
+     * @return milliseconds to wait before the next attempt
+     */
+    public long getDelay(int failures, long retryAfterMs) {
+        long backoff = 0;
+        if (failures > 0) {
+            long ceiling = Math.min(maxDelay, baseDelay << Math.min(failures - 1, 30));
+            // Half fixed, half random
+            backoff = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        }
+        if (retryAfterMs >= 0) {
+            return Math.min(Math.max(backoff, retryAfterMs), MAX_RETRY_AFTER_MS);
+        }
+        return backoff;
+    }
+
+    /**
+     * Read a Retry-After header, given either in seconds or as an HTTP date.
+     * @return milliseconds from now, or -1 if absent or unreadable
+     */
+    static long parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        String text = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(text)) * 1000;
+        } catch (NumberFormatException e) {
+            // Not seconds, try a date
+        }
+        try {
+            ZonedDateTime when = ZonedDateTime.parse(text, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, when.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
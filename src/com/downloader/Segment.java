@@ -0,0 +1,104 @@
+package com.downloader;
+
+/**
+ * A byte range of the file handled by one worker at a time.
+ * The end bound may shrink while the range is being downloaded, when
+ * another worker takes over part of it.
+ */
+class Segment {
+    private final int id;
+    private final long start;
+    private volatile long end;
+    private volatile long position;
+    // Changed under the SegmentScheduler lock, read without it for progress
+    private volatile Object owner;
+    private volatile boolean done;
+
+    Segment(int id, long start, long end) {
+        this.id = id;
+        this.start = start;
+        this.end = end;
+        this.position = start;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    /**
+     * Last byte of the range (inclusive), or -1 when the file size is unknown.
+     */
+    long getEnd() {
+        return end;
+    }
+
+    void setEnd(long end) {
+        this.end = end;
+    }
+
+    /**
+     * Next byte to be written. Only the owning worker advances it, so the
+     * position doubles as the range's byte counter.
+     */
+    long getPosition() {
+        return position;
+    }
+
+    void setPosition(long position) {
+        this.position = position;
+    }
+
+    boolean isBounded() {
+        return end >= 0;
+    }
+
+    long getRemaining() {
+        return isBounded() ? Math.max(0, end - position + 1) : -1;
+    }
+
+    boolean isAssigned() {
+        return owner != null;
+    }
+
+    Object getOwner() {
+        return owner;
+    }
+
+    void setOwner(Object owner) {
+        this.owner = owner;
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    void setDone(boolean done) {
+        this.done = done;
+    }
+
+    /**
+     * Read the range's progress without locking.
+     */
+    ProgressSnapshot.SegmentProgress toProgress() {
+        long end = this.end;
+        long position = this.position;
+        if (end >= 0) {
+            // A worker may have written a little past an end moved by a split;
+            // those bytes belong to the range that was split off
+            position = Math.min(position, end + 1);
+        }
+        ProgressSnapshot.SegmentProgress.State state = done ? ProgressSnapshot.SegmentProgress.State.DONE
+            : owner != null ? ProgressSnapshot.SegmentProgress.State.ACTIVE
+            : ProgressSnapshot.SegmentProgress.State.PENDING;
+        return new ProgressSnapshot.SegmentProgress(id, start, end, position, state);
+    }
+
+    @Override
+    public String toString() {
+        return "Segment " + id + " [" + start + "-" + end + "] at " + position;
+    }
+}
@@ -0,0 +1,213 @@
+package com.downloader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Hands out byte ranges to download workers.
+ * The file starts out split into a few ranges. When a worker runs out of
+ * work it takes the second half of the largest range still in progress,
+ * and the owner of that range stops early. This keeps every connection
+ * busy until the end instead of waiting for the slowest one.
+ */
+class SegmentScheduler {
+    static final long DEFAULT_MIN_SEGMENT_SIZE = 512 * 1024;
+
+    // Copy-on-write so progress can be read without taking the lock
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Deque<Segment> pending = new ArrayDeque<>();
+    private final long minSegmentSize;
+    private final long alignment;
+
+    /**
+     * @param minSegmentSize ranges are never split below this size
+     * @param alignment split points fall on multiples of this (the journal block size)
+     */
+    SegmentScheduler(long minSegmentSize, long alignment) {
+        this.alignment = Math.max(1, alignment);
+        this.minSegmentSize = roundUp(Math.max(1, minSegmentSize));
+    }
+
+    /**
+     * Start a download of the whole file split into a few ranges.
+     * @param fileSize total size in bytes, or -1 if unknown
+     * @param count number of ranges to start with
+     */
+    synchronized void splitEvenly(long fileSize, int count) {
+        if (fileSize <= 0) {
+            // Unknown size: one unbounded range, nothing to split
+            addRange(0, -1);
+            return;
+        }
+
+        int initial = (int) Math.max(1, Math.min(count, fileSize / minSegmentSize));
+        long chunkSize = roundUp(fileSize / initial);
+        for (long startByte = 0; startByte < fileSize; startByte += chunkSize) {
+            addRange(startByte, Math.min(startByte + chunkSize, fileSize) - 1);
+        }
+    }
+
+    /**
+     * Queue a range (inclusive bounds) to be downloaded.
+     */
+    synchronized void addRange(long start, long end) {
+        Segment segment = new Segment(segments.size(), start, end);
+        segments.add(segment);
+        pending.add(segment);
+    }
+
+    /**
+     * Get the next range to download, or null when there is nothing left
+     * that is worth splitting.
+     * @param owner the worker taking the range
+     */
+    synchronized Segment next(Object owner) {
+        Segment segment = pending.poll();
+        if (segment == null) {
+            segment = steal();
+        }
+        if (segment != null) {
+            segment.setOwner(owner);
+        }
+        return segment;
+    }
+
+    // Split the largest range still being downloaded
+    private Segment steal() {
+        Segment largest = null;
+        for (Segment segment : segments) {
+            if (segment.isAssigned() && !segment.isDone() && segment.isBounded() &&
+                (largest == null || segment.getRemaining() > largest.getRemaining())) {
+                largest = segment;
+            }
+        }
+
+        if (largest == null || largest.getRemaining() < 2 * minSegmentSize) {
+            return null;
+        }
+
+        // The owner may write one more buffer past the new end before it
+        // notices; the overlap is the same bytes at the same offsets.
+        long end = largest.getEnd();
+        long mid = roundUp(largest.getPosition() + largest.getRemaining() / 2);
+        if (mid > end) {
+            return null;
+        }
+        Segment stolen = new Segment(segments.size(), mid, end);
+        largest.setEnd(mid - 1);
+        segments.add(stolen);
+        return stolen;
+    }
+
+    /**
+     * For a worker reading the file in order: the first unfinished range
+     * that ends at or after the position. It is taken over unless another
+     * worker has it.
+     * @return null if everything from the position on is done, otherwise
+     *         the range; its owner tells whether it was taken
+     */
+    synchronized Segment claimFrom(long position, Object owner) {
+        Segment first = null;
+        for (Segment segment : segments) {
+            if (!segment.isDone() && (!segment.isBounded() || segment.getEnd() >= position) &&
+                (first == null || segment.getStart() < first.getStart())) {
+                first = segment;
+            }
+        }
+        if (first != null && first.getOwner() == null) {
+            pending.remove(first);
+            first.setOwner(owner);
+        }
+        return first;
+    }
+
+    /**
+     * Mark a range finished by its worker.
+     * @return false if the range still has bytes left to fetch
+     */
+    synchronized boolean finish(Segment segment, Object owner) {
+        if (segment.getOwner() != owner) {
+            // Handed to another worker after a pause and resume
+            return false;
+        }
+        segment.setOwner(null);
+        if (segment.isBounded() && segment.getPosition() <= segment.getEnd()) {
+            pending.addFirst(segment);
+            return false;
+        }
+        segment.setDone(true);
+        return true;
+    }
+
+    /**
+     * Give an unfinished range back so another worker can pick it up.
+     */
+    synchronized void release(Segment segment, Object owner) {
+        if (segment.getOwner() == owner) {
+            segment.setOwner(null);
+            pending.addFirst(segment);
+        }
+    }
+
+    /**
+     * Make every unfinished range available again, used when resuming.
+     */
+    synchronized void reset() {
+        pending.clear();
+        for (Segment segment : segments) {
+            segment.setOwner(null);
+            if (!segment.isDone()) {
+                pending.add(segment);
+            }
+        }
+    }
+
+    /**
+     * First byte at or after the given position that has not been written
+     * yet, or Long.MAX_VALUE if everything from there on is written.
+     */
+    synchronized long firstUnwritten(long from) {
+        long first = Long.MAX_VALUE;
+        for (Segment segment : segments) {
+            if (segment.isDone()) {
+                continue;
+            }
+            boolean pending = !segment.isBounded() || segment.getPosition() <= segment.getEnd();
+            if (pending && (!segment.isBounded() || segment.getEnd() >= from)) {
+                first = Math.min(first, Math.max(from, segment.getPosition()));
+            }
+        }
+        return first;
+    }
+
+    synchronized boolean isComplete() {
+        for (Segment segment : segments) {
+            if (!segment.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    List<Segment> getSegments() {
+        return new ArrayList<>(segments);
+    }
+
+    /**
+     * Progress of every range, read without locking.
+     */
+    List<ProgressSnapshot.SegmentProgress> snapshot() {
+        List<ProgressSnapshot.SegmentProgress> progress = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            progress.add(segment.toProgress());
+        }
+        return progress;
+    }
+
+    private long roundUp(long value) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+}
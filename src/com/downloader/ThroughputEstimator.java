@@ -0,0 +1,192 @@
+package com.downloader;
+
+import java.util.List;
+
+/**
+ * Download speed worked out from the progress snapshots taken once per
+ * progress interval.
+ *
+ * The current speed is an exponentially weighted moving average with a
+ * time constant of a few seconds, so it follows a stall or a recovery
+ * within seconds without jumping on every sample. The average speed only
+ * counts time spent downloading and bytes fetched since the download
+ * started, so pauses and data already on disk from a resume do not skew
+ * it. A ring of recent samples answers "how fast since time t" for the
+ * connection tuner, and each range gets its own moving average.
+ *
+ * Sampling does not allocate; the per-range arrays only grow when a range
+ * with a new id appears.
+ */
+public class ThroughputEstimator {
+    static final long TIME_CONSTANT_MS = 3000;
+    private static final int HISTORY = 64;
+
+    private final long[] sampleTimes = new long[HISTORY];
+    private final long[] sampleBytes = new long[HISTORY];
+    private int samples;
+    private int next;
+
+    private boolean hasBaseline;
+    private boolean hasSpeed;
+    private long lastTime;
+    private long lastBytes;
+    private double currentSpeed;
+    private long activeMillis;
+    private long sessionBytes;
+
+    // Indexed by segment id; -1 bytes means no baseline yet
+    private long[] segmentBytes = new long[0];
+    private double[] segmentSpeeds = new double[0];
+
+    /**
+     * Start measuring afresh from this point, e.g. after a pause. The time
+     * in between does not count towards the average.
+     */
+    public synchronized void restart(long now, long totalBytes) {
+        hasBaseline = true;
+        hasSpeed = false;
+        currentSpeed = 0;
+        lastTime = now;
+        lastBytes = totalBytes;
+        samples = 0;
+        next = 0;
+        record(now, totalBytes);
+        for (int id = 0; id < segmentBytes.length; id++) {
+            segmentBytes[id] = -1;
+            segmentSpeeds[id] = 0;
+        }
+    }
+
+    /**
+     * Feed a progress snapshot.
+     */
+    public synchronized void sample(ProgressSnapshot progress) {
+        long now = progress.getTimestamp();
+        long total = progress.getTotalBytes();
+        if (!hasBaseline) {
+            restart(now, total);
+            sampleSegments(progress.getSegments(), 0, 0);
+            return;
+        }
+
+        long elapsed = now - lastTime;
+        if (elapsed <= 0) {
+            return;
+        }
+
+        // Samples a long way apart carry more weight
+        double weight = 1 - Math.exp(-(double) elapsed / TIME_CONSTANT_MS);
+        long delta = Math.max(0, total - lastBytes);
+        double speed = delta * 1000.0 / elapsed;
+        currentSpeed = hasSpeed ? currentSpeed + weight * (speed - currentSpeed) : speed;
+        hasSpeed = true;
+
+        activeMillis += elapsed;
+        sessionBytes += delta;
+        lastTime = now;
+        lastBytes = total;
+        record(now, total);
+        sampleSegments(progress.getSegments(), elapsed, weight);
+    }
+
+    private void record(long now, long totalBytes) {
+        sampleTimes[next] = now;
+        sampleBytes[next] = totalBytes;
+        next = (next + 1) % HISTORY;
+        samples = Math.min(samples + 1, HISTORY);
+    }
+
+    private void sampleSegments(List<ProgressSnapshot.SegmentProgress> segments, long elapsed, double weight) {
+        // Indexed loop: no iterator on the sampling path
+        for (int i = 0; i < segments.size(); i++) {
+            ProgressSnapshot.SegmentProgress segment = segments.get(i);
+            int id = segment.getId();
+            if (id >= segmentBytes.length) {
+                grow(id + 1);
+            }
+
+            long bytes = segment.getBytes();
+            long previous = segmentBytes[id];
+            segmentBytes[id] = bytes;
+            if (segment.getState() == ProgressSnapshot.SegmentProgress.State.DONE) {
+                segmentSpeeds[id] = 0;
+            } else if (previous >= 0 && elapsed > 0) {
+                double speed = Math.max(0, bytes - previous) * 1000.0 / elapsed;
+                segmentSpeeds[id] += weight * (speed - segmentSpeeds[id]);
+            }
+        }
+    }
+
+    private void grow(int size) {
+        int capacity = Math.max(size, segmentBytes.length * 2);
+        long[] bytes = new long[capacity];
+        double[] speeds = new double[capacity];
+        System.arraycopy(segmentBytes, 0, bytes, 0, segmentBytes.length);
+        System.arraycopy(segmentSpeeds, 0, speeds, 0, segmentSpeeds.length);
+        for (int id = segmentBytes.length; id < capacity; id++) {
+            bytes[id] = -1;
+        }
+        segmentBytes = bytes;
+        segmentSpeeds = speeds;
+    }
+
+    /**
+     * @return the recent speed in bytes per second
+     */
+    public synchronized long getCurrentSpeed() {
+        return (long) currentSpeed;
+    }
+
+    /**
+     * @return bytes per second over the time spent downloading
+     */
+    public synchronized long getAverageSpeed() {
+        return activeMillis > 0 ? sessionBytes * 1000 / activeMillis : 0;
+    }
+
+    /**
+     * @return the recent speed of one range in bytes per second
+     */
+    public synchronized long getSegmentSpeed(int segmentId) {
+        return segmentId < segmentSpeeds.length ? (long) segmentSpeeds[segmentId] : 0;
+    }
+
+    /**
+     * Speed between the first sample taken at or after the given time and
+     * the latest one.
+     * @return bytes per second, or -1 if no samples cover that period
+     */
+    public synchronized double getSpeedSince(long since) {
+        if (samples < 2) {
+            return -1;
+        }
+        int latest = (next - 1 + HISTORY) % HISTORY;
+        int oldest = (next - samples + HISTORY) % HISTORY;
+        int from = -1;
+        for (int i = 0; i < samples; i++) {
+            int index = (oldest + i) % HISTORY;
+            if (sampleTimes[index] >= since) {
+                from = index;
+                break;
+            }
+        }
+        if (from < 0 || from == latest) {
+            return -1;
+        }
+        return (sampleBytes[latest] - sampleBytes[from]) * 1000.0 / (sampleTimes[latest] - sampleTimes[from]);
+    }
+
+    /**
+     * @return seconds until the remaining bytes are in at the current speed,
+     *         or -1 while the speed is unknown
+     */
+    public synchronized long getEta(long remainingBytes) {
+        if (remainingBytes <= 0) {
+            return 0;
+        }
+        if (currentSpeed < 1) {
+            return -1;
+        }
+        return (long) Math.ceil(remainingBytes / currentSpeed);
+    }
+}
@@ -0,0 +1,61 @@
+package com.downloader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Byte rate limit without locks. Instead of counting tokens the bucket
+ * keeps the time at which the bytes granted so far will have been paid
+ * for; a caller moves that time forward with one CAS and sleeps for
+ * however far it ends up ahead of the clock, less a short burst allowance.
+ */
+class TokenBucket {
+    // Up to this much unused time may be spent in a burst
+    static final long BURST_NANOS = 100_000_000L;
+
+    private final LongSupplier clock;
+    private final AtomicLong paidUntil;
+    private volatile long bytesPerSecond;
+
+    /**
+     * @param clock current time in nanoseconds, as System.nanoTime
+     */
+    TokenBucket(long bytesPerSecond, LongSupplier clock) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.clock = clock;
+        this.paidUntil = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Take the bytes from the bucket.
+     * @return how many nanoseconds the caller should wait before using them
+     */
+    long reserve(long bytes) {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return 0;
+        }
+
+        long cost = bytes * 1_000_000_000L / rate;
+        while (true) {
+            long now = clock.getAsLong();
+            long current = paidUntil.get();
+            // Idle time earns at most the burst allowance
+            long next = Math.max(current, now - BURST_NANOS) + cost;
+            if (paidUntil.compareAndSet(current, next)) {
+                return Math.max(0, next - now);
+            }
+        }
+    }
+
+    /**
+     * @return the rate in bytes per second, 0 when unlimited
+     */
+    long getRate() {
+        return bytesPerSecond;
+    }
+
+    void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+}
@@ -0,0 +1,35 @@
+package com.downloader;
+
+import java.io.IOException;
+
+/**
+ * HTTP backend used by the downloader for probes and range requests.
+ */
+public interface Transport {
+
+    /**
+     * Send a request and return once the response headers are available.
+     * The caller must close the response.
+     */
+    TransportResponse send(TransportRequest request) throws IOException;
+
+    /**
+     * Short name for logs and benchmark output.
+     */
+    String getName();
+
+    /**
+     * Create the backend selected by the downloader.transport system
+     * property: "httpclient" (default), "pooled" or "legacy".
+     */
+    static Transport fromSystemProperty() {
+        String name = System.getProperty("downloader.transport", "httpclient");
+        if ("legacy".equalsIgnoreCase(name)) {
+            return new UrlConnectionTransport();
+        }
+        if ("pooled".equalsIgnoreCase(name)) {
+            return new PooledTransport();
+        }
+        return HttpClientTransport.getShared();
+    }
+}
@@ -0,0 +1,67 @@
+package com.downloader;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A GET or HEAD request sent through a {@link Transport}.
+ */
+public class TransportRequest {
+    private final String method;
+    private final String url;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private int connectTimeout = 10000;
+    private int readTimeout = 30000;
+
+    public TransportRequest(String method, String url) {
+        this.method = method;
+        this.url = url;
+    }
+
+    public static TransportRequest get(String url) {
+        return new TransportRequest("GET", url);
+    }
+
+    public static TransportRequest head(String url) {
+        return new TransportRequest("HEAD", url);
+    }
+
+    public TransportRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * Request bytes from start to end inclusive; an end below zero means
+     * to the end of the file.
+     */
+    public TransportRequest range(long start, long end) {
+        return header("Range", "bytes=" + start + "-" + (end >= 0 ? end : ""));
+    }
+
+    public TransportRequest timeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+}
@@ -0,0 +1,70 @@
+package com.downloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Response to a {@link TransportRequest}. Closing it releases the
+ * underlying connection or stream.
+ */
+public interface TransportResponse extends Closeable {
+
+    int getStatusCode();
+
+    /**
+     * First value of a response header, or null if absent.
+     */
+    String getHeader(String name);
+
+    /**
+     * Value of Content-Length, or -1 if unknown.
+     */
+    long getContentLength();
+
+    /**
+     * First byte, last byte and total size from Content-Range, e.g.
+     * "bytes 0-99/1000", or null if it is absent or malformed. The total
+     * is -1 when the server does not know it ("bytes 0-99/*").
+     */
+    default long[] getContentRange() {
+        String value = getHeader("Content-Range");
+        if (value == null || !value.startsWith("bytes ")) {
+            return null;
+        }
+        int dash = value.indexOf('-');
+        int slash = value.indexOf('/');
+        if (dash < 0 || slash < dash) {
+            return null;
+        }
+        try {
+            long first = Long.parseLong(value.substring(6, dash).trim());
+            long last = Long.parseLong(value.substring(dash + 1, slash).trim());
+            String total = value.substring(slash + 1).trim();
+            return new long[] {first, last, "*".equals(total) ? -1 : Long.parseLong(total)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    InputStream getBody() throws IOException;
+
+    /**
+     * The body as a channel. Backends that can read the socket into a
+     * direct buffer override this; by default it wraps {@link #getBody()}.
+     * Closing the response is enough, the channel need not be closed.
+     */
+    default ReadableByteChannel getBodyChannel() throws IOException {
+        return Channels.newChannel(getBody());
+    }
+
+    /**
+     * Protocol the response arrived on, e.g. "HTTP/1.1" or "HTTP/2".
+     */
+    String getProtocol();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,83 @@
+package com.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Legacy backend on top of HttpURLConnection. Every request opens its
+ * own connection, which is dropped when the response is closed.
+ */
+public class UrlConnectionTransport implements Transport {
+
+    @Override
+    public TransportResponse send(TransportRequest request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+        connection.setRequestMethod(request.getMethod());
+        connection.setConnectTimeout(request.getConnectTimeout());
+        connection.setReadTimeout(request.getReadTimeout());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        try {
+            long start = System.nanoTime();
+            connection.connect();
+            DownloadMetrics.CONNECT.recordSince(start);
+            connection.getResponseCode();
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+        return new Response(connection);
+    }
+
+    @Override
+    public String getName() {
+        return "legacy";
+    }
+
+    private static class Response implements TransportResponse {
+        private final HttpURLConnection connection;
+
+        Response(HttpURLConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public int getStatusCode() {
+            try {
+                return connection.getResponseCode();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public long getContentLength() {
+            return connection.getContentLengthLong();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return connection.getInputStream();
+        }
+
+        @Override
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        @Override
+        public void close() {
+            connection.disconnect();
+        }
+    }
+}
@@ -1,22 +1,25 @@
 package com.downloader;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.text.SimpleDateFormat;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Utility class for common operations and helper methods
  */
 public class Utils {
-    private static final String LOG_FILE = "downloader.log";
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
     
     /**
      * Extract filename from URL
@@ -209,46 +212,31 @@ public class Utils {
     }
     
     /**
-     * Log error to file
+     * Log error to file. The entry is written by a background thread, see {@link AsyncLogger}.
      */
     public static void logError(String message, Exception e) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(LOG_FILE, true))) {
-            writer.println("[" + DATE_FORMAT.format(new Date()) + "] ERROR: " + message);
-            if (e != null) {
-                writer.println("Exception: " + e.getMessage());
-                e.printStackTrace(writer);
-            }
-            writer.println("----------------------------------------");
-        } catch (IOException ioException) {
-            System.err.println("Failed to write to log file: " + ioException.getMessage());
-        }
+        AsyncLogger.get().log(AsyncLogger.Level.ERROR, message, e);
     }
     
     /**
-     * Log info to file
+     * Log warning to file
      */
-    public static void logInfo(String message) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(LOG_FILE, true))) {
-            writer.println("[" + DATE_FORMAT.format(new Date()) + "] INFO: " + message);
-        } catch (IOException e) {
-            System.err.println("Failed to write to log file: " + e.getMessage());
-        }
+    public static void logWarn(String message) {
+        AsyncLogger.get().log(AsyncLogger.Level.WARN, message, null);
     }
     
     /**
-     * Calculate download speed
+     * Log info to file
      */
-    public static long calculateSpeed(long bytesDownloaded, long timeElapsedMs) {
-        if (timeElapsedMs <= 0) return 0;
-        return (bytesDownloaded * 1000) / timeElapsedMs; // bytes per second
+    public static void logInfo(String message) {
+        AsyncLogger.get().log(AsyncLogger.Level.INFO, message, null);
     }
     
     /**
-     * Calculate ETA (Estimated Time of Arrival)
+     * Log debug details to file, only written with -Ddownloader.log.level=DEBUG
      */
-    public static long calculateETA(long totalSize, long downloadedSize, long currentSpeed) {
-        if (currentSpeed <= 0 || downloadedSize >= totalSize) return -1;
-        return (totalSize - downloadedSize) / currentSpeed; // seconds
+    public static void logDebug(String message) {
+        AsyncLogger.get().log(AsyncLogger.Level.DEBUG, message, null);
     }
     
     /**
@@ -284,7 +272,8 @@ public class Utils {
                     for (File file : files) {
                         String fileName = file.getName();
                         if (fileName.startsWith(baseName + ".part") || 
-                            fileName.equals(baseName + ".partial")) {
+                            fileName.equals(baseName + ".partial") ||
+                            fileName.equals(baseName + ".download")) {
                             if (file.delete()) {
                                 System.out.println("Cleaned up: " + fileName);
                             }
@@ -297,10 +286,76 @@ public class Utils {
         }
     }
     
+    /**
+     * Replace a file with a hard link to another, atomically where the file
+     * system allows. Where a link cannot be made (another drive, or a file
+     * system without hard links) the source is copied if that is allowed.
+     * @return false if it could not be linked and copying was not allowed
+     */
+    public static boolean linkOrCopy(Path source, Path destination, boolean copyAllowed) throws IOException {
+        if (Files.exists(destination) && Files.isSameFile(source, destination)) {
+            return true;
+        }
+        
+        Path temp = tempSibling(destination);
+        try {
+            Files.createLink(temp, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            if (!copyAllowed) {
+                return false;
+            }
+            try {
+                Files.copy(source, temp, StandardCopyOption.COPY_ATTRIBUTES);
+            } catch (IOException copyFailed) {
+                Files.deleteIfExists(temp);
+                throw copyFailed;
+            }
+        }
+        moveIntoPlace(temp, destination);
+        return true;
+    }
+    
+    /**
+     * Replace a file with a copy of another, atomically where the file
+     * system allows.
+     */
+    public static void copyReplacing(Path source, Path destination) throws IOException {
+        Path temp = tempSibling(destination);
+        try {
+            Files.copy(source, temp, StandardCopyOption.COPY_ATTRIBUTES);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        moveIntoPlace(temp, destination);
+    }
+    
+    // Unique, since several downloads may replace the same destination at once
+    private static Path tempSibling(Path destination) {
+        return destination.resolveSibling(destination.getFileName() + "." +
+            Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".link");
+    }
+    
+    private static void moveIntoPlace(Path temp, Path destination) throws IOException {
+        try {
+            Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            try {
+                Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException moveFailed) {
+                Files.deleteIfExists(temp);
+                throw moveFailed;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+    
     /**
      * Get current timestamp
      */
     public static String getCurrentTimestamp() {
-        return DATE_FORMAT.format(new Date());
+        return TIMESTAMP_FORMAT.format(LocalDateTime.now());
     }
 }
@@ -3,31 +3,53 @@ package com.downloader.gui;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
+import javax.swing.table.AbstractTableModel;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.downloader.Checksum;
+import com.downloader.DownloadJob;
+import com.downloader.DownloadListener;
+import com.downloader.DownloadJournal;
+import com.downloader.DownloadManager;
 import com.downloader.Downloader;
+import com.downloader.MetricsExporter;
+import com.downloader.ProgressSnapshot;
 import com.downloader.Utils;
 
 /**
  * Swing GUI for Java Smart Downloader
  */
 public class DownloaderSwingGUI extends JFrame {
+    private static final long serialVersionUID = 1L;
     
     // UI Components
     private JTextField urlField;
     private JTextField destinationField;
+    private JTextField checksumField;
     private JSpinner threadSpinner;
+    private JCheckBox autoThreadsBox;
     private JButton browseButton;
     private JButton downloadButton;
     private JButton pauseButton;
     private JButton resumeButton;
+    private JButton cancelButton;
     private JButton clearButton;
+    private JSpinner parallelSpinner;
+    private JSpinner speedLimitSpinner;
     
     // Progress components
     private JProgressBar progressBar;
@@ -37,16 +59,19 @@ public class DownloaderSwingGUI extends JFrame {
     private JLabel statusLabel;
     private JTextArea logArea;
     private JScrollPane logScrollPane;
+    private JTable jobTable;
+    private JobTableModel jobTableModel;
     
     // Download management
-    private GUIDownloader currentDownloader;
-    private Thread downloadThread;
-    private AtomicBoolean isDownloading = new AtomicBoolean(false);
+    private final DownloadManager manager = new DownloadManager();
+    private final Map<DownloadJob, ProgressSnapshot> progress = new HashMap<>();
+    private final Map<DownloadJob, DownloadJob.State> lastStates = new HashMap<>();
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
     
     public DownloaderSwingGUI() {
         setTitle("Java Smart Downloader - GUI Version");
         setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
-        setSize(750, 650);
+        setSize(800, 750);
         setLocationRelativeTo(null);
         setResizable(true);
         
@@ -67,8 +92,13 @@ public class DownloaderSwingGUI extends JFrame {
         setupEventHandlers();
         updateUIState();
         
+        // Jobs report progress through events from their own threads
+        manager.addListener(new JobEventListener());
+        
         logMessage("Java Smart Downloader GUI Started");
         logMessage("Ready to download files!");
+        
+        SwingUtilities.invokeLater(() -> checkForInterruptedDownloads(new File(destinationField.getText())));
     }
     
     private void initializeComponents() {
@@ -80,8 +110,17 @@ public class DownloaderSwingGUI extends JFrame {
         destinationField.setEditable(false);
         destinationField.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
         
-        threadSpinner = new JSpinner(new SpinnerNumberModel(4, 1, 8, 1));
+        checksumField = new JTextField();
+        checksumField.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        checksumField.setToolTipText("Optional SHA-256 or MD5 digest, e.g. sha256:<hex>, checked before the file is saved");
+        
+        threadSpinner = new JSpinner(new SpinnerNumberModel(4, 1, Downloader.MAX_CONNECTIONS, 1));
         threadSpinner.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+        threadSpinner.setEnabled(false);
+        
+        autoThreadsBox = new JCheckBox("Auto", true);
+        autoThreadsBox.setOpaque(false);
+        autoThreadsBox.setToolTipText("Add connections while they make the download faster");
         
         // Buttons
         browseButton = new JButton("Browse...");
@@ -89,6 +128,13 @@ public class DownloaderSwingGUI extends JFrame {
         browseButton.setForeground(Color.WHITE);
         browseButton.setFocusPainted(false);
         
+        parallelSpinner = new JSpinner(new SpinnerNumberModel(manager.getMaxConcurrentJobs(), 1, 16, 1));
+        parallelSpinner.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+        
+        speedLimitSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 10_000_000, 100));
+        speedLimitSpinner.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+        speedLimitSpinner.setToolTipText("Total speed limit for all downloads, 0 for unlimited");
+        
         downloadButton = new JButton("▶ Start Download");
         downloadButton.setBackground(new Color(33, 150, 243));
         downloadButton.setForeground(Color.WHITE);
@@ -105,6 +151,11 @@ public class DownloaderSwingGUI extends JFrame {
         resumeButton.setForeground(Color.WHITE);
         resumeButton.setFocusPainted(false);
         
+        cancelButton = new JButton("✖ Cancel");
+        cancelButton.setBackground(new Color(158, 158, 158));
+        cancelButton.setForeground(Color.WHITE);
+        cancelButton.setFocusPainted(false);
+        
         clearButton = new JButton("🗑 Clear");
         clearButton.setBackground(new Color(244, 67, 54));
         clearButton.setForeground(Color.WHITE);
@@ -130,6 +181,15 @@ public class DownloaderSwingGUI extends JFrame {
         logArea.setBackground(new Color(248, 248, 248));
         logScrollPane = new JScrollPane(logArea);
         logScrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+        
+        // Download queue
+        jobTableModel = new JobTableModel();
+        jobTable = new JTable(jobTableModel);
+        jobTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        jobTable.setFillsViewportHeight(true);
+        jobTable.getColumnModel().getColumn(0).setMaxWidth(40);
+        jobTable.getColumnModel().getColumn(1).setPreferredWidth(260);
+        jobTable.setComponentPopupMenu(createJobMenu());
     }
     
     private void layoutComponents() {
@@ -151,7 +211,8 @@ public class DownloaderSwingGUI extends JFrame {
         // Control buttons
         JPanel buttonPanel = createButtonPanel();
         
-        // Log section
+        // Queue and log sections
+        JPanel queuePanel = createQueuePanel();
         JPanel logPanel = createLogPanel();
         
         // Combine sections
@@ -160,8 +221,12 @@ public class DownloaderSwingGUI extends JFrame {
         topPanel.add(progressPanel, BorderLayout.CENTER);
         topPanel.add(buttonPanel, BorderLayout.SOUTH);
         
+        JSplitPane bottomPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, queuePanel, logPanel);
+        bottomPane.setResizeWeight(0.6);
+        bottomPane.setBorder(null);
+        
         mainPanel.add(topPanel, BorderLayout.NORTH);
-        mainPanel.add(logPanel, BorderLayout.CENTER);
+        mainPanel.add(bottomPane, BorderLayout.CENTER);
         
         add(titlePanel, BorderLayout.NORTH);
         add(mainPanel, BorderLayout.CENTER);
@@ -221,17 +286,39 @@ public class DownloaderSwingGUI extends JFrame {
         gbc.gridx = 2; gbc.weightx = 0; gbc.fill = GridBagConstraints.NONE;
         panel.add(browseButton, gbc);
         
-        // Threads row
+        // Checksum row
         gbc.gridx = 0; gbc.gridy = 2;
+        panel.add(new JLabel("Checksum:"), gbc);
+        gbc.gridx = 1; gbc.weightx = 1.0; gbc.fill = GridBagConstraints.HORIZONTAL;
+        panel.add(checksumField, gbc);
+        
+        // Threads row
+        gbc.gridx = 0; gbc.gridy = 3; gbc.weightx = 0; gbc.fill = GridBagConstraints.NONE;
         panel.add(new JLabel("Threads:"), gbc);
         gbc.gridx = 1; gbc.fill = GridBagConstraints.NONE;
         JPanel threadPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
         threadPanel.setOpaque(false);
+        threadPanel.add(autoThreadsBox);
+        threadPanel.add(Box.createHorizontalStrut(10));
         threadPanel.add(threadSpinner);
         threadPanel.add(Box.createHorizontalStrut(10));
-        threadPanel.add(new JLabel("(1-8 threads)"));
+        threadPanel.add(new JLabel("(1-" + Downloader.MAX_CONNECTIONS + " threads)"));
+        threadPanel.add(Box.createHorizontalStrut(30));
+        threadPanel.add(new JLabel("Parallel downloads: "));
+        threadPanel.add(parallelSpinner);
         panel.add(threadPanel, gbc);
         
+        // Speed limit row
+        gbc.gridx = 0; gbc.gridy = 4;
+        panel.add(new JLabel("Speed limit:"), gbc);
+        gbc.gridx = 1;
+        JPanel limitPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        limitPanel.setOpaque(false);
+        limitPanel.add(speedLimitSpinner);
+        limitPanel.add(Box.createHorizontalStrut(10));
+        limitPanel.add(new JLabel("KB/s for all downloads (0 = unlimited, right-click a download for its own limit)"));
+        panel.add(limitPanel, gbc);
+        
         return panel;
     }
     
@@ -268,16 +355,84 @@ public class DownloaderSwingGUI extends JFrame {
         downloadButton.setPreferredSize(new Dimension(150, 35));
         pauseButton.setPreferredSize(new Dimension(100, 35));
         resumeButton.setPreferredSize(new Dimension(100, 35));
+        cancelButton.setPreferredSize(new Dimension(100, 35));
         clearButton.setPreferredSize(new Dimension(100, 35));
         
         panel.add(downloadButton);
         panel.add(pauseButton);
         panel.add(resumeButton);
+        panel.add(cancelButton);
         panel.add(clearButton);
         
         return panel;
     }
     
+    private JPanel createQueuePanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createTitledBorder(
+            BorderFactory.createEtchedBorder(), "📋 Download Queue", 
+            TitledBorder.LEFT, TitledBorder.TOP, 
+            new Font(Font.SANS_SERIF, Font.BOLD, 12)));
+        
+        panel.add(new JScrollPane(jobTable), BorderLayout.CENTER);
+        
+        return panel;
+    }
+    
+    private JPopupMenu createJobMenu() {
+        JPopupMenu menu = new JPopupMenu();
+        
+        JMenuItem limitItem = new JMenuItem("Set speed limit...");
+        limitItem.addActionListener(e -> {
+            DownloadJob job = getSelectedJob();
+            if (job == null) {
+                return;
+            }
+            Long limit = askNumber("Speed limit for " + job.getFileName() + " in KB/s (0 = unlimited):",
+                job.getSpeedLimit() / 1024, 0);
+            if (limit != null) {
+                job.setSpeedLimit(limit * 1024);
+                logMessage("Download #" + job.getId() + " limited to " + 
+                    (limit > 0 ? limit + " KB/s" : "unlimited"));
+            }
+        });
+        
+        JMenuItem weightItem = new JMenuItem("Set priority weight...");
+        weightItem.addActionListener(e -> {
+            DownloadJob job = getSelectedJob();
+            if (job == null) {
+                return;
+            }
+            Long weight = askNumber("Share of the total limit for " + job.getFileName() + 
+                " (2 = twice the bandwidth of a download with 1):", job.getWeight(), 1);
+            if (weight != null) {
+                job.setWeight(weight.intValue());
+                logMessage("Download #" + job.getId() + " weight set to " + weight);
+            }
+        });
+        
+        menu.add(limitItem);
+        menu.add(weightItem);
+        return menu;
+    }
+    
+    private Long askNumber(String message, long current, long minimum) {
+        String input = JOptionPane.showInputDialog(this, message, current);
+        if (input == null) {
+            return null;
+        }
+        try {
+            long value = Long.parseLong(input.trim());
+            if (value >= minimum) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the error below
+        }
+        showError("Please enter a whole number of at least " + minimum);
+        return null;
+    }
+    
     private JPanel createLogPanel() {
         JPanel panel = new JPanel(new BorderLayout());
         panel.setBorder(BorderFactory.createTitledBorder(
@@ -295,17 +450,15 @@ public class DownloaderSwingGUI extends JFrame {
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                if (isDownloading.get()) {
+                if (manager.getRunningCount() > 0 || manager.getQueuedCount() > 0) {
                     int choice = JOptionPane.showConfirmDialog(
                         DownloaderSwingGUI.this,
-                        "Download is in progress. Are you sure you want to exit?",
+                        "Downloads are in progress. Are you sure you want to exit?",
                         "Confirm Exit",
                         JOptionPane.YES_NO_OPTION
                     );
                     if (choice == JOptionPane.YES_OPTION) {
-                        if (currentDownloader != null) {
-                            currentDownloader.cancelDownload();
-                        }
+                        manager.cancelAll();
                         System.exit(0);
                     }
                 } else {
@@ -334,6 +487,7 @@ public class DownloaderSwingGUI extends JFrame {
                 File selectedDir = chooser.getSelectedFile();
                 destinationField.setText(selectedDir.getAbsolutePath());
                 logMessage("Destination set to: " + selectedDir.getAbsolutePath());
+                checkForInterruptedDownloads(selectedDir);
             }
             }
         });
@@ -360,35 +514,89 @@ public class DownloaderSwingGUI extends JFrame {
             }
         });
         
+        cancelButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cancelDownload();
+            }
+        });
+        
         clearButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
                 clearAll();
             }
         });
+        
+        parallelSpinner.addChangeListener(e -> {
+            manager.setMaxConcurrentJobs((Integer) parallelSpinner.getValue());
+            logMessage("Running up to " + manager.getMaxConcurrentJobs() + " downloads at once");
+        });
+        
+        autoThreadsBox.addActionListener(e -> threadSpinner.setEnabled(!autoThreadsBox.isSelected()));
+        
+        speedLimitSpinner.addChangeListener(e -> {
+            long limit = ((Integer) speedLimitSpinner.getValue()) * 1024L;
+            manager.setGlobalSpeedLimit(limit);
+            logMessage("Total speed limit: " + (limit > 0 ? Utils.formatBytes(limit) + "/s" : "unlimited"));
+        });
+        
+        // Right-click selects the row the job menu will act on
+        jobTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                int row = jobTable.rowAtPoint(e.getPoint());
+                if (SwingUtilities.isRightMouseButton(e) && row >= 0) {
+                    jobTable.setRowSelectionInterval(row, row);
+                }
+            }
+        });
+        
+        jobTable.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                updateUIState();
+                updateProgressPanel();
+            }
+        });
     }
     
     private void startDownload() {
-        String url = urlField.getText().trim();
+        String input = urlField.getText().trim();
         String destination = destinationField.getText().trim();
-        int threads = (Integer) threadSpinner.getValue();
+        int threads = getThreadCount();
         
         // Validation
-        if (url.isEmpty()) {
+        if (input.isEmpty()) {
             showError("Please enter a valid URL");
             return;
         }
         
-        if (!Utils.isValidUrl(url)) {
-            showError("Invalid URL format. Please use HTTP or HTTPS URLs.");
-            return;
+        // Several URLs separated by spaces are mirrors of the same file
+        List<String> mirrors = Arrays.asList(input.split("\\s+"));
+        for (String mirror : mirrors) {
+            if (!Utils.isValidUrl(mirror)) {
+                showError("Invalid URL format. Please use HTTP or HTTPS URLs.");
+                return;
+            }
         }
+        String url = mirrors.get(0);
         
         if (destination.isEmpty()) {
             showError("Please select a destination folder");
             return;
         }
         
+        Checksum checksum = null;
+        String checksumText = checksumField.getText().trim();
+        if (!checksumText.isEmpty()) {
+            try {
+                checksum = Checksum.parse(checksumText);
+            } catch (IllegalArgumentException e) {
+                showError(e.getMessage());
+                return;
+            }
+        }
+        
         File destDir = new File(destination);
         if (!destDir.exists() && !destDir.mkdirs()) {
             showError("Could not create destination directory");
@@ -399,126 +607,224 @@ public class DownloaderSwingGUI extends JFrame {
         String fileName = Utils.extractFileName(url);
         String fullPath = destination + File.separator + fileName;
         
-        logMessage("Starting download...");
-        logMessage("URL: " + url);
+        startDownload(mirrors, fullPath, threads, checksum);
+        checksumField.setText("");
+    }
+    
+    private void startDownload(List<String> mirrors, String fullPath, int threads, Checksum checksum) {
+        DownloadJob job = manager.submit(mirrors, fullPath, threads, checksum);
+        logMessage("Queued download #" + job.getId() + ": " + job.getFileName());
+        logMessage("URL: " + mirrors.get(0));
+        if (mirrors.size() > 1) {
+            logMessage("Mirrors: " + String.join(", ", mirrors.subList(1, mirrors.size())));
+        }
         logMessage("Destination: " + fullPath);
-        logMessage("Threads: " + threads);
+        logMessage("Threads: " + (threads == Downloader.AUTO_CONNECTIONS ? "auto" : String.valueOf(threads)));
+        if (checksum != null) {
+            logMessage("Checksum: " + checksum);
+        }
         
-        // Create downloader
-        currentDownloader = new GUIDownloader(url, fullPath, threads);
+        refreshJobs();
+        int row = jobTableModel.indexOf(job);
+        if (row >= 0) {
+            jobTable.getSelectionModel().setSelectionInterval(row, row);
+        }
+        urlField.setText("");
+    }
+    
+    // Offer to resume downloads that were interrupted by a crash or exit
+    private void checkForInterruptedDownloads(File directory) {
+        List<DownloadJournal> interrupted = DownloadJournal.findInterrupted(directory);
+        if (interrupted.isEmpty()) {
+            return;
+        }
         
-        // Start download in background thread
-        isDownloading.set(true);
-        updateUIState();
+        String[] choices = new String[interrupted.size()];
+        for (int i = 0; i < interrupted.size(); i++) {
+            DownloadJournal journal = interrupted.get(i);
+            choices[i] = new File(journal.getDestinationPath()).getName() + " (" +
+                Utils.formatBytes(journal.getCompletedBytes()) + " of " +
+                Utils.formatBytes(journal.getTotalSize()) + ")";
+        }
         
-        downloadThread = new Thread(() -> {
-            try {
-                currentDownloader.startDownload();
-                SwingUtilities.invokeLater(() -> {
-                    isDownloading.set(false);
-                    updateUIState();
-                    logMessage("✅ Download completed successfully!");
-                    showInfo("Download completed successfully!\nFile saved to: " + fullPath);
-                });
-            } catch (Exception e) {
-                SwingUtilities.invokeLater(() -> {
-                    isDownloading.set(false);
-                    updateUIState();
-                    logMessage("❌ Download failed: " + e.getMessage());
-                    showError("Download failed: " + e.getMessage());
-                });
-            }
-        });
+        logMessage("Found " + interrupted.size() + " interrupted download(s) in " + directory.getPath());
+        Object selected = JOptionPane.showInputDialog(this,
+            "Interrupted downloads were found. Select one to resume:",
+            "Resume Interrupted Download",
+            JOptionPane.QUESTION_MESSAGE, null, choices, choices[0]);
+        if (selected == null) {
+            return;
+        }
         
-        downloadThread.setDaemon(true);
-        downloadThread.start();
+        for (int i = 0; i < choices.length; i++) {
+            if (choices[i].equals(selected)) {
+                DownloadJournal journal = interrupted.get(i);
+                urlField.setText(journal.getUrl());
+                startDownload(Collections.singletonList(journal.getUrl()), journal.getDestinationPath(), getThreadCount(), null);
+                return;
+            }
+        }
+    }
+    
+    private int getThreadCount() {
+        return autoThreadsBox.isSelected() ? Downloader.AUTO_CONNECTIONS : (Integer) threadSpinner.getValue();
+    }
+    
+    private DownloadJob getSelectedJob() {
+        int row = jobTable.getSelectedRow();
+        return row >= 0 ? jobTableModel.getJob(row) : null;
     }
     
     private void pauseDownload() {
-        if (currentDownloader != null && isDownloading.get()) {
-            currentDownloader.pauseDownload();
-            isDownloading.set(false);
-            updateUIState();
-            logMessage("⏸ Download paused");
+        DownloadJob job = getSelectedJob();
+        if (job != null && (job.getState() == DownloadJob.State.RUNNING || 
+                            job.getState() == DownloadJob.State.QUEUED)) {
+            manager.pause(job);
+            logMessage("⏸ Download #" + job.getId() + " paused");
+            refreshJobs();
         }
     }
     
     private void resumeDownload() {
-        if (currentDownloader != null && !isDownloading.get()) {
-            isDownloading.set(true);
-            updateUIState();
-            
-            downloadThread = new Thread(() -> {
-                try {
-                    currentDownloader.resumeDownload();
-                    SwingUtilities.invokeLater(() -> {
-                        isDownloading.set(false);
-                        updateUIState();
-                        logMessage("✅ Download completed successfully!");
-                    });
-                } catch (Exception e) {
-                    SwingUtilities.invokeLater(() -> {
-                        isDownloading.set(false);
-                        updateUIState();
-                        logMessage("❌ Download failed: " + e.getMessage());
-                    });
-                }
-            });
-            
-            downloadThread.setDaemon(true);
-            downloadThread.start();
-            
-            logMessage("▶ Download resumed");
+        DownloadJob job = getSelectedJob();
+        if (job != null && job.getState() == DownloadJob.State.PAUSED) {
+            manager.resume(job);
+            logMessage("▶ Download #" + job.getId() + " resumed");
+            refreshJobs();
         }
     }
     
-    private void clearAll() {
-        if (isDownloading.get()) {
-            showError("Cannot clear while download is in progress. Please pause first.");
-            return;
+    private void cancelDownload() {
+        DownloadJob job = getSelectedJob();
+        if (job != null && !job.isFinished()) {
+            manager.cancel(job);
+            logMessage("✖ Download #" + job.getId() + " cancelled, partial file kept");
+            refreshJobs();
         }
-        
+    }
+    
+    private void clearAll() {
         urlField.setText("");
+        checksumField.setText("");
         destinationField.setText(System.getProperty("user.dir"));
         threadSpinner.setValue(4);
-        progressBar.setValue(0);
-        progressBar.setString("Ready to download");
-        progressLabel.setText("Ready to download");
-        speedLabel.setText("Speed: --");
-        etaLabel.setText("ETA: --");
-        statusLabel.setText("Status: Ready");
+        autoThreadsBox.setSelected(true);
+        jobTable.clearSelection();
         logArea.setText("");
         
-        currentDownloader = null;
-        
         logMessage("All fields cleared. Ready for new download.");
     }
     
-    private void updateUIState() {
-        boolean downloading = isDownloading.get();
-        boolean hasDownloader = currentDownloader != null;
+    /**
+     * Update the table and the progress panel, and log jobs that finished
+     * since the last refresh.
+     */
+    private void refreshJobs() {
+        for (DownloadJob job : manager.getJobs()) {
+            // One snapshot per job and refresh, shared by the table and the progress panel
+            progress.put(job, job.getProgress());
+            
+            DownloadJob.State state = job.getState();
+            DownloadJob.State before = lastStates.put(job, state);
+            if (state != before) {
+                if (state == DownloadJob.State.COMPLETED) {
+                    logMessage("✅ Download #" + job.getId() + " completed: " + job.getDestinationPath());
+                    if (job.getExpectedChecksum() != null) {
+                        logMessage("   " + job.getExpectedChecksum().getAlgorithm() + " verified: " + job.getChecksum());
+                    }
+                } else if (state == DownloadJob.State.FAILED) {
+                    logMessage("❌ Download #" + job.getId() + " failed: " + job.getFailureReason());
+                }
+            }
+        }
         
-        downloadButton.setEnabled(!downloading);
-        pauseButton.setEnabled(downloading);
-        resumeButton.setEnabled(!downloading && hasDownloader && !currentDownloader.isCompleted());
-        clearButton.setEnabled(!downloading);
+        int selected = jobTable.getSelectedRow();
+        jobTableModel.setJobs(manager.getJobs());
+        if (selected >= 0 && selected < jobTableModel.getRowCount()) {
+            jobTable.getSelectionModel().setSelectionInterval(selected, selected);
+        }
+        updateUIState();
+        updateProgressPanel();
+    }
+    
+    /**
+     * Refresh on the EDT soon. Events that arrive before that refresh has
+     * run are folded into it, so a busy download cannot flood the EDT.
+     */
+    private void scheduleRefresh() {
+        if (refreshPending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                refreshPending.set(false);
+                refreshJobs();
+            });
+        }
+    }
+    
+    private long getSpeed(DownloadJob job) {
+        Downloader downloader = job.getDownloader();
+        if (downloader == null || job.getState() != DownloadJob.State.RUNNING) {
+            return 0;
+        }
+        return downloader.getThroughput().getCurrentSpeed();
+    }
+    
+    private void updateProgressPanel() {
+        DownloadJob job = getSelectedJob();
+        if (job == null) {
+            progressBar.setValue(0);
+            progressBar.setString("Ready to download");
+            progressLabel.setText(manager.getRunningCount() + " running, " + 
+                manager.getQueuedCount() + " queued");
+            speedLabel.setText("Speed: --");
+            etaLabel.setText("ETA: --");
+            return;
+        }
+        
+        ProgressSnapshot snapshot = progress.get(job);
+        long downloaded = snapshot != null ? snapshot.getTotalBytes() : 0;
+        long size = snapshot != null ? snapshot.getFileSize() : -1;
+        long speed = getSpeed(job);
+        
+        if (size > 0) {
+            int percent = (int) (downloaded * 100 / size);
+            progressBar.setValue(percent);
+            progressBar.setString(percent + "%");
+            progressLabel.setText(job.getFileName() + ": " + Utils.formatBytes(downloaded) + 
+                " of " + Utils.formatBytes(size));
+            long eta = speed > 0 ? job.getDownloader().getThroughput().getEta(size - downloaded) : -1;
+            etaLabel.setText("ETA: " + (eta >= 0 ? Utils.formatTime(eta) : "--"));
+        } else {
+            progressBar.setValue(0);
+            progressBar.setString(Utils.formatBytes(downloaded));
+            progressLabel.setText(job.getFileName() + ": " + Utils.formatBytes(downloaded));
+            etaLabel.setText("ETA: --");
+        }
+        speedLabel.setText("Speed: " + (speed > 0 ? Utils.formatBytes(speed) + "/s" : "--"));
+    }
+    
+    private void updateUIState() {
+        DownloadJob job = getSelectedJob();
+        DownloadJob.State state = job != null ? job.getState() : null;
         
-        urlField.setEnabled(!downloading);
-        browseButton.setEnabled(!downloading);
-        threadSpinner.setEnabled(!downloading);
+        pauseButton.setEnabled(state == DownloadJob.State.RUNNING || state == DownloadJob.State.QUEUED);
+        resumeButton.setEnabled(state == DownloadJob.State.PAUSED);
+        cancelButton.setEnabled(job != null && !job.isFinished());
         
-        if (downloading) {
+        if (state == null) {
+            statusLabel.setText("Status: Ready");
+            statusLabel.setForeground(new Color(33, 150, 243));
+        } else if (state == DownloadJob.State.RUNNING) {
             statusLabel.setText("Status: Downloading...");
             statusLabel.setForeground(new Color(76, 175, 80));
-        } else if (hasDownloader && currentDownloader.isCompleted()) {
+        } else if (state == DownloadJob.State.COMPLETED) {
             statusLabel.setText("Status: Completed");
             statusLabel.setForeground(new Color(76, 175, 80));
-        } else if (hasDownloader) {
-            statusLabel.setText("Status: Paused");
+        } else if (state == DownloadJob.State.PAUSED || state == DownloadJob.State.QUEUED) {
+            statusLabel.setText(state == DownloadJob.State.PAUSED ? "Status: Paused" : "Status: Queued");
             statusLabel.setForeground(new Color(255, 152, 0));
         } else {
-            statusLabel.setText("Status: Ready");
-            statusLabel.setForeground(new Color(33, 150, 243));
+            statusLabel.setText(state == DownloadJob.State.FAILED ? "Status: Failed" : "Status: Cancelled");
+            statusLabel.setForeground(new Color(244, 67, 54));
         }
     }
     
@@ -538,53 +844,104 @@ public class DownloaderSwingGUI extends JFrame {
         });
     }
     
-    // Update progress from downloader
-    public void updateProgress(double progress, String progressText, String speed, String eta) {
-        SwingUtilities.invokeLater(() -> {
-            int progressPercent = (int) (progress * 100);
-            progressBar.setValue(progressPercent);
-            progressBar.setString(progressPercent + "%");
-            progressLabel.setText(progressText);
-            speedLabel.setText("Speed: " + speed);
-            etaLabel.setText("ETA: " + eta);
-        });
+    // Rows of the download queue table
+    /**
+     * Called on the download threads; every event just schedules a refresh.
+     */
+    private class JobEventListener implements DownloadListener {
+        @Override
+        public void downloadStarted(Downloader downloader) {
+            scheduleRefresh();
+        }
+        
+        @Override
+        public void progressChanged(Downloader downloader, ProgressSnapshot snapshot) {
+            scheduleRefresh();
+        }
+        
+        @Override
+        public void downloadPaused(Downloader downloader) {
+            scheduleRefresh();
+        }
+        
+        @Override
+        public void downloadCompleted(Downloader downloader) {
+            scheduleRefresh();
+        }
+        
+        @Override
+        public void downloadFailed(Downloader downloader, String reason) {
+            scheduleRefresh();
+        }
+        
+        @Override
+        public void downloadCancelled(Downloader downloader) {
+            scheduleRefresh();
+        }
     }
     
-    // Inner class for GUI-aware downloader
-    private class GUIDownloader extends Downloader {
+    private class JobTableModel extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] columns = {"#", "File", "Status", "Progress", "Size", "Speed", "Connections"};
+        private List<DownloadJob> jobs = new ArrayList<>();
+        
+        void setJobs(List<DownloadJob> jobs) {
+            this.jobs = jobs;
+            fireTableDataChanged();
+        }
+        
+        DownloadJob getJob(int row) {
+            return jobs.get(row);
+        }
         
-        public GUIDownloader(String url, String destinationPath, int numThreads) {
-            super(url, destinationPath, numThreads);
+        int indexOf(DownloadJob job) {
+            return jobs.indexOf(job);
         }
         
-        // Override to provide GUI updates
-        // We'll simulate progress updates since the base class doesn't expose callbacks
         @Override
-        public void startDownload() {
-            // Start a progress updater thread
-            Thread progressUpdater = new Thread(() -> {
-                while (isDownloading.get() && !isCompleted()) {
-                    try {
-                        Thread.sleep(1000); // Update every second
-                        
-                        // This is a simplified progress update
-                        // In a real implementation, you'd modify Downloader to expose progress callbacks
-                        if (isDownloading.get()) {
-                            updateProgress(0.5, "Downloading...", "-- KB/s", "-- sec");
-                        }
-                    } catch (InterruptedException e) {
-                        break;
-                    }
-                }
-            });
-            progressUpdater.setDaemon(true);
-            progressUpdater.start();
-            
-            super.startDownload();
+        public int getRowCount() {
+            return jobs.size();
+        }
+        
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+        
+        @Override
+        public String getColumnName(int column) {
+            return columns[column];
+        }
+        
+        @Override
+        public Object getValueAt(int row, int column) {
+            DownloadJob job = jobs.get(row);
+            ProgressSnapshot snapshot = progress.get(job);
+            long size = snapshot != null ? snapshot.getFileSize() : -1;
+            switch (column) {
+                case 0:
+                    return job.getId();
+                case 1:
+                    return job.getFileName();
+                case 2:
+                    return job.getState().name().charAt(0) + job.getState().name().substring(1).toLowerCase();
+                case 3:
+                    return size > 0 ? String.format("%.1f%%", snapshot.getPercentage()) : "--";
+                case 4:
+                    return size > 0 ? Utils.formatBytes(size) : "--";
+                case 5:
+                    long speed = getSpeed(job);
+                    return speed > 0 ? Utils.formatBytes(speed) + "/s" : "";
+                default:
+                    int connections = job.getConnections();
+                    return connections > 0 ? String.valueOf(connections) : "";
+            }
         }
     }
     
     public static void main(String[] args) {
+        MetricsExporter.install();
         SwingUtilities.invokeLater(() -> {
             new DownloaderSwingGUI().setVisible(true);
         });
@@ -0,0 +1,116 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that the workers' read, write and accounting loop allocates
+ * nothing once a download is under way. The heap bytes allocated by the
+ * download worker threads are sampled at 25% and at 75% of a loopback
+ * download over the pooled backend, with a SHA-256 digest and the journal
+ * on. A few objects are allowed for connections moving to a buffer size
+ * class the pool has none of yet and for each range request started in
+ * between, not for anything allocated per read or per block.
+ */
+class AllocationTest {
+    private static final int SIZE = 64 * 1024 * 1024;
+    private static final int CONNECTIONS = 4;
+    // Between the samples the workers make a few hundred reads, so even one
+    // small object per read goes past the budget
+    private static final long FIXED_BUDGET = 2560;
+    private static final long BUDGET_PER_MB = 16;
+    // A range stolen between the samples starts with a new request, whose
+    // headers and response objects are allocated once for the whole range
+    private static final long BUDGET_PER_REQUEST = 8192;
+
+    private final byte[] payload = new byte[SIZE];
+    private RangeServer server;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void start() throws IOException {
+        new Random(42).nextBytes(payload);
+        server = new RangeServer(payload);
+    }
+
+    @AfterEach
+    void stop() {
+        server.close();
+    }
+
+    @Test
+    void readLoopDoesNotAllocate() throws Exception {
+        String url = server.url("/file.bin");
+        String destination = dir.resolve("file.bin").toString();
+
+        // Warm up, so the pool already holds buffers and the loop is compiled
+        Downloader warmUp = newDownloader(url, destination);
+        warmUp.startDownload();
+        warmUp.getCompletion().get();
+        new File(destination).delete();
+
+        Downloader downloader = newDownloader(url, destination);
+        downloader.setDigestAlgorithm(Checksum.SHA_256);
+        Thread runner = new Thread(downloader::startDownload);
+        runner.start();
+
+        waitFor(downloader, SIZE / 4);
+        long firstBytes = downloader.getDownloadedBytes();
+        long firstRequests = DownloadMetrics.REQUESTS.get();
+        Map<Long, Long> first = workerAllocations();
+        waitFor(downloader, 3L * SIZE / 4);
+        Map<Long, Long> second = workerAllocations();
+        long secondBytes = downloader.getDownloadedBytes();
+        long secondRequests = DownloadMetrics.REQUESTS.get();
+        downloader.getCompletion().get();
+
+        long allocated = 0;
+        for (Map.Entry<Long, Long> worker : second.entrySet()) {
+            allocated += worker.getValue() - first.getOrDefault(worker.getKey(), 0L);
+        }
+        long requests = secondRequests - firstRequests;
+        long budget = FIXED_BUDGET + BUDGET_PER_MB * (secondBytes - firstBytes) / (1024 * 1024)
+            + BUDGET_PER_REQUEST * requests;
+        assertTrue(allocated <= budget, "workers allocated " + allocated + " bytes over "
+            + (secondBytes - firstBytes) + " downloaded and " + requests + " requests, budget " + budget);
+    }
+
+    private static Downloader newDownloader(String url, String destination) {
+        Downloader downloader = new Downloader(url, destination, CONNECTIONS);
+        downloader.setPrintProgress(false);
+        downloader.setTransport(new PooledTransport());
+        return downloader;
+    }
+
+    private static void waitFor(Downloader downloader, long bytes) throws InterruptedException {
+        while (downloader.getDownloadedBytes() < bytes && !downloader.getCompletion().isDone()) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static Map<Long, Long> workerAllocations() {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Map<Long, Long> allocations = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("download-worker-")) {
+                allocations.put(thread.getId(), threads.getThreadAllocatedBytes(thread.getId()));
+            }
+        }
+        return allocations;
+    }
+}
@@ -0,0 +1,122 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs on a clock the test moves by hand, so rates and waits come out
+ * exact.
+ */
+class BandwidthLimiterTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long MS = 1_000_000L;
+
+    private final AtomicLong now = new AtomicLong(5 * SECOND);
+
+    @Test
+    void bucketChargesBytesAtItsRate() {
+        TokenBucket bucket = new TokenBucket(1000, now::get);
+        long wait = 0;
+        for (int i = 0; i < 10; i++) {
+            wait = bucket.reserve(100);
+        }
+        // A second's worth of bytes taken at once has to wait out that second
+        assertEquals(SECOND, wait);
+
+        now.addAndGet(SECOND);
+        assertEquals(100 * MS, bucket.reserve(100));
+    }
+
+    @Test
+    void idleTimeEarnsOnlyTheBurst() {
+        TokenBucket bucket = new TokenBucket(1000, now::get);
+        now.addAndGet(60 * SECOND);
+        assertEquals(0, bucket.reserve(100));
+        assertEquals(SECOND - TokenBucket.BURST_NANOS + 100 * MS, bucket.reserve(1000));
+    }
+
+    @Test
+    void concurrentReservationsAreAllCharged() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1000, now::get);
+        int threads = 8;
+        int reservations = 1000;
+        AtomicLong longest = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < reservations; i++) {
+                    long wait = bucket.reserve(10);
+                    longest.accumulateAndGet(wait, Math::max);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        // No CAS lost a reservation: the last one waits for all of them
+        assertEquals(threads * reservations * 10 * MS, longest.get());
+    }
+
+    @Test
+    void splitsTheGlobalLimitByWeight() {
+        BandwidthLimiter limiter = new BandwidthLimiter(now::get);
+        limiter.setGlobalLimit(900_000);
+        BandwidthLimiter.Share light = limiter.newShare(1, 0);
+        BandwidthLimiter.Share heavy = limiter.newShare(2, 0);
+        light.setActive(true);
+        heavy.setActive(true);
+
+        assertEquals(300_000, light.getEffectiveRate());
+        assertEquals(600_000, heavy.getEffectiveRate());
+
+        // A job capped below its share leaves the rest to the others
+        light.setLimit(100_000);
+        assertEquals(100_000, light.getEffectiveRate());
+        assertEquals(800_000, heavy.getEffectiveRate());
+
+        light.setActive(false);
+        assertEquals(900_000, heavy.getEffectiveRate());
+        limiter.setGlobalLimit(0);
+    }
+
+    @Test
+    void idleShareGivesItsRateAway() throws InterruptedException {
+        BandwidthLimiter limiter = new BandwidthLimiter(now::get);
+        limiter.setGlobalLimit(900_000);
+        BandwidthLimiter.Share idle = limiter.newShare(1, 0);
+        BandwidthLimiter.Share busy = limiter.newShare(2, 0);
+        idle.setActive(true);
+        busy.setActive(true);
+
+        // Grants hold a tenth of a second at the share's rate
+        assertEquals(30_000, idle.acquire());
+        long received = 0;
+        for (int i = 0; i < 10; i++) {
+            now.addAndGet(100 * MS);
+            received += busy.acquire();
+        }
+        assertEquals(600_000, received);
+
+        limiter.rebalance();
+        // The idle share used 30 KB/s and keeps half as much again as headroom
+        assertEquals(45_000, idle.getEffectiveRate());
+        assertEquals(855_000, busy.getEffectiveRate());
+        assertEquals(900_000, idle.getEffectiveRate() + busy.getEffectiveRate());
+        limiter.setGlobalLimit(0);
+    }
+}
@@ -0,0 +1,23 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class BufferPoolTest {
+
+    @Test
+    void reusesBuffersOfTheSameSizeClass() {
+        BufferPool pool = new BufferPool(BufferPool.DEFAULT_BUFFER_SIZE, BufferPool.DEFAULT_MAX_IDLE_BYTES);
+        ByteBuffer buffer = pool.acquire(40 * 1024);
+        assertEquals(64 * 1024, buffer.capacity());
+        pool.release(buffer);
+
+        assertSame(buffer, pool.acquire(50 * 1024));
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, pool.acquire(1).capacity());
+        assertEquals(2, pool.getAllocatedCount());
+    }
+}
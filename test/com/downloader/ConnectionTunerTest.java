@@ -0,0 +1,39 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+class ConnectionTunerTest {
+
+    @Test
+    void neverTunesPastTheLimit() {
+        ConnectionTuner tuner = new ConnectionTuner(32);
+        tuner.setLimit(8);
+        ThroughputEstimator throughput = new ThroughputEstimator();
+
+        // Every connection adds a megabyte a second, so only the limit stops the tuner
+        long now = 0;
+        long bytes = 0;
+        throughput.restart(now, bytes);
+        tuner.restart(now);
+        for (int i = 0; i < 200; i++) {
+            now += 500;
+            bytes += tuner.getLevel() * 500_000L;
+            throughput.sample(new ProgressSnapshot(now, -1, bytes, bytes, Collections.emptyList()));
+            int level = tuner.update(now, throughput);
+            assertTrue(level <= 8, "level " + level);
+        }
+        assertEquals(8, tuner.getLevel());
+    }
+
+    @Test
+    void lowerLimitCutsTheCurrentLevel() {
+        ConnectionTuner tuner = new ConnectionTuner(32);
+        tuner.setLimit(2);
+        assertEquals(2, tuner.getLevel());
+    }
+}
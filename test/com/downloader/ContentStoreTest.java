@@ -0,0 +1,64 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ContentStoreTest {
+    private final byte[] content = new byte[64 * 1024];
+    private String hex;
+    private ContentStore store;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void open() throws IOException {
+        new Random(13).nextBytes(content);
+        store = ContentStore.open(dir.resolve("store").toString());
+        Path first = write("first.bin", content);
+        hex = DownloadDigest.hashFile(first, Checksum.SHA_256);
+        assertEquals(0, store.add(Checksum.SHA_256, hex, first));
+    }
+
+    @Test
+    void linksTheSameContent() throws IOException {
+        Path second = write("second.bin", content);
+        assertEquals(content.length, store.add(Checksum.SHA_256, hex, second));
+        assertTrue(Files.isSameFile(dir.resolve("first.bin"), second));
+        assertArrayEquals(content, Files.readAllBytes(second));
+    }
+
+    @Test
+    void replacesAStoredFileThatWasEdited() throws IOException {
+        // Same size, other bytes: only hashing the stored file tells
+        byte[] edited = content.clone();
+        edited[100] ^= 1;
+        Files.write(dir.resolve("first.bin"), edited);
+
+        Path second = write("second.bin", content);
+        assertEquals(0, store.add(Checksum.SHA_256, hex, second));
+        assertFalse(Files.isSameFile(dir.resolve("first.bin"), second));
+        assertArrayEquals(content, Files.readAllBytes(second));
+        assertTrue(Files.isSameFile(store.getPath(Checksum.SHA_256, hex), second));
+
+        // Later downloads share the verified copy
+        Path third = write("third.bin", content);
+        assertEquals(content.length, store.add(Checksum.SHA_256, hex, third));
+        assertTrue(Files.isSameFile(second, third));
+    }
+
+    private Path write(String name, byte[] data) throws IOException {
+        return Files.write(dir.resolve(name), data);
+    }
+}
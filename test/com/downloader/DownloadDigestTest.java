@@ -0,0 +1,57 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DownloadDigestTest {
+    private static final String EMPTY_SHA_256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void hashesWritesFromEveryWorker() throws Exception {
+        byte[] payload = new byte[3 * 1024 * 1024 + 123];
+        new Random(5).nextBytes(payload);
+        Path destination = dir.resolve("file.bin");
+        Downloader downloader = download(payload, destination, 4);
+        assertEquals(sha256(payload), downloader.getChecksum());
+        assertArrayEquals(payload, Files.readAllBytes(destination));
+    }
+
+    @Test
+    void emptyDownloadHasTheDigestOfNothing() throws Exception {
+        Path destination = dir.resolve("empty.bin");
+        Downloader downloader = download(new byte[0], destination, 4);
+        assertEquals(EMPTY_SHA_256, downloader.getChecksum());
+        assertEquals(0, Files.size(destination));
+    }
+
+    private static Downloader download(byte[] payload, Path destination, int connections) throws Exception {
+        try (RangeServer server = new RangeServer(payload)) {
+            Downloader downloader = new Downloader(server.url("/file.bin"), destination.toString(), connections);
+            downloader.setPrintProgress(false);
+            downloader.setDigestAlgorithm(Checksum.SHA_256);
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                downloader.startDownload();
+                downloader.getCompletion().get();
+            });
+            return downloader;
+        }
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+}
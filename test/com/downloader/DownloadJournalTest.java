@@ -0,0 +1,99 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DownloadJournalTest {
+    private static final String URL = "http://example.com/file.bin";
+    private static final int BLOCK = DownloadJournal.DEFAULT_BLOCK_SIZE;
+    // Ten blocks, the last one short
+    private static final long SIZE = 9L * BLOCK + 1000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void bitmapSurvivesReopening() throws IOException {
+        String destination = dir.resolve("file.bin").toString();
+        DownloadJournal journal = DownloadJournal.create(destination, URL, "\"v1\"", null, SIZE);
+        journal.markRange(0, 2L * BLOCK);
+        // Partial blocks at either end are not marked
+        journal.markRange(4L * BLOCK + 1, 7L * BLOCK - 1);
+        // The short last block is complete when the range reaches the end of the file
+        journal.markRange(9L * BLOCK, SIZE);
+        journal.flush(journal.snapshot());
+        journal.close();
+
+        List<DownloadJournal> found = DownloadJournal.findInterrupted(dir.toFile());
+        assertEquals(1, found.size());
+        DownloadJournal reopened = found.get(0);
+        assertEquals(URL, reopened.getUrl());
+        assertEquals(destination, reopened.getDestinationPath());
+        assertEquals(SIZE, reopened.getTotalSize());
+
+        List<long[]> missing = reopened.getMissingRanges();
+        assertEquals(2, missing.size());
+        assertArrayEquals(new long[] {2L * BLOCK, 5L * BLOCK - 1}, missing.get(0));
+        assertArrayEquals(new long[] {6L * BLOCK, 9L * BLOCK - 1}, missing.get(1));
+        assertEquals(3L * BLOCK + 1000, reopened.getCompletedBytes());
+    }
+
+    @Test
+    void unflushedBlocksAreNotOnDisk() throws IOException {
+        String destination = dir.resolve("file.bin").toString();
+        DownloadJournal journal = DownloadJournal.create(destination, URL, null, null, SIZE);
+        long[] snapshot = journal.snapshot();
+        assertNull(snapshot, "nothing marked yet");
+        journal.markRange(0, BLOCK);
+        snapshot = journal.snapshot();
+        // Marked after the snapshot, so its data may not have been forced yet
+        journal.markRange(BLOCK, 2L * BLOCK);
+        journal.flush(snapshot);
+        journal.close();
+
+        DownloadJournal reopened = DownloadJournal.open(destination);
+        assertTrue(reopened.isComplete(0));
+        assertFalse(reopened.isComplete(1));
+        reopened.close();
+    }
+
+    @Test
+    void ignoresFilesThatAreNotJournals() throws IOException {
+        Files.writeString(dir.resolve("other.bin" + DownloadJournal.SUFFIX), "not a journal");
+        assertTrue(DownloadJournal.findInterrupted(dir.toFile()).isEmpty());
+    }
+
+    @Test
+    void matchesOnlyTheSameRemoteFile() throws IOException {
+        String destination = dir.resolve("file.bin").toString();
+        DownloadJournal journal = DownloadJournal.create(destination, URL, "\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT", SIZE);
+        journal.close();
+
+        assertTrue(journal.matches(URL, SIZE, "\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT"));
+        assertFalse(journal.matches(URL, SIZE, "\"v2\"", "Mon, 01 Jan 2024 00:00:00 GMT"), "ETag changed");
+        assertFalse(journal.matches(URL, SIZE + 1, "\"v1\"", null), "size changed");
+        assertFalse(journal.matches(URL + "?2", SIZE, "\"v1\"", null), "other URL");
+        // Without an ETag from the server the date decides
+        assertTrue(journal.matches(URL, SIZE, null, "Mon, 01 Jan 2024 00:00:00 GMT"));
+        assertFalse(journal.matches(URL, SIZE, null, "Tue, 02 Jan 2024 00:00:00 GMT"));
+    }
+
+    @Test
+    void validatorSkipsWeakETags() {
+        assertEquals("\"v1\"", DownloadJournal.validatorFor("\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT"));
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", DownloadJournal.validatorFor("W/\"v1\"", "Mon, 01 Jan 2024 00:00:00 GMT"));
+        assertNull(DownloadJournal.validatorFor("W/\"v1\"", null));
+        assertNull(DownloadJournal.validatorFor("", ""));
+    }
+}
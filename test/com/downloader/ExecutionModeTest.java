@@ -0,0 +1,48 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs a download on virtual threads through one connection per host, with
+ * the journal, a digest and the completion path all taking their locks.
+ * Before Java 21 VIRTUAL falls back to platform threads, so there this
+ * only checks the fallback.
+ */
+class ExecutionModeTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void downloadsOnVirtualThreads() throws Exception {
+        byte[] payload = new byte[8 * 1024 * 1024];
+        new Random(3).nextBytes(payload);
+        Path destination = dir.resolve("file.bin");
+        try (RangeServer server = new RangeServer(payload)) {
+            Downloader downloader = new Downloader(server.url("/file.bin"), destination.toString(), 8);
+            downloader.setPrintProgress(false);
+            downloader.setExecutionMode(ExecutionMode.VIRTUAL);
+            downloader.setHostLimiter(new HostLimiter(2));
+            downloader.setDigestAlgorithm(Checksum.SHA_256);
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                downloader.startDownload();
+                downloader.getCompletion().get();
+            });
+            String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(payload));
+            assertEquals(expected, downloader.getChecksum());
+        }
+        assertArrayEquals(payload, Files.readAllBytes(destination));
+    }
+}
@@ -0,0 +1,67 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Downloads through a {@link HostLimiter} that allows one connection per
+ * host, so anything that waits for a second slot while holding the first
+ * hangs the test.
+ */
+class HostLimitTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void probesMirrorsOnTheSameHost() throws Exception {
+        byte[] payload = new byte[2 * 1024 * 1024];
+        new Random(7).nextBytes(payload);
+        Path destination = dir.resolve("file.bin");
+        try (RangeServer server = new RangeServer(payload)) {
+            Downloader downloader = new Downloader(
+                Arrays.asList(server.url("/a/file.bin"), server.url("/b/file.bin"), server.url("/c/file.bin")),
+                destination.toString(), 4);
+            download(downloader);
+        }
+        assertArrayEquals(payload, Files.readAllBytes(destination));
+    }
+
+    @Test
+    void fetchesCompressedText() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; text.length() < 2 * 1024 * 1024; line++) {
+            text.append("line ").append(line).append(" of a log that compresses well\n");
+        }
+        byte[] payload = text.toString().getBytes(StandardCharsets.US_ASCII);
+        Path destination = dir.resolve("file.txt");
+        try (RangeServer server = new RangeServer(payload, "text/plain", true)) {
+            Downloader downloader = new Downloader(server.url("/file.txt"), destination.toString(), 4);
+            downloader.setCompressionMode(CompressionMode.AUTO);
+            download(downloader);
+            assertTrue(downloader.isCompressed());
+        }
+        assertArrayEquals(payload, Files.readAllBytes(destination));
+    }
+
+    private static void download(Downloader downloader) {
+        downloader.setPrintProgress(false);
+        downloader.setHostLimiter(new HostLimiter(1));
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            downloader.startDownload();
+            downloader.getCompletion().get();
+        });
+    }
+}
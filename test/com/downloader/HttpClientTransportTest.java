@@ -0,0 +1,78 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.http.HttpConnectTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class HttpClientTransportTest {
+
+    @Test
+    void isTheDefaultBackend() {
+        assertInstanceOf(HttpClientTransport.class, Transport.fromSystemProperty());
+    }
+
+    @Test
+    void goesThroughTheConfiguredProxy() throws IOException {
+        try (RawHttpServer proxy = new RawHttpServer(request ->
+                "HTTP/1.1 200 OK\r\nContent-Length: 7\r\n\r\nproxied")) {
+            String port = proxy.url("").substring(proxy.url("").lastIndexOf(':') + 1);
+            System.setProperty("http.proxyHost", "127.0.0.1");
+            System.setProperty("http.proxyPort", port);
+            try {
+                // The host does not resolve; only a proxy can answer for it
+                HttpClientTransport transport = new HttpClientTransport();
+                try (TransportResponse response = transport.send(
+                        TransportRequest.get("http://downloader.invalid/file").timeouts(2000, 2000))) {
+                    assertEquals(200, response.getStatusCode());
+                    assertEquals("proxied", PooledTransportTest.readAll(response.getBody()));
+                }
+                assertEquals("http://downloader.invalid/file", proxy.lastRequest().get(":path"));
+            } finally {
+                System.clearProperty("http.proxyHost");
+                System.clearProperty("http.proxyPort");
+            }
+        }
+    }
+
+    @Test
+    void honoursTheRequestConnectTimeout() throws IOException {
+        // A server that never accepts, with its backlog already full, leaves connects hanging
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            List<Socket> queued = new ArrayList<>();
+            try {
+                for (int i = 0; i < 4; i++) {
+                    Socket socket = new Socket();
+                    try {
+                        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), 200);
+                        queued.add(socket);
+                    } catch (IOException e) {
+                        socket.close();
+                        break;
+                    }
+                }
+                String url = "http://127.0.0.1:" + server.getLocalPort() + "/file";
+                HttpClientTransport transport = new HttpClientTransport();
+                assertTimeoutPreemptively(Duration.ofSeconds(5), () ->
+                    assertThrows(HttpConnectTimeoutException.class,
+                        () -> transport.send(TransportRequest.get(url).timeouts(500, 30000))));
+            } finally {
+                for (Socket socket : queued) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class PooledTransportTest {
+
+    @Test
+    void chunkedMustBeTheLastCoding() {
+        assertTrue(PooledTransport.isChunked("chunked"));
+        assertTrue(PooledTransport.isChunked("gzip, chunked"));
+        assertTrue(PooledTransport.isChunked("gzip,Chunked "));
+        assertFalse(PooledTransport.isChunked("chunked, gzip"));
+        assertFalse(PooledTransport.isChunked(null));
+    }
+
+    @Test
+    void readsChunkedBodyAfterAnotherCoding() throws IOException {
+        // The server keeps the connection open, so only the chunk framing can end the body
+        try (RawHttpServer server = new RawHttpServer(request ->
+                "HTTP/1.1 200 OK\r\nTransfer-Encoding: gzip, chunked\r\n\r\n5\r\nhello\r\n0\r\n\r\n")) {
+            PooledTransport transport = new PooledTransport(new ConnectionPool(2, 30000));
+            try (TransportResponse response = transport.send(
+                    TransportRequest.get(server.url("/file")).timeouts(2000, 2000))) {
+                assertEquals(-1, response.getContentLength());
+                assertEquals("hello", readAll(response.getBody()));
+            }
+        }
+    }
+
+    @Test
+    void redirectToAnotherServerDropsCredentials() throws IOException {
+        try (RawHttpServer target = new RawHttpServer(request ->
+                "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+             RawHttpServer origin = new RawHttpServer(request ->
+                "HTTP/1.1 302 Found\r\nLocation: " + target.url("/moved") + "\r\nContent-Length: 0\r\n\r\n")) {
+            PooledTransport transport = new PooledTransport(new ConnectionPool(2, 30000));
+            TransportRequest request = TransportRequest.get(origin.url("/file"))
+                .range(0, 99)
+                .header("Authorization", "Bearer secret")
+                .header("Cookie", "session=1");
+            try (TransportResponse response = transport.send(request)) {
+                assertEquals("ok", readAll(response.getBody()));
+            }
+
+            Map<String, String> sent = target.lastRequest();
+            assertNull(sent.get("authorization"));
+            assertNull(sent.get("cookie"));
+            assertEquals("bytes=0-99", sent.get("range"));
+            assertEquals("Bearer secret", origin.lastRequest().get("authorization"));
+        }
+    }
+
+    @Test
+    void redirectOnTheSameServerKeepsHeaders() throws IOException {
+        try (RawHttpServer server = new RawHttpServer(request -> request.get(":path").equals("/file")
+                ? "HTTP/1.1 301 Moved\r\nLocation: /moved\r\nContent-Length: 0\r\n\r\n"
+                : "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok")) {
+            PooledTransport transport = new PooledTransport(new ConnectionPool(2, 30000));
+            TransportRequest request = TransportRequest.get(server.url("/file"))
+                .header("Authorization", "Bearer secret");
+            try (TransportResponse response = transport.send(request)) {
+                assertEquals("ok", readAll(response.getBody()));
+            }
+            assertEquals("/moved", server.lastRequest().get(":path"));
+            assertEquals("Bearer secret", server.lastRequest().get("authorization"));
+        }
+    }
+
+    static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toString(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,95 @@
+package com.downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A loopback server that serves one file at every path, with ranges.
+ * Optionally it sends the whole file gzipped to a GET that asks for it
+ * without a range.
+ */
+class RangeServer implements Closeable {
+    private final HttpServer server;
+    private final byte[] payload;
+    private final String contentType;
+    private final byte[] gzipped;
+
+    RangeServer(byte[] payload) throws IOException {
+        this(payload, "application/octet-stream", false);
+    }
+
+    RangeServer(byte[] payload, String contentType, boolean gzip) throws IOException {
+        this.payload = payload;
+        this.contentType = contentType;
+        this.gzipped = gzip ? gzip(payload) : null;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        server.createContext("/", this::serve);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (range == null && gzipped != null && encoding != null && encoding.contains("gzip")) {
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, gzipped.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(gzipped);
+            }
+            return;
+        }
+
+        int start = 0;
+        int end = payload.length - 1;
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring(6).split("-", -1);
+            start = Integer.parseInt(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            exchange.getResponseHeaders().add("Content-Range",
+                "bytes " + start + "-" + end + "/" + payload.length);
+        }
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(payload.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(payload, start, end - start + 1);
+        } catch (IOException e) {
+            // The client closed a range it no longer needs
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,99 @@
+package com.downloader;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * A loopback HTTP/1.1 server that writes whatever raw response the test
+ * gives it, so framing and headers the JDK server would fix up can be
+ * tested. Connections are kept open after each response.
+ */
+class RawHttpServer implements Closeable {
+    private final ServerSocket socket;
+    private final Function<Map<String, String>, String> handler;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private volatile Map<String, String> lastRequest;
+
+    /**
+     * @param handler gets the request headers, lower-cased, plus ":method"
+     *        and ":path", and returns the response to write
+     */
+    RawHttpServer(Function<Map<String, String>, String> handler) throws IOException {
+        this.handler = handler;
+        this.socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "raw-http-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + socket.getLocalPort() + path;
+    }
+
+    Map<String, String> lastRequest() {
+        return lastRequest;
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                connections.add(connection);
+                Thread thread = new Thread(() -> serve(connection), "raw-http-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (Socket s = connection) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+            OutputStream out = s.getOutputStream();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Map<String, String> request = new HashMap<>();
+                String[] parts = line.split(" ");
+                request.put(":method", parts[0]);
+                request.put(":path", parts.length > 1 ? parts[1] : "");
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        request.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                    }
+                }
+                lastRequest = request;
+                out.write(handler.apply(request).getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+    }
+}
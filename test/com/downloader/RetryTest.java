@@ -0,0 +1,69 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RetryTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * The server has no ranges and no length, and its first response
+     * breaks off half way with other bytes than the second one sends, so
+     * only a restart with a fresh digest gets the file and its digest
+     * right.
+     */
+    @Test
+    void downloadWithoutRangesStartsOver() throws Exception {
+        byte[] payload = new byte[256 * 1024];
+        new Random(11).nextBytes(payload);
+        byte[] stale = Arrays.copyOf(payload, payload.length / 2);
+        Arrays.fill(stale, (byte) 'x');
+        AtomicInteger gets = new AtomicInteger();
+        Path destination = dir.resolve("file.bin");
+        try (RawHttpServer server = new RawHttpServer(request -> {
+            if (request.get(":method").equals("HEAD")) {
+                return "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n";
+            }
+            String head = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n";
+            if (gets.incrementAndGet() == 1) {
+                // A chunk size that is not hex makes the body unreadable from here on
+                return head + chunk(stale) + "zz\r\n";
+            }
+            return head + chunk(payload) + "0\r\n\r\n";
+        })) {
+            Downloader downloader = new Downloader(server.url("/file.bin"), destination.toString(), 4);
+            downloader.setPrintProgress(false);
+            downloader.setTransport(new PooledTransport());
+            downloader.setRetryPolicy(new RetryPolicy(3, 10, 100));
+            downloader.setDigestAlgorithm(Checksum.SHA_256);
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                downloader.startDownload();
+                downloader.getCompletion().get();
+            });
+            assertEquals(2, gets.get());
+            String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(payload));
+            assertEquals(expected, downloader.getChecksum());
+        }
+        assertArrayEquals(payload, Files.readAllBytes(destination));
+    }
+
+    private static String chunk(byte[] data) {
+        return Integer.toHexString(data.length) + "\r\n" + new String(data, StandardCharsets.ISO_8859_1) + "\r\n";
+    }
+}
@@ -0,0 +1,101 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SegmentSchedulerTest {
+    private static final long KB = 1024;
+    private static final long BLOCK = 64 * KB;
+    private static final long MIN = 256 * KB;
+
+    private final Object first = new Object();
+    private final Object second = new Object();
+
+    @Test
+    void stealsTheSecondHalfAtABlockBoundary() {
+        SegmentScheduler scheduler = new SegmentScheduler(MIN, BLOCK);
+        scheduler.splitEvenly(4096 * KB, 1);
+        Segment owned = scheduler.next(first);
+        // 1000 KB written leaves 3096 KB; the middle of that falls inside a block
+        owned.setPosition(1000 * KB);
+
+        Segment stolen = scheduler.next(second);
+        long mid = 1000 * KB + 3096 * KB / 2;
+        long aligned = (mid + BLOCK - 1) / BLOCK * BLOCK;
+        assertEquals(aligned, stolen.getStart());
+        assertEquals(0, stolen.getStart() % BLOCK);
+        assertEquals(4096 * KB - 1, stolen.getEnd());
+        assertEquals(aligned - 1, owned.getEnd());
+        assertSame(second, stolen.getOwner());
+    }
+
+    @Test
+    void stealsOnlyFromRangesOfTwiceTheMinimum() {
+        SegmentScheduler scheduler = new SegmentScheduler(MIN, BLOCK);
+        scheduler.splitEvenly(2 * MIN, 1);
+        Segment owned = scheduler.next(first);
+
+        owned.setPosition(1);
+        assertNull(scheduler.next(second), "one byte short of twice the minimum");
+
+        owned.setPosition(0);
+        Segment stolen = scheduler.next(second);
+        assertEquals(MIN, stolen.getStart());
+        assertEquals(MIN - 1, owned.getEnd());
+    }
+
+    @Test
+    void ownerOverrunningItsShrunkEndFinishesTheRange() {
+        SegmentScheduler scheduler = new SegmentScheduler(MIN, BLOCK);
+        scheduler.splitEvenly(1024 * KB, 1);
+        Segment owned = scheduler.next(first);
+        Segment stolen = scheduler.next(second);
+        long end = owned.getEnd();
+
+        // The owner read one more 64 KB buffer before noticing the new end
+        owned.setPosition(end + 1 + BLOCK);
+        assertTrue(scheduler.finish(owned, first));
+        assertTrue(owned.isDone());
+        assertEquals(stolen.getStart(), scheduler.firstUnwritten(0));
+        assertFalse(scheduler.isComplete());
+
+        stolen.setPosition(stolen.getEnd() + 1);
+        assertTrue(scheduler.finish(stolen, second));
+        assertTrue(scheduler.isComplete());
+        assertEquals(Long.MAX_VALUE, scheduler.firstUnwritten(0));
+    }
+
+    @Test
+    void progressIsCappedAtTheEnd() {
+        SegmentScheduler scheduler = new SegmentScheduler(MIN, BLOCK);
+        scheduler.splitEvenly(1024 * KB, 1);
+        Segment owned = scheduler.next(first);
+        Segment stolen = scheduler.next(second);
+        owned.setPosition(owned.getEnd() + 1 + BLOCK);
+        stolen.setPosition(stolen.getStart() + BLOCK);
+
+        long total = 0;
+        for (ProgressSnapshot.SegmentProgress progress : scheduler.snapshot()) {
+            total += progress.getBytes();
+        }
+        // The overrun bytes are counted once, for the stolen range
+        assertEquals(owned.getEnd() + 1 + BLOCK, total);
+        assertEquals(owned.getEnd() + 1, owned.toProgress().getBytes());
+    }
+
+    @Test
+    void unknownSizeIsOneRangeThatIsNeverSplit() {
+        SegmentScheduler scheduler = new SegmentScheduler(MIN, BLOCK);
+        scheduler.splitEvenly(-1, 4);
+        Segment owned = scheduler.next(first);
+        assertFalse(owned.isBounded());
+        owned.setPosition(100 * MIN);
+        assertNull(scheduler.next(second));
+        assertEquals(100 * MIN, owned.toProgress().getBytes());
+    }
+}
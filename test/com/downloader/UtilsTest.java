@@ -0,0 +1,44 @@
+package com.downloader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UtilsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void linkOrCopyReplacesTheDestination() throws IOException {
+        Path source = Files.writeString(dir.resolve("source"), "new");
+        Path destination = Files.writeString(dir.resolve("destination"), "old");
+        assertTrue(Utils.linkOrCopy(source, destination, true));
+        assertEquals("new", Files.readString(destination));
+        assertEquals(2, countFiles());
+    }
+
+    @Test
+    void failedLinkOrCopyLeavesNoTempFile() throws IOException {
+        Path source = Files.writeString(dir.resolve("source"), "new");
+        // A directory with something in it cannot be replaced by a file
+        Path destination = Files.createDirectory(dir.resolve("destination"));
+        Files.writeString(destination.resolve("inside"), "");
+        assertThrows(IOException.class, () -> Utils.linkOrCopy(source, destination, true));
+        assertEquals(2, countFiles());
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+}